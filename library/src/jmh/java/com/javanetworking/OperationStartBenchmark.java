@@ -0,0 +1,139 @@
+package com.javanetworking;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.javanetworking.URLConnectionOperation.URLCompletion;
+import com.operationqueue.OperationQueue;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ Starts {@code OPERATION_COUNT} operations at once against a loopback HTTP server and waits for all of
+ them to complete, comparing the previous queue (and thread) per operation with the shared default
+ operation queue used by {@code URLConnectionOperation.start()}.
+
+ The peak resident set size of the benchmark JVM is printed at the end of each trial on Linux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class OperationStartBenchmark {
+
+    private static final int OPERATION_COUNT = 10000;
+
+    @Param({ "queuePerOperation", "defaultOperationQueue" })
+    public String scheduler;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String urlString;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        final byte[] body = "{}".getBytes();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), OPERATION_COUNT);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        urlString = String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+
+        System.out.println(String.format("%s peak RSS: %s", scheduler, peakResidentSetSize()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATION_COUNT)
+    public void startOperations() throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(OPERATION_COUNT);
+
+        URLCompletion completion = new URLCompletion() {
+            @Override
+            public void failure(URLRequest urlRequest, Throwable t) {
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest urlRequest, byte[] responseData) {
+                signal.countDown();
+            }
+        };
+
+        for (int i=0; i<OPERATION_COUNT; i++) {
+            URLConnectionOperation operation = URLConnectionOperation.operationWithURLRequest(URLRequest.requestWithURLString(urlString), completion);
+
+            if (scheduler.equals("queuePerOperation")) {
+                new OperationQueue().addOperation(operation);
+            } else {
+                operation.start();
+            }
+        }
+
+        signal.await();
+    }
+
+    /**
+     Reads the peak resident set size (VmHWM) of this process from procfs.
+     */
+    private static String peakResidentSetSize() throws IOException {
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/self/status"));
+        } catch (IOException e) {
+            return "unavailable";
+        }
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return line.substring("VmHWM:".length()).trim();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return "unavailable";
+    }
+}
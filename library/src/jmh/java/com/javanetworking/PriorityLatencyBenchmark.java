@@ -0,0 +1,157 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.URLConnectionOperation.QueuePriority;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ Measures the latency of `High` priority requests while the client queue is saturated with a backlog of `Low`
+ priority requests, on a queue executing operations in the order they are added and on a priority queue.
+
+ The loopback server answers each request after a fixed delay. Compare the p0.99 percentile of the sample time
+ output between the two queues.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Dsun.net.httpserver.nodelay=true" })
+public class PriorityLatencyBenchmark {
+
+    /**
+     The number of workers of the client queue.
+     */
+    private static final int WORKER_COUNT = 4;
+
+    /**
+     The number of `Low` priority requests kept waiting in the client queue.
+     */
+    private static final int BACKLOG_LENGTH = 200;
+
+    /**
+     The time the server takes to answer a request.
+     */
+    private static final long RESPONSE_DELAY_MILLIS = 2;
+
+    @Param({ "fifo", "priority" })
+    public String queue;
+
+    private HttpServer server;
+    private HTTPClient client;
+    private Thread backlogThread;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(RESPONSE_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        client = HTTPClient.clientWithBaseURL(String.format("http://127.0.0.1:%d", server.getAddress().getPort()));
+        client.setTimeout(10000);
+        if (queue.equals("priority")) {
+            client.setOperationQueue(WorkerOperationQueue.queueWithPriorities(WORKER_COUNT));
+        } else {
+            client.setOperationQueue(new WorkerOperationQueue(WORKER_COUNT));
+        }
+
+        // Keeps the backlog full, a completed request makes room for the next one
+        final Semaphore backlog = new Semaphore(BACKLOG_LENGTH);
+        running = true;
+        backlogThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        backlog.acquire();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    client.GET("/prefetch", null, QueuePriority.Low, new HTTPCompletion() {
+                        @Override
+                        public void failure(URLRequest request, Throwable t) {
+                            backlog.release();
+                        }
+                        @Override
+                        public void success(URLRequest request, Object response) {
+                            backlog.release();
+                        }
+                    });
+                }
+            }
+        });
+        backlogThread.setDaemon(true);
+        backlogThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        running = false;
+        backlogThread.interrupt();
+        backlogThread.join();
+        client.getOperationQueue().cancelAllOperations();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public Object interactiveRequest() throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+
+        client.GET("/interactive", null, QueuePriority.High, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+
+        signal.await();
+        return result[0];
+    }
+}
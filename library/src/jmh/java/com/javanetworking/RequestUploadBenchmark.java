@@ -0,0 +1,134 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.javanetworking.URLConnectionOperation.URLCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ Uploads a request body to a loopback HTTP server, comparing the previous upload path, where
+ {@link HttpURLConnection} buffers the whole body before sending it, with fixed length and chunked streaming mode.
+
+ The peak heap usage of each trial is printed at the end of the trial. Run with `-prof gc` to compare the bytes
+ allocated per upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Dsun.net.httpserver.nodelay=true", "-Xmx1g" })
+public class RequestUploadBenchmark {
+
+    @Param({ "1048576", "104857600" })
+    public int bodyLength;
+
+    @Param({ "buffered", "fixedLength", "chunked" })
+    public String mode;
+
+    private byte[] body;
+    private HttpServer server;
+    private String urlString;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        body = new byte[bodyLength];
+        for (int i=0; i<body.length; i++) {
+            body[i] = (byte) i;
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream is = exchange.getRequestBody();
+                byte[] buffer = new byte[64 * 1024];
+                while (is.read(buffer) != -1) {
+                    // Discard the upload
+                }
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        urlString = String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+
+        long peakHeapUsage = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeapUsage += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println(String.format("%s %d bytes peak heap: %d MB", mode, bodyLength, peakHeapUsage / (1024 * 1024)));
+    }
+
+    @Benchmark
+    public int upload() throws IOException {
+        URLRequest request = URLRequest.requestWithURLString(urlString);
+        request.setRequestMethod("POST");
+
+        if (mode.equals("buffered")) {
+            // The upload path before streaming modes
+            request.setDoOutput(true);
+            request.getOutputStream().write(body);
+            return request.getResponseCode();
+        }
+
+        if (mode.equals("chunked")) {
+            request.setChunkedStreamingMode(0);
+        }
+        request.setHTTPBody(body);
+
+        final int[] statusCode = new int[1];
+        URLConnectionOperation operation = URLConnectionOperation.operationWithURLRequest(request, new URLCompletion() {
+            @Override
+            public void failure(URLRequest urlRequest, Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            @Override
+            public void success(URLRequest urlRequest, byte[] responseData) {
+                try {
+                    statusCode[0] = urlRequest.getResponseCode();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        operation.startSynchronous();
+        return statusCode[0];
+    }
+}
@@ -0,0 +1,111 @@
+package com.javanetworking;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.javanetworking.URLConnectionOperation.URLCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ Compares the bulk response read path of {@link URLConnectionOperation} with the previous
+ byte-at-a-time read loop against a loopback HTTP server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class ResponseReadBenchmark {
+
+    @Param({ "1024", "1048576", "104857600" })
+    public int bodyLength;
+
+    private HttpServer server;
+    private String urlString;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        final byte[] body = new byte[bodyLength];
+        for (int i=0; i<body.length; i++) {
+            body[i] = (byte) i;
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+
+        urlString = String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public byte[] byteAtATime() throws IOException {
+        URLRequest request = URLRequest.requestWithURLString(urlString);
+        ByteArrayOutputStream accumulationBuffer = new ByteArrayOutputStream();
+
+        InputStream is = request.getInputStream();
+        BufferedInputStream bin = new BufferedInputStream(is);
+
+        int c;
+        while (-1 != (c = bin.read())) {
+            accumulationBuffer.write(c);
+        }
+        bin.close();
+        is.close();
+
+        return accumulationBuffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] bulkTransfer() {
+        final byte[][] response = new byte[1][];
+
+        URLRequest request = URLRequest.requestWithURLString(urlString);
+        URLConnectionOperation.operationWithURLRequest(request, new URLCompletion() {
+            @Override
+            public void failure(URLRequest urlRequest, Throwable t) {
+                throw new RuntimeException(t);
+            }
+            @Override
+            public void success(URLRequest urlRequest, byte[] responseData) {
+                response[0] = responseData;
+            }
+        }).startSynchronous();
+
+        return response[0];
+    }
+}
@@ -0,0 +1,407 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ {@link CachedURLResponse} is a response stored in a {@link URLResponseCache}: the status code, the header fields,
+ the decoded body and the time until which the response is fresh.
+
+ Responses are cacheable if they answer a `GET` request without `Range` header with status 200 and carry an explicit freshness lifetime,
+ `Cache-Control: max-age` or `Expires`, or a validator, `ETag` or `Last-Modified`. A response with a validator but
+ without a lifetime, or with `Cache-Control: no-cache`, is stored stale and revalidated with a conditional request
+ before it is used. `Cache-Control: no-store` responses and `Vary: *` are not cached. The request header values named
+ by `Vary` are recorded, a cached response only answers requests with the same values.
+
+ Requests with a `Range` or `If-Range` header, e.g. the segments of a download, neither use nor revalidate nor
+ store cached responses: the cache holds complete representations only.
+ */
+public class CachedURLResponse {
+
+    private final String urlString;
+    private final int statusCode;
+    private final Map<String, List<String>> headerFields;
+    private final ByteBuffer data;
+    private final Map<String, String> varyingRequestHeaders;
+    private final long expirationTimeMillis;
+
+    CachedURLResponse(String urlString, int statusCode, Map<String, List<String>> headerFields, byte[] data, Map<String, String> varyingRequestHeaders, long expirationTimeMillis) {
+        this(urlString, statusCode, headerFields, ByteBuffer.wrap(data), varyingRequestHeaders, expirationTimeMillis);
+    }
+
+    /**
+     Creates a response with a body in a buffer, e.g. a file mapped into memory by a {@link DiskURLResponseCache}.
+     */
+    CachedURLResponse(String urlString, int statusCode, Map<String, List<String>> headerFields, ByteBuffer data, Map<String, String> varyingRequestHeaders, long expirationTimeMillis) {
+        this.urlString = urlString;
+        this.statusCode = statusCode;
+        this.headerFields = Collections.unmodifiableMap(headerFields);
+        this.data = data;
+        this.varyingRequestHeaders = Collections.unmodifiableMap(varyingRequestHeaders);
+        this.expirationTimeMillis = expirationTimeMillis;
+    }
+
+    /**
+     Creates a cached response from a received response.
+
+     @param request The {@link URLRequest} that received the response.
+     @param data The decoded response body.
+
+     @return A {@link CachedURLResponse}, or null if the response may not be cached.
+     */
+    static CachedURLResponse responseForRequest(URLRequest request, byte[] data) throws IOException {
+        if (!isCacheableRequest(request) || request.getResponseCode() != 200) {
+            return null;
+        }
+
+        Map<String, String> varyingRequestHeaders = varyingRequestHeaders(request);
+        if (varyingRequestHeaders == null) {
+            return null;
+        }
+
+        if (hasDirective(request.getHeaderField("Cache-Control"), "no-store")) {
+            return null;
+        }
+
+        long freshnessLifetime = freshnessLifetimeMillis(request);
+        if (freshnessLifetime <= 0 && request.getHeaderField("ETag") == null && request.getHeaderField("Last-Modified") == null) {
+            return null;
+        }
+
+        return new CachedURLResponse(request.getURLString(), 200, cachedHeaderFields(request.getHeaderFields(), data.length), data,
+            varyingRequestHeaders, System.currentTimeMillis() + Math.max(freshnessLifetime, 0));
+    }
+
+    /**
+     Creates the response to store after a `304 Not Modified` answered a conditional request for this response. The
+     header fields of the 304 replace the stored ones and the freshness lifetime is recomputed, the body is kept.
+
+     @param request The {@link URLRequest} that received the `304 Not Modified`.
+
+     @return A {@link CachedURLResponse} with the body of this response.
+     */
+    CachedURLResponse responseRevalidatedByRequest(URLRequest request) {
+        Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>(this.headerFields);
+        for (Map.Entry<String, List<String>> field : request.getHeaderFields().entrySet()) {
+            if (field.getKey() == null) {
+                continue;
+            }
+            for (String name : new ArrayList<String>(headerFields.keySet())) {
+                if (name.equalsIgnoreCase(field.getKey())) {
+                    headerFields.remove(name);
+                }
+            }
+            headerFields.put(field.getKey(), field.getValue());
+        }
+
+        long freshnessLifetime = freshnessLifetimeMillis(request);
+        return new CachedURLResponse(this.urlString, this.statusCode, cachedHeaderFields(headerFields, this.getDataLength()), this.data,
+            this.varyingRequestHeaders, System.currentTimeMillis() + Math.max(freshnessLifetime, 0));
+    }
+
+    /**
+     Returns whether responses to the request may be stored, a `GET` request without `Range`, `If-Range` or
+     `Cache-Control: no-store` header.
+     */
+    static boolean isCacheableRequest(URLRequest request) {
+        if (!request.getRequestMethod().equalsIgnoreCase("GET")) {
+            return false;
+        }
+        if (requestProperty(request, "Range") != null || requestProperty(request, "If-Range") != null) {
+            return false;
+        }
+        return !hasDirective(requestProperty(request, "Cache-Control"), "no-store");
+    }
+
+    /**
+     Returns whether the request may be answered from the cache, a cacheable request without `Cache-Control: no-cache`.
+     */
+    static boolean isCacheLookupRequest(URLRequest request) {
+        return isCacheableRequest(request) && !hasDirective(requestProperty(request, "Cache-Control"), "no-cache");
+    }
+
+    /**
+     Returns the URL of the request this response answers, the key of the response in a cache.
+     */
+    public String getURLString() {
+        return this.urlString;
+    }
+
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     Returns the response header fields. The body is stored decoded, so `Content-Encoding` is removed and
+     `Content-Length` is the length of the stored body.
+     */
+    public Map<String, List<String>> getHeaderFields() {
+        return this.headerFields;
+    }
+
+    /**
+     Returns the `ETag` of the response, or null.
+     */
+    public String getEntityTag() {
+        return this.getHeaderField("ETag");
+    }
+
+    /**
+     Returns the `Last-Modified` date of the response as sent by the server, or null.
+     */
+    public String getLastModified() {
+        return this.getHeaderField("Last-Modified");
+    }
+
+    /**
+     Returns whether the response can be revalidated with a conditional request, it has an `ETag` or a
+     `Last-Modified` date.
+     */
+    public boolean hasValidator() {
+        return this.getEntityTag() != null || this.getLastModified() != null;
+    }
+
+    private String getHeaderField(String name) {
+        for (Map.Entry<String, List<String>> field : this.headerFields.entrySet()) {
+            if (field.getKey().equalsIgnoreCase(name) && !field.getValue().isEmpty()) {
+                return field.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     Returns the decoded response body. The array of a body held in memory is shared, it must not be modified.
+     A body held in a file is copied into a new array, prefer {@code getDataBuffer()}.
+     */
+    public byte[] getData() {
+        if (this.data.hasArray() && this.data.arrayOffset() == 0 && this.data.array().length == this.data.limit()) {
+            return this.data.array();
+        }
+        byte[] data = new byte[this.data.limit()];
+        this.data.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     Returns the decoded response body as a read-only buffer, without copying it.
+     */
+    public ByteBuffer getDataBuffer() {
+        return this.data.asReadOnlyBuffer();
+    }
+
+    /**
+     Returns the length of the decoded response body.
+     */
+    public int getDataLength() {
+        return this.data.limit();
+    }
+
+    /**
+     Returns the request header values named by the responses `Vary` header, null values for absent headers.
+     */
+    public Map<String, String> getVaryingRequestHeaders() {
+        return this.varyingRequestHeaders;
+    }
+
+    /**
+     Returns the time in milliseconds since the epoch until which the response is fresh.
+     */
+    public long getExpirationTimeMillis() {
+        return this.expirationTimeMillis;
+    }
+
+    /**
+     Returns whether the response may still be used without contacting the server.
+     */
+    public boolean isFresh() {
+        return System.currentTimeMillis() < this.expirationTimeMillis;
+    }
+
+    /**
+     Returns whether the request has the same values for the headers named by `Vary` as the original request.
+     */
+    public boolean matchesRequest(URLRequest request) {
+        if (!this.urlString.equals(request.getURLString())) {
+            return false;
+        }
+        for (Map.Entry<String, String> header : this.varyingRequestHeaders.entrySet()) {
+            String value = requestProperty(request, header.getKey());
+            if ((value == null) ? header.getValue() != null : !value.equals(header.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     Returns the approximate number of bytes this response occupies, the body and the header fields.
+     */
+    public long getByteCount() {
+        long byteCount = this.data.limit() + this.urlString.length();
+        for (Map.Entry<String, List<String>> field : this.headerFields.entrySet()) {
+            for (String value : field.getValue()) {
+                byteCount += field.getKey().length() + value.length();
+            }
+        }
+        return byteCount;
+    }
+
+    /**
+     Returns the freshness lifetime of the received response from `Cache-Control: max-age` or `Expires`, reduced by
+     its `Age`.
+
+     @return The lifetime in milliseconds, 0 or less if the response is already stale, or -1 if it has no explicit
+     lifetime or must not be cached.
+     */
+    static long freshnessLifetimeMillis(URLRequest request) {
+        String cacheControl = request.getHeaderField("Cache-Control");
+        if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "no-cache")) {
+            return -1;
+        }
+
+        long lifetime;
+        String maxAge = directiveValue(cacheControl, "max-age");
+        if (maxAge != null) {
+            try {
+                lifetime = Long.parseLong(maxAge) * 1000;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        } else {
+            String expires = request.getHeaderField("Expires");
+            if (expires == null) {
+                return -1;
+            }
+
+            Date expirationDate = parseHTTPDate(expires);
+            if (expirationDate == null) {
+                // An invalid date means already expired
+                return 0;
+            }
+            Date date = parseHTTPDate(request.getHeaderField("Date"));
+            long now = (date != null) ? date.getTime() : System.currentTimeMillis();
+            lifetime = expirationDate.getTime() - now;
+        }
+
+        String age = request.getHeaderField("Age");
+        if (age != null) {
+            try {
+                lifetime -= Long.parseLong(age.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // Ignored, as if absent
+            }
+        }
+        return lifetime;
+    }
+
+    /**
+     Records the request header values named by `Vary`.
+
+     @return The header values, or null if the response varies on everything.
+     */
+    private static Map<String, String> varyingRequestHeaders(URLRequest request) {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        List<String> varyFields = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> field : request.getHeaderFields().entrySet()) {
+            if ("Vary".equalsIgnoreCase(field.getKey())) {
+                varyFields.addAll(field.getValue());
+            }
+        }
+        for (String vary : varyFields) {
+            for (String name : vary.split(",")) {
+                name = name.trim();
+                if (name.equals("*")) {
+                    return null;
+                }
+                if (!name.isEmpty()) {
+                    headers.put(name, requestProperty(request, name));
+                }
+            }
+        }
+        return headers;
+    }
+
+    private static Map<String, List<String>> cachedHeaderFields(Map<String, List<String>> headerFields, int contentLength) {
+        Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> field : headerFields.entrySet()) {
+            String name = field.getKey();
+            // The status line of a URLConnection has no name
+            if (name == null || name.equalsIgnoreCase("Content-Encoding") || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")) {
+                continue;
+            }
+            fields.put(name, Collections.unmodifiableList(new ArrayList<String>(field.getValue())));
+        }
+        fields.put("Content-Length", Collections.singletonList(Integer.toString(contentLength)));
+        return fields;
+    }
+
+    /**
+     Returns a request property by case insensitive name.
+     */
+    static String requestProperty(URLRequest request, String name) {
+        for (Map.Entry<String, String> property : request.getRequestProperties().entrySet()) {
+            if (property.getKey().equalsIgnoreCase(name)) {
+                return property.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasDirective(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String token : cacheControl.split(",")) {
+            String name = token.trim();
+            int equals = name.indexOf('=');
+            if (equals != -1) {
+                name = name.substring(0, equals).trim();
+            }
+            if (name.equalsIgnoreCase(directive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String directiveValue(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String token : cacheControl.split(",")) {
+            int equals = token.indexOf('=');
+            if (equals != -1 && token.substring(0, equals).trim().equalsIgnoreCase(directive)) {
+                return token.substring(equals + 1).trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    /**
+     Parses an RFC 1123 HTTP date, returns null if the date is missing or invalid.
+     */
+    static Date parseHTTPDate(String string) {
+        if (string == null) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(string.trim());
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
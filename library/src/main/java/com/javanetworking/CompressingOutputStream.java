@@ -0,0 +1,82 @@
+package com.javanetworking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ {@link CompressingOutputStream} collects a request body and gzip compresses it once it grows beyond a threshold.
+
+ Bytes up to the threshold are buffered as they are. When the threshold is exceeded the buffered bytes are
+ compressed and every later write goes straight through the compressor, so the uncompressed body is never held
+ in memory as a whole.
+ */
+class CompressingOutputStream extends OutputStream {
+
+    private final int threshold;
+    private final ByteArrayOutputStream buffer;
+    private GZIPOutputStream compressor;
+    private boolean closed;
+
+    /**
+     @param threshold The number of bytes written before the body is compressed.
+     */
+    CompressingOutputStream(int threshold) {
+        this.threshold = threshold;
+        this.buffer = new ByteArrayOutputStream(Math.min(Math.max(threshold, 32), 8192));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (this.compressor == null && this.buffer.size() + length > this.threshold) {
+            byte[] uncompressed = this.buffer.toByteArray();
+            this.buffer.reset();
+
+            this.compressor = new GZIPOutputStream(this.buffer, 8192);
+            this.compressor.write(uncompressed);
+        }
+
+        if (this.compressor != null) {
+            this.compressor.write(bytes, offset, length);
+        } else {
+            this.buffer.write(bytes, offset, length);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            if (this.compressor != null) {
+                this.compressor.finish();
+            }
+        }
+    }
+
+    /**
+     Returns whether the body exceeded the threshold and was compressed.
+     */
+    boolean isCompressed() {
+        return this.compressor != null;
+    }
+
+    /**
+     Returns the body, compressed if {@code isCompressed()}. The stream must be closed first.
+     */
+    byte[] toByteArray() {
+        if (!this.closed) {
+            throw new IllegalStateException("Stream not closed");
+        }
+        return this.buffer.toByteArray();
+    }
+}
@@ -0,0 +1,260 @@
+package com.javanetworking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.javanetworking.NIOTransportEngine.Connection;
+import com.javanetworking.NIOTransportEngine.Exchange;
+import com.javanetworking.NIOTransportEngine.SelectorLoop;
+
+/**
+ {@link ConnectionPool} keeps persistent connections opened by a {@link NIOTransportEngine} per host, so
+ requests to the same host reuse a connection instead of paying for a new TCP handshake.
+
+ Each host has at most {@code maxConnectionsPerHost} open connections, requests beyond that wait for a
+ connection to be released. At most {@code maxIdleConnectionsPerHost} released connections are kept, and
+ idle connections are closed after {@code keepAliveMillis}, or when the server closes them.
+
+ The pool counts hits (a request reused a connection), misses (a request opened a new connection),
+ evictions (an idle connection was closed by the pool) and stale retries (a request on a reused connection
+ failed before any response was received and was sent again on a new connection).
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 8;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 64;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+
+    /**
+     The connections of a single host.
+     */
+    private static class HostConnections {
+        final Deque<Connection> idleConnections = new ArrayDeque<Connection>();
+        final Deque<Exchange> waitingExchanges = new ArrayDeque<Exchange>();
+        int connectionCount;
+    }
+
+    private final int maxIdleConnectionsPerHost;
+    private final int maxConnectionsPerHost;
+    private final long keepAliveMillis;
+
+    private final Map<String, HostConnections> hosts;
+
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong evictionCount;
+    private final AtomicLong staleRetryCount;
+
+    /**
+     Creates a pool with the default limits.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     Creates a pool.
+
+     @param maxIdleConnectionsPerHost The maximum number of idle connections kept per host.
+     @param maxConnectionsPerHost The maximum number of open connections per host.
+     @param keepAliveMillis The time an idle connection is kept before it is closed.
+     */
+    public ConnectionPool(int maxIdleConnectionsPerHost, int maxConnectionsPerHost, long keepAliveMillis) {
+        if (maxIdleConnectionsPerHost < 0) {
+            throw new IllegalArgumentException("maxIdleConnectionsPerHost cannot be negative");
+        }
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+        }
+        if (keepAliveMillis < 1) {
+            throw new IllegalArgumentException("keepAliveMillis must be at least 1");
+        }
+
+        this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.keepAliveMillis = keepAliveMillis;
+
+        this.hosts = new HashMap<String, HostConnections>();
+
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.evictionCount = new AtomicLong();
+        this.staleRetryCount = new AtomicLong();
+    }
+
+    public int getMaxIdleConnectionsPerHost() {
+        return this.maxIdleConnectionsPerHost;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
+    public long getKeepAliveMillis() {
+        return this.keepAliveMillis;
+    }
+
+    /**
+     Returns the number of requests that reused a pooled connection.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     Returns the number of requests that opened a new connection.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     Returns the number of idle connections closed by the pool.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     Returns the number of requests sent again after a reused connection turned out to be closed.
+     */
+    public long getStaleRetryCount() {
+        return this.staleRetryCount.get();
+    }
+
+    /**
+     Returns the number of idle connections to all hosts.
+     */
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (HostConnections host : this.hosts.values()) {
+            count += host.idleConnections.size();
+        }
+        return count;
+    }
+
+    /**
+     Returns the number of open connections to all hosts, idle or in use.
+     */
+    public synchronized int getConnectionCount() {
+        int count = 0;
+        for (HostConnections host : this.hosts.values()) {
+            count += host.connectionCount;
+        }
+        return count;
+    }
+
+    synchronized int getIdleConnectionCount(String poolKey) {
+        HostConnections host = this.hosts.get(poolKey);
+        return (host != null) ? host.idleConnections.size() : 0;
+    }
+
+    /**
+     Removes and returns the most recently used idle connection handled by {@code loop}, or null.
+     */
+    synchronized Connection takeIdleConnection(String poolKey, SelectorLoop loop) {
+        HostConnections host = this.hosts.get(poolKey);
+        if (host == null) {
+            return null;
+        }
+
+        Iterator<Connection> connections = host.idleConnections.iterator();
+        while (connections.hasNext()) {
+            Connection connection = connections.next();
+            if (connection.isOnLoop(loop)) {
+                connections.remove();
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     Returns false if the connection is not kept because the host has enough idle connections.
+     */
+    synchronized boolean addIdleConnection(String poolKey, Connection connection) {
+        HostConnections host = hostConnections(poolKey);
+        if (host.idleConnections.size() >= this.maxIdleConnectionsPerHost) {
+            return false;
+        }
+        host.idleConnections.addFirst(connection);
+        return true;
+    }
+
+    synchronized boolean removeIdleConnection(String poolKey, Connection connection) {
+        HostConnections host = this.hosts.get(poolKey);
+        return host != null && host.idleConnections.remove(connection);
+    }
+
+    /**
+     Counts a new connection to the host, returns false if the host has no connection left.
+     */
+    synchronized boolean reserveConnection(String poolKey) {
+        HostConnections host = hostConnections(poolKey);
+        if (host.connectionCount >= this.maxConnectionsPerHost) {
+            return false;
+        }
+        host.connectionCount++;
+        return true;
+    }
+
+    synchronized void connectionClosed(String poolKey) {
+        HostConnections host = this.hosts.get(poolKey);
+        if (host != null && host.connectionCount > 0) {
+            host.connectionCount--;
+        }
+    }
+
+    synchronized void addWaitingExchange(String poolKey, Exchange exchange) {
+        hostConnections(poolKey).waitingExchanges.addLast(exchange);
+    }
+
+    synchronized Exchange pollWaitingExchange(String poolKey) {
+        HostConnections host = this.hosts.get(poolKey);
+        return (host != null) ? host.waitingExchanges.pollFirst() : null;
+    }
+
+    /**
+     Removes and returns every exchange waiting for a connection to the host.
+     */
+    synchronized List<Exchange> removeWaitingExchanges(String poolKey) {
+        HostConnections host = this.hosts.get(poolKey);
+        if (host == null) {
+            return new ArrayList<Exchange>();
+        }
+        List<Exchange> exchanges = new ArrayList<Exchange>(host.waitingExchanges);
+        host.waitingExchanges.clear();
+        return exchanges;
+    }
+
+    void recordHit() {
+        this.hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        this.missCount.incrementAndGet();
+    }
+
+    void recordEviction() {
+        this.evictionCount.incrementAndGet();
+    }
+
+    void recordStaleRetry() {
+        this.staleRetryCount.incrementAndGet();
+    }
+
+    private HostConnections hostConnections(String poolKey) {
+        HostConnections host = this.hosts.get(poolKey);
+        if (host == null) {
+            host = new HostConnections();
+            this.hosts.put(poolKey, host);
+        }
+        return host;
+    }
+}
@@ -0,0 +1,260 @@
+package com.javanetworking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ {@link ContentDecoder} inflates a `gzip` or `deflate` encoded response body chunk by chunk, as it is received.
+
+ Chunks are pushed into the decoder with {@code decode()} and the decoded data is written to a {@link DataSink},
+ so the same decoder works for blocking streams and for the {@link NIOTransportEngine}.
+ */
+class ContentDecoder {
+
+    /**
+     {@link DataSink} receives decoded data. The buffer is only valid during the call.
+     */
+    interface DataSink {
+        void write(ByteBuffer data) throws IOException;
+    }
+
+    private static final int OUTPUT_BUFFER_LENGTH = 16 * 1024;
+
+    private static final int GZIP_HEADER_LENGTH = 10;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /**
+     Returns a decoder for a `Content-Encoding`, or null if the encoding is absent or not supported. Responses
+     with other encodings are passed on unchanged.
+
+     @param contentEncoding The `Content-Encoding` response header.
+     @param sink The {@link DataSink} receiving the decoded data.
+     */
+    static ContentDecoder decoderForContentEncoding(String contentEncoding, DataSink sink) {
+        if (contentEncoding == null) {
+            return null;
+        }
+
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new ContentDecoder(true, sink);
+        }
+        if (encoding.equals("deflate")) {
+            return new ContentDecoder(false, sink);
+        }
+        return null;
+    }
+
+    private final boolean gzip;
+    private final DataSink sink;
+    private final byte[] output;
+    private final CRC32 crc;
+
+    /**
+     The bytes received before the format header is complete, null once the inflater is created.
+     */
+    private ByteArrayOutputStream header;
+    private Inflater inflater;
+
+    private final byte[] trailer;
+    private int trailerLength;
+    private long decodedLength;
+    private boolean receivedData;
+
+    private ContentDecoder(boolean gzip, DataSink sink) {
+        this.gzip = gzip;
+        this.sink = sink;
+        this.output = new byte[OUTPUT_BUFFER_LENGTH];
+        this.crc = new CRC32();
+        this.header = new ByteArrayOutputStream(GZIP_HEADER_LENGTH);
+        this.trailer = new byte[GZIP_TRAILER_LENGTH];
+    }
+
+    /**
+     Decodes the next chunk of the encoded body and writes the decoded data to the sink.
+     */
+    void decode(ByteBuffer data) throws IOException {
+        byte[] input = data.array();
+        int offset = data.arrayOffset() + data.position();
+        int length = data.remaining();
+        data.position(data.limit());
+
+        if (length == 0) {
+            return;
+        }
+        this.receivedData = true;
+
+        if (this.inflater == null) {
+            this.header.write(input, offset, length);
+
+            input = this.header.toByteArray();
+            int start = this.gzip ? gzipHeaderLength(input) : zlibHeaderStart(input);
+            if (start == -1) {
+                return;
+            }
+            this.header = null;
+            offset = start;
+            length = input.length - start;
+        }
+
+        this.inflate(input, offset, length);
+    }
+
+    private void inflate(byte[] input, int offset, int length) throws IOException {
+        if (this.inflater.finished()) {
+            this.readTrailer(input, offset, length);
+            return;
+        }
+
+        this.inflater.setInput(input, offset, length);
+        while (!this.inflater.finished()) {
+            int decoded;
+            try {
+                decoded = this.inflater.inflate(this.output);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+
+            if (decoded > 0) {
+                this.crc.update(this.output, 0, decoded);
+                this.decodedLength += decoded;
+                this.sink.write(ByteBuffer.wrap(this.output, 0, decoded));
+            } else if (this.inflater.needsDictionary()) {
+                throw new ZipException("Preset dictionaries are not supported");
+            } else if (this.inflater.needsInput()) {
+                return;
+            }
+        }
+
+        int remaining = this.inflater.getRemaining();
+        this.readTrailer(input, offset + length - remaining, remaining);
+    }
+
+    /**
+     Collects the gzip trailer and verifies it once complete. Data after the trailer is ignored.
+     */
+    private void readTrailer(byte[] input, int offset, int length) throws IOException {
+        if (!this.gzip || this.trailerLength == GZIP_TRAILER_LENGTH) {
+            return;
+        }
+
+        int count = Math.min(length, GZIP_TRAILER_LENGTH - this.trailerLength);
+        System.arraycopy(input, offset, this.trailer, this.trailerLength, count);
+        this.trailerLength += count;
+
+        if (this.trailerLength == GZIP_TRAILER_LENGTH) {
+            if (littleEndianInt(this.trailer, 0) != this.crc.getValue()) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            if (littleEndianInt(this.trailer, 4) != (this.decodedLength & 0xffffffffL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        }
+    }
+
+    /**
+     Verifies that the encoded body was complete.
+     */
+    void finish() throws IOException {
+        if (!this.receivedData) {
+            // E.g. the empty body of a `HEAD` request
+            return;
+        }
+        if (this.inflater == null || !this.inflater.finished() || (this.gzip && this.trailerLength < GZIP_TRAILER_LENGTH)) {
+            throw new EOFException("Unexpected end of encoded response body");
+        }
+    }
+
+    /**
+     Releases the native memory of the inflater.
+     */
+    void end() {
+        if (this.inflater != null) {
+            this.inflater.end();
+        }
+    }
+
+    /**
+     Parses a gzip member header and creates a raw inflater.
+
+     @return The length of the header, or -1 if more bytes are needed.
+     */
+    private int gzipHeaderLength(byte[] bytes) throws IOException {
+        if (bytes.length < GZIP_HEADER_LENGTH) {
+            return -1;
+        }
+        if ((bytes[0] & 0xff) != 0x1f || (bytes[1] & 0xff) != 0x8b) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (bytes[2] != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+
+        int flags = bytes[3] & 0xff;
+        int position = GZIP_HEADER_LENGTH;
+
+        if ((flags & FEXTRA) != 0) {
+            if (bytes.length < position + 2) {
+                return -1;
+            }
+            position += 2 + ((bytes[position] & 0xff) | ((bytes[position+1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            position = zeroTerminatedEnd(bytes, position);
+        }
+        if ((flags & FCOMMENT) != 0 && position != -1) {
+            position = zeroTerminatedEnd(bytes, position);
+        }
+        if ((flags & FHCRC) != 0 && position != -1) {
+            position += 2;
+        }
+        if (position == -1 || bytes.length < position) {
+            return -1;
+        }
+
+        this.inflater = new Inflater(true);
+        return position;
+    }
+
+    /**
+     Creates a zlib inflater, or a raw inflater for servers sending `deflate` without the zlib header.
+
+     @return 0, the header is read by the inflater, or -1 if more bytes are needed.
+     */
+    private int zlibHeaderStart(byte[] bytes) {
+        if (bytes.length < 2) {
+            return -1;
+        }
+
+        int cmf = bytes[0] & 0xff;
+        int flg = bytes[1] & 0xff;
+        boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+
+        this.inflater = new Inflater(!zlib);
+        return 0;
+    }
+
+    private static int zeroTerminatedEnd(byte[] bytes, int position) {
+        for (int i=position; i<bytes.length; i++) {
+            if (bytes[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static long littleEndianInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xffL) | ((bytes[offset+1] & 0xffL) << 8) | ((bytes[offset+2] & 0xffL) << 16) | ((bytes[offset+3] & 0xffL) << 24);
+    }
+}
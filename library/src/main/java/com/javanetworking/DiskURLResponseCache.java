@@ -0,0 +1,480 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.javanetworking.gson.Gson;
+import com.javanetworking.gson.JsonParseException;
+import com.javanetworking.gson.reflect.TypeToken;
+
+/**
+ {@link DiskURLResponseCache} is a {@link URLResponseCache} keeping responses in a directory, for responses too
+ large to keep on the heap. The cache survives restarts.
+
+ Each response body is stored in its own data file, which is mapped into memory when the response is used, so a
+ hit does not read the body onto the heap. A {@link URLConnectionOperation.URLDataConsumer} receives the mapped
+ body as it is, only an accumulated response is copied into a `byte[]`. The status, headers and freshness of the
+ responses are kept in an index file, which is rewritten when responses are stored or removed. The index is written
+ after the lock of the cache is released, lookups do not wait for it, and one write records every change made while
+ the previous write was in progress. The least recently used responses are evicted first to stay within the maximum
+ byte count, the order of lookups since the last write is not persisted.
+
+ Replaced and evicted data files are deleted while they may still be mapped by a response in use, which POSIX file
+ systems allow.
+ */
+public class DiskURLResponseCache implements URLResponseCache {
+
+    /**
+     The default maximum number of bytes of stored responses.
+     */
+    public static final long DEFAULT_MAX_BYTE_COUNT = 256L * 1024 * 1024;
+
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String DATA_FILE_SUFFIX = ".data";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     A stored response as recorded in the index file.
+     */
+    private static class IndexEntry {
+        String urlString;
+        String fileName;
+        int statusCode;
+        Map<String, List<String>> headerFields;
+        Map<String, String> varyingRequestHeaders;
+        long expirationTimeMillis;
+        long dataLength;
+
+        long getByteCount() {
+            return this.dataLength + this.urlString.length();
+        }
+    }
+
+    /**
+     A stored response, with the response mapping its data file once it was used.
+     */
+    private static class Entry {
+        final IndexEntry indexEntry;
+        CachedURLResponse response;
+
+        Entry(IndexEntry indexEntry) {
+            this.indexEntry = indexEntry;
+        }
+    }
+
+    private final Path directory;
+    private final long maxByteCount;
+
+    /**
+     The stored responses by URL, in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    private long byteCount;
+
+    /**
+     The number of changes to the stored responses, guarded by this.
+     */
+    private long indexVersion;
+
+    /**
+     Serializes the index writes, taken before the lock of the cache, never while holding it.
+     */
+    private final Object indexLock = new Object();
+
+    /**
+     The number of changes recorded in the index file, guarded by {@code indexLock}.
+     */
+    private long writtenIndexVersion;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     Opens or creates a cache with {@code DEFAULT_MAX_BYTE_COUNT}.
+
+     @param directory The directory of the cache, created if it does not exist.
+     */
+    public DiskURLResponseCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTE_COUNT);
+    }
+
+    /**
+     Opens or creates a cache. Responses stored by a previous instance are loaded from the index file, data files
+     not in the index are deleted.
+
+     @param directory The directory of the cache, created if it does not exist.
+     @param maxByteCount The maximum number of bytes of stored responses. A larger response is not stored.
+     */
+    public DiskURLResponseCache(Path directory, long maxByteCount) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory cannot be null.");
+        }
+        if (maxByteCount < 0) {
+            throw new IllegalArgumentException("maxByteCount cannot be negative");
+        }
+        this.directory = directory;
+        this.maxByteCount = maxByteCount;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.byteCount = 0;
+
+        Files.createDirectories(directory);
+        synchronized (this) {
+            this.readIndex();
+            this.deleteUnindexedDataFiles();
+            this.trimToMaxByteCount();
+        }
+        this.writeIndex();
+    }
+
+    @Override
+    public CachedURLResponse cachedResponseForRequest(URLRequest request) {
+        CachedURLResponse response = null;
+        boolean removed = false;
+
+        synchronized (this) {
+            Entry entry = this.entries.get(request.getURLString());
+            if (entry != null) {
+                try {
+                    response = this.responseForEntry(entry);
+                } catch (IOException e) {
+                    // The data file is gone or unreadable
+                    removed = this.remove(request.getURLString());
+                }
+            }
+        }
+        if (removed) {
+            this.writeIndexIgnoringErrors();
+        }
+        if (response != null && !response.matchesRequest(request)) {
+            response = null;
+        }
+
+        if (response != null && response.isFresh()) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     Stores a response. The body is written to a new data file before the lock of the cache is taken, and the index
+     after it is released, lookups do not wait for the writes. Responses that cannot be written are not stored.
+     */
+    @Override
+    public void storeCachedResponse(URLRequest request, CachedURLResponse response) {
+        String urlString = request.getURLString();
+
+        IndexEntry indexEntry = new IndexEntry();
+        indexEntry.urlString = urlString;
+        indexEntry.statusCode = response.getStatusCode();
+        indexEntry.headerFields = response.getHeaderFields();
+        indexEntry.varyingRequestHeaders = response.getVaryingRequestHeaders();
+        indexEntry.expirationTimeMillis = response.getExpirationTimeMillis();
+        indexEntry.dataLength = response.getDataLength();
+
+        if (indexEntry.getByteCount() > this.maxByteCount) {
+            this.removeCachedResponse(request);
+            return;
+        }
+
+        Path dataFile = null;
+        try {
+            dataFile = Files.createTempFile(this.directory, fileNamePrefixForURL(urlString), DATA_FILE_SUFFIX);
+            writeDataFile(dataFile, response.getDataBuffer());
+            indexEntry.fileName = dataFile.getFileName().toString();
+
+            synchronized (this) {
+                this.remove(urlString);
+                this.entries.put(urlString, new Entry(indexEntry));
+                this.byteCount += indexEntry.getByteCount();
+                this.indexVersion++;
+                this.trimToMaxByteCount();
+            }
+        } catch (IOException e) {
+            if (dataFile != null) {
+                synchronized (this) {
+                    this.remove(urlString);
+                }
+                deleteIgnoringErrors(dataFile);
+            }
+        }
+        this.writeIndexIgnoringErrors();
+    }
+
+    @Override
+    public void removeCachedResponse(URLRequest request) {
+        synchronized (this) {
+            this.remove(request.getURLString());
+        }
+        this.writeIndexIgnoringErrors();
+    }
+
+    /**
+     Removes all stored responses and their data files.
+     */
+    public void removeAllCachedResponses() {
+        synchronized (this) {
+            for (Entry entry : this.entries.values()) {
+                deleteIgnoringErrors(this.directory.resolve(entry.indexEntry.fileName));
+            }
+            this.entries.clear();
+            this.byteCount = 0;
+            this.indexVersion++;
+        }
+        this.writeIndexIgnoringErrors();
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public long getMaxByteCount() {
+        return this.maxByteCount;
+    }
+
+    /**
+     Returns the number of bytes of the stored responses.
+     */
+    public synchronized long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     Returns the number of stored responses.
+     */
+    public synchronized int getResponseCount() {
+        return this.entries.size();
+    }
+
+    /**
+     Returns the number of lookups that found a fresh response.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     Returns the number of lookups that found no response, or a stale one.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     Returns the number of responses evicted to stay within the maximum byte count.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     Returns the response of an entry, mapping its data file the first time.
+     */
+    private CachedURLResponse responseForEntry(Entry entry) throws IOException {
+        if (entry.response == null) {
+            IndexEntry indexEntry = entry.indexEntry;
+
+            ByteBuffer data;
+            FileChannel channel = FileChannel.open(this.directory.resolve(indexEntry.fileName), StandardOpenOption.READ);
+            try {
+                if (channel.size() != indexEntry.dataLength) {
+                    throw new IOException(String.format("Data file %s is truncated", indexEntry.fileName));
+                }
+                // The mapping stays valid after the channel is closed
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, indexEntry.dataLength);
+            } finally {
+                channel.close();
+            }
+
+            entry.response = new CachedURLResponse(indexEntry.urlString, indexEntry.statusCode, indexEntry.headerFields, data,
+                indexEntry.varyingRequestHeaders, indexEntry.expirationTimeMillis);
+        }
+        return entry.response;
+    }
+
+    /**
+     Removes an entry and deletes its data file.
+
+     @return A boolean value indicating if there was an entry.
+     */
+    private boolean remove(String urlString) {
+        Entry entry = this.entries.remove(urlString);
+        if (entry == null) {
+            return false;
+        }
+        this.byteCount -= entry.indexEntry.getByteCount();
+        this.indexVersion++;
+        deleteIgnoringErrors(this.directory.resolve(entry.indexEntry.fileName));
+        return true;
+    }
+
+    /**
+     Evicts least recently used entries until the stored responses fit the maximum byte count.
+     */
+    private void trimToMaxByteCount() {
+        Iterator<Entry> leastRecentlyUsed = this.entries.values().iterator();
+        while (this.byteCount > this.maxByteCount && leastRecentlyUsed.hasNext()) {
+            Entry entry = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+
+            this.byteCount -= entry.indexEntry.getByteCount();
+            this.indexVersion++;
+            deleteIgnoringErrors(this.directory.resolve(entry.indexEntry.fileName));
+            this.evictionCount.incrementAndGet();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        Reader reader;
+        try {
+            reader = Files.newBufferedReader(this.directory.resolve(INDEX_FILE_NAME), UTF8);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        List<IndexEntry> indexEntries;
+        try {
+            Type type = new TypeToken<List<IndexEntry>>() {}.getType();
+            indexEntries = new Gson().fromJson(reader, type);
+        } catch (JsonParseException e) {
+            // A corrupt index starts an empty cache, the data files are deleted as unindexed
+            indexEntries = null;
+        } finally {
+            reader.close();
+        }
+        if (indexEntries == null) {
+            return;
+        }
+
+        // Least recently used first
+        for (IndexEntry indexEntry : indexEntries) {
+            Path dataFile = this.directory.resolve(indexEntry.fileName);
+            if (Files.isRegularFile(dataFile) && Files.size(dataFile) == indexEntry.dataLength) {
+                this.entries.put(indexEntry.urlString, new Entry(indexEntry));
+                this.byteCount += indexEntry.getByteCount();
+            }
+        }
+    }
+
+    private void deleteUnindexedDataFiles() throws IOException {
+        Set<String> fileNames = new HashSet<String>();
+        for (Entry entry : this.entries.values()) {
+            fileNames.add(entry.indexEntry.fileName);
+        }
+
+        DirectoryStream<Path> dataFiles = Files.newDirectoryStream(this.directory, "*" + DATA_FILE_SUFFIX);
+        try {
+            for (Path dataFile : dataFiles) {
+                if (!fileNames.contains(dataFile.getFileName().toString())) {
+                    deleteIgnoringErrors(dataFile);
+                }
+            }
+        } finally {
+            dataFiles.close();
+        }
+    }
+
+    /**
+     Writes the index to a new file replacing the index file, so the index file is always complete. Called without
+     the lock of the cache, which is only held to copy the entries. Does nothing if the index file records every
+     change, e.g. when it was written by another thread while this one waited for {@code indexLock}.
+     */
+    private void writeIndex() throws IOException {
+        synchronized (this.indexLock) {
+            long version;
+            List<IndexEntry> indexEntries;
+            synchronized (this) {
+                version = this.indexVersion;
+                if (version == this.writtenIndexVersion) {
+                    return;
+                }
+                indexEntries = new ArrayList<IndexEntry>(this.entries.size());
+                for (Entry entry : this.entries.values()) {
+                    indexEntries.add(entry.indexEntry);
+                }
+            }
+
+            Path indexFile = Files.createTempFile(this.directory, INDEX_FILE_NAME, ".tmp");
+            try {
+                Writer writer = Files.newBufferedWriter(indexFile, UTF8);
+                try {
+                    new Gson().toJson(indexEntries, writer);
+                } finally {
+                    writer.close();
+                }
+                Files.move(indexFile, this.directory.resolve(INDEX_FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                deleteIgnoringErrors(indexFile);
+            }
+            this.writtenIndexVersion = version;
+        }
+    }
+
+    private void writeIndexIgnoringErrors() {
+        try {
+            this.writeIndex();
+        } catch (IOException e) {
+            // The index is written again with the next change
+        }
+    }
+
+    private static void writeDataFile(Path dataFile, ByteBuffer data) throws IOException {
+        FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void deleteIgnoringErrors(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Deleted with the unindexed data files when the cache is opened again
+        }
+    }
+
+    /**
+     Returns the hex SHA-1 digest of a URL, the prefix of the names of its data files.
+     */
+    private static String fileNamePrefixForURL(String urlString) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(urlString.getBytes(UTF8));
+            StringBuilder prefix = new StringBuilder(digest.length * 2 + 1);
+            for (byte b : digest) {
+                prefix.append(String.format("%02x", b & 0xff));
+            }
+            return prefix.append('.').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
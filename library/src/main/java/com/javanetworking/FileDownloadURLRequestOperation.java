@@ -0,0 +1,371 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+/**
+ {@link FileDownloadURLRequestOperation} is a {@link HTTPURLRequestOperation} subclass that writes the response
+ body straight to a file through a {@link FileChannel}, without accumulating it in memory.
+
+ If the destination file already exists and is not empty the download is resumed: the request asks for the
+ remaining bytes with a `Range` header, and a `206 Partial Content` response is appended to the file. A `200 OK`
+ response, from a server ignoring the range, replaces the file. A `416 Range Not Satisfiable` response whose
+ `Content-Range` reports a complete length equal to the file length means the file is already complete, the
+ download succeeds without writing to it.
+
+ The validator of the response, its strong `ETag` or else its `Last-Modified` date, is stored next to the
+ destination in a file with the suffix `.validator` until the download succeeds. A resumed request sends it in an
+ `If-Range` header, so a server whose resource changed sends the whole new resource instead of appending its
+ remaining bytes to the old ones. A resumed request asks for `Accept-Encoding: identity`, the range of an encoded
+ response would count bytes of the encoded representation while the file holds decoded bytes.
+
+ On success the {@link HTTPCompletion} receives the destination {@link Path}.
+ */
+public class FileDownloadURLRequestOperation extends HTTPURLRequestOperation {
+
+    /**
+     A static constructor method that creates and returns a {@link FileDownloadURLRequestOperation} instance.
+     */
+    public static FileDownloadURLRequestOperation operationWithURLRequest(URLRequest request, Path destination, HTTPCompletion completion) {
+        return new FileDownloadURLRequestOperation(request, destination, completion);
+    }
+
+    /**
+     A static constructor method that creates and returns a {@link FileDownloadURLRequestOperation} instance, which
+     replaces an existing destination file instead of resuming it if {@code resumes} is false.
+     */
+    public static FileDownloadURLRequestOperation operationWithURLRequest(URLRequest request, Path destination, boolean resumes, HTTPCompletion completion) {
+        return new FileDownloadURLRequestOperation(request, destination, resumes, completion);
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     The suffix of the file storing the validator of a partial download.
+     */
+    private static final String VALIDATOR_FILE_SUFFIX = ".validator";
+
+    /**
+     The file the response body is written to.
+     */
+    private final Path destination;
+
+    /**
+     The file storing the validator of the response while the download is partial.
+     */
+    private final Path validatorFile;
+
+    /**
+     The length of the partial file being resumed, 0 if the download starts from the beginning.
+     */
+    private final long resumeOffset;
+
+    /**
+     The channel writing to the destination file, open while the body is received.
+     */
+    private FileChannel fileChannel;
+
+    private volatile long bytesWritten;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     Instantiate this class and sets the {@link URLRequest}, the destination file and the {@link HTTPCompletion}
+     interface. An existing destination file is resumed.
+
+     This is the preferred constructor.
+
+     @param request An open {@link URLRequest} to be used for HTTP network access.
+     @param destination The file the response body is written to. Cannot be null.
+     @param completion A {@link HTTPCompletion} instance that handles the completion interface methods.
+     */
+    public FileDownloadURLRequestOperation(URLRequest request, Path destination, HTTPCompletion completion) {
+        this(request, destination, true, completion);
+    }
+
+    /**
+     Instantiate this class and sets the {@link URLRequest}, the destination file and the {@link HTTPCompletion}
+     interface. The `Range` and `If-Range` headers of a resumed download are set on the request here.
+
+     @param request An open {@link URLRequest} to be used for HTTP network access.
+     @param destination The file the response body is written to. Cannot be null.
+     @param resumes A boolean value indicating if an existing destination file is resumed, or replaced.
+     @param completion A {@link HTTPCompletion} instance that handles the completion interface methods.
+     */
+    public FileDownloadURLRequestOperation(URLRequest request, Path destination, boolean resumes, HTTPCompletion completion) {
+        super(request, null);
+
+        if (destination == null) {
+            throw new NullPointerException("destination cannot be null.");
+        }
+        this.destination = destination;
+        this.validatorFile = validatorFileForDestination(destination);
+
+        long length = 0;
+        try {
+            if (resumes && Files.isRegularFile(destination)) {
+                length = Files.size(destination);
+            }
+        } catch (IOException e) {
+            length = 0;
+        }
+        this.resumeOffset = length;
+
+        if (this.resumeOffset > 0) {
+            request.setRequestProperty("Range", String.format("bytes=%d-", this.resumeOffset));
+            request.setRequestProperty("Accept-Encoding", "identity");
+
+            String validator = this.readValidator();
+            if (validator != null) {
+                request.setRequestProperty("If-Range", validator);
+            }
+            // A complete file is reported by a 416 response
+            this.addAcceptableResponseCodes(Collections.singletonList(HTTP_RANGE_NOT_SATISFIABLE));
+        }
+
+        this.setCompletion(completion);
+        this.setDataConsumer(new FileDataConsumer());
+    }
+
+    /**
+     Returns the file the response body is written to.
+     */
+    public Path getDestination() {
+        return this.destination;
+    }
+
+    /**
+     Returns the length of the partial file the download resumes, or 0 if the download starts from the beginning.
+     */
+    public long getResumeOffset() {
+        return this.resumeOffset;
+    }
+
+    /**
+     Returns the number of bytes written to the file by this operation.
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     Returns the transfer rate of this operation in bytes per second, measured from the first response bytes to
+     the completion of the operation, or until now while it is running. Returns 0 before the response is received.
+     */
+    public double getBytesPerSecond() {
+        long start = this.startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = (this.endNanos != 0) ? this.endNanos : System.nanoTime();
+        long elapsed = Math.max(1, end - start);
+
+        return this.bytesWritten * 1000000000.0 / elapsed;
+    }
+
+    /**
+     {@link URLDataConsumer} writing the response body to the destination file.
+     */
+    private class FileDataConsumer implements URLDataConsumer {
+
+        @Override
+        public void didReceiveResponse(URLRequest urlRequest) throws IOException {
+            startNanos = System.nanoTime();
+
+            if (isCompleteFileResponse(urlRequest)) {
+                return;
+            }
+            if (urlRequest.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                throw new IOException(String.format("Expected Content-Range of %d bytes, got %s", resumeOffset, urlRequest.getHeaderField("Content-Range")));
+            }
+            storeValidator(urlRequest);
+
+            if (urlRequest.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+                long start = contentRangeStart(urlRequest.getHeaderField("Content-Range"));
+                if (start != resumeOffset) {
+                    throw new IOException(String.format("Expected Content-Range starting at %d, got %s", resumeOffset, urlRequest.getHeaderField("Content-Range")));
+                }
+                fileChannel = FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } else {
+                fileChannel = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        }
+
+        @Override
+        public void didReceiveData(URLRequest urlRequest, ByteBuffer data) throws IOException {
+            // The body of a 416 response for a complete file is not written
+            if (fileChannel == null) {
+                return;
+            }
+            int length = data.remaining();
+            while (data.hasRemaining()) {
+                fileChannel.write(data);
+            }
+            bytesWritten += length;
+        }
+    }
+
+    /**
+     Returns whether the response is a `416 Range Not Satisfiable` for a resumed file that is already complete.
+     */
+    private boolean isCompleteFileResponse(URLRequest urlRequest) {
+        try {
+            return this.resumeOffset > 0 && urlRequest.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE && contentRangeCompleteLength(urlRequest.getHeaderField("Content-Range")) == this.resumeOffset;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     Reads the body of a `416` response for a complete file, which a {@link URLConnection} reports as an error.
+     */
+    @Override
+    protected boolean acceptsErrorResponse() {
+        return this.isCompleteFileResponse(getURLRequest());
+    }
+
+    /**
+     Returns the file storing the validator of a partial download to a destination file.
+     */
+    static Path validatorFileForDestination(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + VALIDATOR_FILE_SUFFIX);
+    }
+
+    /**
+     Reads the validator stored for the destination file.
+
+     @return The validator, or null if none is stored.
+     */
+    private String readValidator() {
+        try {
+            if (Files.isRegularFile(this.validatorFile)) {
+                String validator = new String(Files.readAllBytes(this.validatorFile), UTF8).trim();
+                return validator.isEmpty() ? null : validator;
+            }
+        } catch (IOException e) {}
+        return null;
+    }
+
+    /**
+     Stores the strong `ETag` of the response, or else its `Last-Modified` date, as the validator of the destination
+     file. A weak `ETag` cannot be used in an `If-Range` header.
+     */
+    private void storeValidator(URLRequest urlRequest) {
+        String validator = urlRequest.getHeaderField("ETag");
+        if (validator == null || validator.trim().startsWith("W/")) {
+            validator = urlRequest.getHeaderField("Last-Modified");
+        }
+
+        // Without a validator a later resume sends a `Range` header only
+        try {
+            if (validator != null) {
+                Files.write(this.validatorFile, validator.trim().getBytes(UTF8));
+            } else {
+                Files.deleteIfExists(this.validatorFile);
+            }
+        } catch (IOException e) {}
+    }
+
+    private void deleteValidator() {
+        try {
+            Files.deleteIfExists(this.validatorFile);
+        } catch (IOException e) {}
+    }
+
+    /**
+     Parses the first byte position of a `Content-Range` header, e.g. `bytes 100-199/200`.
+
+     @return The first byte position, or -1 if the header is missing or malformed.
+     */
+    static long contentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.trim().startsWith("bytes ")) {
+            return -1;
+        }
+        String range = contentRange.trim().substring("bytes ".length()).trim();
+        int dash = range.indexOf('-');
+        if (dash <= 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(0, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     Parses the complete length of a `Content-Range` header, e.g. `bytes 100-199/200`. The range of a `416`
+     response is `*`, followed by the complete length.
+
+     @return The complete length, or -1 if the header is missing, malformed or the length is unknown.
+     */
+    static long contentRangeCompleteLength(String contentRange) {
+        if (contentRange == null || !contentRange.trim().startsWith("bytes ")) {
+            return -1;
+        }
+        String range = contentRange.trim();
+        int slash = range.indexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     Closes the destination file before the completion interface is called.
+     */
+    @Override
+    public synchronized void complete() {
+        if (this.startNanos != 0) {
+            this.endNanos = System.nanoTime();
+        }
+
+        if (this.fileChannel != null) {
+            try {
+                this.fileChannel.close();
+            } catch (IOException e) {}
+            this.fileChannel = null;
+        }
+
+        super.complete();
+    }
+
+    /**
+     Sets the {@link HTTPCompletion} interface that responds to this operation.
+
+     Responds with the destination {@link Path} on success. The stored validator is deleted once the file is
+     complete.
+     */
+    @Override
+    protected void setCompletion(final HTTPCompletion completion) {
+        super.setCompletion(new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                if (completion != null) {
+                    completion.failure(request, t);
+                }
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                deleteValidator();
+                if (completion != null) {
+                    completion.success(request, destination);
+                }
+            }
+        });
+    }
+}
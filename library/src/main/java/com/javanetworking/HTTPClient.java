@@ -21,16 +21,30 @@
 package com.javanetworking;
 
 import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.URLConnectionOperation.QueuePriority;
+import com.javanetworking.WorkerOperationQueue.RejectionPolicy;
 import com.javanetworking.gson.Gson;
+import com.javanetworking.gson.JsonElement;
 import com.operationqueue.OperationQueue;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  {@link HTTPClient} encapsulates the modern HTTP patterns used for data exchange.
@@ -55,7 +69,12 @@ public class HTTPClient {
      */
     public enum HTTPClientParameterEncoding {
         FormURLParameterEncoding,
-        JSONParameterEncoding
+        JSONParameterEncoding,
+        /**
+         `multipart/form-data`, streamed with a {@link MultipartFormDataBodyWriter}. {@link java.io.File} and
+         {@link Path} parameter values are uploaded as files.
+         */
+        MultipartFormDataParameterEncoding
     }
     private HTTPClientParameterEncoding parameterEncoding;
 
@@ -84,9 +103,71 @@ public class HTTPClient {
     private boolean asynchronous = true;
 
     /**
-     An integer value indicating the request timeout.
+     The time in milliseconds to wait for a connection to be established.
     */
-    private int timeout = 500;
+    private int connectTimeout = 500;
+
+    /**
+     The time in milliseconds to wait for the next response data.
+     */
+    private int readTimeout = 500;
+
+    /**
+     The maximum time in milliseconds from enqueuing an operation until it completes, or 0 for no limit.
+     */
+    private long totalTimeout;
+
+    /**
+     The {@link NIOTransportEngine} used to send requests, or null to use {@link URLConnection}s. Default is null.
+     */
+    private NIOTransportEngine transportEngine;
+
+    /**
+     The {@link ConnectionPool} keeping connections of the {@link NIOTransportEngine} alive between requests.
+     */
+    private ConnectionPool connectionPool;
+
+    /**
+     A boolean value indicating if requests advertise `Accept-Encoding: gzip, deflate`. Default is false.
+     */
+    private boolean acceptsCompressedResponses = false;
+
+    /**
+     The default size in bytes above which request bodies are compressed.
+     */
+    public static final int DEFAULT_REQUEST_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     A boolean value indicating if `POST`, `PUT` and `PATCH` bodies are gzip compressed. Default is false.
+     */
+    private boolean compressesRequestBodies = false;
+
+    /**
+     The size in bytes above which request bodies are compressed.
+     */
+    private int requestCompressionThreshold = DEFAULT_REQUEST_COMPRESSION_THRESHOLD;
+
+    /**
+     A boolean value indicating if JSON encoded bodies are streamed to the connection. Default is false.
+     */
+    private boolean streamsRequestBodies = false;
+
+    /**
+     The {@link URLResponseCache} answering `GET` requests before they are enqueued, or null.
+     */
+    private URLResponseCache responseCache;
+
+    /**
+     A boolean value indicating if identical concurrent `GET` requests share one operation. Default is false.
+     */
+    private boolean coalescesRequests = false;
+
+    /**
+     The completions waiting for the in-flight `GET` requests, by coalescing key.
+     */
+    private final Map<String, List<HTTPCompletion>> coalescedCompletions = new HashMap<String, List<HTTPCompletion>>();
+
+    private final AtomicLong coalescedRequestCount = new AtomicLong();
 
     /**
      Static contructor.
@@ -125,6 +206,7 @@ public class HTTPClient {
         this.setDefaultHeader("User-Agent", String.format("%s (%s %s) Java/%s", javaCommand, osName, osVersion, javaVersion));
 
         this.operationQueue = new OperationQueue();
+        this.connectionPool = new ConnectionPool();
     }
 
     @Override
@@ -139,6 +221,84 @@ public class HTTPClient {
         return operationQueue;
     }
 
+    /**
+     Sets the {@link OperationQueue} used to enqueue the clients operations. Cannot be null.
+
+     @param operationQueue The {@link OperationQueue} to be used, e.g. a {@link WorkerOperationQueue}.
+     */
+    public void setOperationQueue(OperationQueue operationQueue) {
+        if (operationQueue == null) {
+            throw new NullPointerException("operationQueue cannot be null.");
+        }
+        this.operationQueue = operationQueue;
+    }
+
+    /**
+     Replaces the clients {@link OperationQueue} with a {@link WorkerOperationQueue} which executes
+     up to {@code maxConcurrentOperationCount} operations at the same time. Waiting operations start by their
+     {@link QueuePriority}, see {@code WorkerOperationQueue.queueWithPriorities()}.
+
+     The default client queue executes one operation at a time.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     */
+    public void setMaxConcurrentOperationCount(int maxConcurrentOperationCount) {
+        this.setOperationQueue(WorkerOperationQueue.queueWithPriorities(maxConcurrentOperationCount));
+    }
+
+    /**
+     Replaces the clients {@link OperationQueue} with a bounded {@link WorkerOperationQueue} which executes up to
+     {@code maxConcurrentOperationCount} operations at the same time and holds at most
+     {@code maxQueuedOperationCount} waiting operations. When the queue is full, new operations are handled by the
+     {@link RejectionPolicy}: the caller blocks, or an operation fails with the `Rejected` state. Waiting operations
+     start in the order they are added.
+
+     Use {@code WorkerOperationQueue.getQueuedOperationCount()} and {@code getRejectedOperationCount()} of
+     {@code getOperationQueue()} to monitor the queue.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     @param maxQueuedOperationCount The maximum number of waiting operations.
+     @param rejectionPolicy The {@link RejectionPolicy} used when the queue is full.
+     */
+    public void setBoundedOperationQueue(int maxConcurrentOperationCount, int maxQueuedOperationCount, RejectionPolicy rejectionPolicy) {
+        if (maxQueuedOperationCount < 1) {
+            throw new IllegalArgumentException("maxQueuedOperationCount must be at least 1");
+        }
+        this.setOperationQueue(new WorkerOperationQueue(maxConcurrentOperationCount, maxQueuedOperationCount, rejectionPolicy));
+    }
+
+    /**
+     Replaces the clients {@link OperationQueue} with a {@link HostOperationQueue} which executes up to
+     {@code maxConcurrentOperationCount} operations at the same time, and at most
+     {@code maxConcurrentOperationCountPerHost} of them for the same host. Hosts with waiting operations take turns.
+
+     Operations sent by a {@link NIOTransportEngine} are not enqueued and not limited.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     @param maxConcurrentOperationCountPerHost The maximum number of operations of one host executing at the same time.
+     */
+    public void setMaxConcurrentOperationCount(int maxConcurrentOperationCount, int maxConcurrentOperationCountPerHost) {
+        this.setOperationQueue(new HostOperationQueue(maxConcurrentOperationCount, maxConcurrentOperationCountPerHost));
+    }
+
+    /**
+     Sets whether the clients operations run on virtual threads, one per operation. This lets a client hold
+     many thousands of blocking requests in flight without as many operating system threads.
+
+     Enabling replaces the clients {@link OperationQueue} with {@code WorkerOperationQueue.queueWithVirtualThreads()},
+     which falls back to platform worker threads if the JVM does not support virtual threads. Disabling restores
+     the default {@link OperationQueue}.
+
+     @param usesVirtualThreads A boolean value indicating if operations should run on virtual threads.
+     */
+    public void setUsesVirtualThreads(boolean usesVirtualThreads) {
+        if (usesVirtualThreads) {
+            this.setOperationQueue(WorkerOperationQueue.queueWithVirtualThreads());
+        } else {
+            this.setOperationQueue(new OperationQueue());
+        }
+    }
+
     /**
      Get the query string parameter {@link Charset} encoding.
      */
@@ -379,8 +539,196 @@ public class HTTPClient {
         this.asynchronous = asynchronous;
     }
 
+    /**
+     Sets both the connect and the read timeout of the clients requests. Default is 500 milliseconds.
+
+     @param timeout The timeout in milliseconds, 0 to wait indefinitely.
+     */
     public void setTimeout(int timeout) {
-        this.timeout = timeout;
+        this.setConnectTimeout(timeout);
+        this.setReadTimeout(timeout);
+    }
+
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     Sets the time to wait for a connection to be established, see {@code URLRequest.setConnectTimeout()}.
+     Default is 500 milliseconds.
+
+     @param connectTimeout The timeout in milliseconds, 0 to wait indefinitely.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 0) {
+            throw new IllegalArgumentException("connectTimeout cannot be negative");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     Sets the time to wait for the next response data, see {@code URLRequest.setReadTimeout()}. Default is 500
+     milliseconds.
+
+     @param readTimeout The timeout in milliseconds, 0 to wait indefinitely.
+     */
+    public void setReadTimeout(int readTimeout) {
+        if (readTimeout < 0) {
+            throw new IllegalArgumentException("readTimeout cannot be negative");
+        }
+        this.readTimeout = readTimeout;
+    }
+
+    public long getTotalTimeout() {
+        return this.totalTimeout;
+    }
+
+    /**
+     Sets the maximum time from enqueuing an operation of the client until it completes, including the time waiting
+     in the clients {@link OperationQueue}. Operations whose deadline expires while they wait are dropped without
+     opening a connection, and fail with a {@link java.util.concurrent.TimeoutException} in the `Cancelled` state,
+     see {@code URLConnectionOperation.setTotalTimeout()}. Operations with their own total timeout keep it. Default
+     is 0, no limit.
+
+     @param totalTimeout The time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTotalTimeout(long totalTimeout) {
+        if (totalTimeout < 0) {
+            throw new IllegalArgumentException("totalTimeout cannot be negative");
+        }
+        this.totalTimeout = totalTimeout;
+    }
+
+    /**
+     Sets the {@link NIOTransportEngine} used to send the clients requests. Asynchronous operations sent by an
+     engine do not occupy a worker of the clients {@link OperationQueue} while waiting for the network.
+
+     @param transportEngine The engine to be used, or null to send requests with {@link URLConnection}s.
+     */
+    public void setTransportEngine(NIOTransportEngine transportEngine) {
+        this.transportEngine = transportEngine;
+    }
+
+    public boolean getAcceptsCompressedResponses() {
+        return this.acceptsCompressedResponses;
+    }
+
+    /**
+     Sets whether the clients requests ask for compressed responses with `Accept-Encoding: gzip, deflate`.
+     Compressed responses are inflated while they are read, operations report both byte counts with
+     {@code getCompressedByteCount()} and {@code getUncompressedByteCount()}. Default is false.
+
+     @param acceptsCompressedResponses A boolean value indicating if responses may be compressed.
+     */
+    public void setAcceptsCompressedResponses(boolean acceptsCompressedResponses) {
+        this.acceptsCompressedResponses = acceptsCompressedResponses;
+    }
+
+    /**
+     Sets whether `POST`, `PUT` and `PATCH` bodies larger than the request compression threshold are sent gzip
+     compressed with `Content-Encoding: gzip`. The server must accept compressed request bodies. Default is false.
+
+     @param compressesRequestBodies A boolean value indicating if request bodies should be compressed.
+     */
+    public void setCompressesRequestBodies(boolean compressesRequestBodies) {
+        this.compressesRequestBodies = compressesRequestBodies;
+    }
+
+    /**
+     Sets the size in bytes above which request bodies are compressed. Smaller bodies are sent as they are, the
+     compression overhead is not worth it. Default is {@code DEFAULT_REQUEST_COMPRESSION_THRESHOLD}.
+
+     @param requestCompressionThreshold The uncompressed body size above which bodies are compressed.
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        if (requestCompressionThreshold < 0) {
+            throw new IllegalArgumentException("requestCompressionThreshold cannot be negative");
+        }
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     Sets whether JSON encoded `POST`, `PUT` and `PATCH` bodies are serialized straight into the connection with a
+     {@link JSONBodyWriter} and sent with chunked transfer encoding, instead of being built as a byte array first.
+     Peak memory then does not grow with the size of the body. Streamed bodies are sent with a {@link URLConnection}
+     even if the client has a transport engine, and are not compressed. Default is false.
+
+     @param streamsRequestBodies A boolean value indicating if JSON request bodies should be streamed.
+     */
+    public void setStreamsRequestBodies(boolean streamsRequestBodies) {
+        this.streamsRequestBodies = streamsRequestBodies;
+    }
+
+    public boolean getCoalescesRequests() {
+        return this.coalescesRequests;
+    }
+
+    /**
+     Sets whether a `GET` request identical to one still in flight, with the same URL and request headers, waits for
+     the response of the in-flight request instead of sending its own. Every waiting {@link HTTPCompletion} is called
+     with the same result, the response object is shared and must not be modified. Default is false.
+
+     @param coalescesRequests A boolean value indicating if identical concurrent `GET` requests are coalesced.
+     */
+    public void setCoalescesRequests(boolean coalescesRequests) {
+        this.coalescesRequests = coalescesRequests;
+    }
+
+    /**
+     Returns the number of `GET` requests that were answered by an identical in-flight request instead of being sent.
+     */
+    public long getCoalescedRequestCount() {
+        return this.coalescedRequestCount.get();
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    /**
+     Sets the {@link ConnectionPool} used for requests sent by the clients {@link NIOTransportEngine}. Default is a
+     {@link ConnectionPool} with the default limits.
+
+     @param connectionPool The pool to be used, or null to open a new connection for every request.
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     Opens idle connections to the clients base URL, so the first requests do not wait for a connection.
+
+     @param count The number of connections to open.
+     */
+    public void prewarmConnections(int count) throws IOException {
+        if (this.transportEngine == null) {
+            throw new IllegalStateException("prewarmConnections requires a transport engine");
+        }
+        if (this.connectionPool == null) {
+            throw new IllegalStateException("prewarmConnections requires a connection pool");
+        }
+        this.transportEngine.prewarm(this.connectionPool, this.baseURL, count);
+    }
+
+    public URLResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     Sets the {@link URLResponseCache} of the client. A `GET` request with a fresh cached response completes
+     immediately on the calling thread, through the same {@link HTTPCompletion} as a network response, without an
+     operation queue. A stale cached response with an `ETag` or `Last-Modified` date is revalidated: the request is
+     sent with `If-None-Match` or `If-Modified-Since`, and a `304 Not Modified` completes with the cached body.
+     Cacheable responses received by the clients operations are stored. Default is null.
+
+     @param responseCache The cache to be used, e.g. a {@link MemoryURLResponseCache}, or null to disable caching.
+     */
+    public void setResponseCache(URLResponseCache responseCache) {
+        this.responseCache = responseCache;
     }
 
     public void enqueueHTTPURLRequestOperation(HTTPURLRequestOperation operation) {
@@ -388,7 +736,39 @@ public class HTTPClient {
     }
 
     public void prepareHTTPURLRequestOperationForExecution(HTTPURLRequestOperation operation) {
-        if (asynchronous) {
+        this.prepareHTTPURLRequestOperationForExecution(operation, null, this.asynchronous);
+    }
+
+    /**
+     Completes an operation with a fresh cached response, or sends its request: with the requests
+     {@link NIOTransportEngine}, on the given {@link OperationQueue} or the clients queue if it is null, or on the
+     calling thread.
+     */
+    void prepareHTTPURLRequestOperationForExecution(HTTPURLRequestOperation operation, OperationQueue operationQueue, boolean asynchronous) {
+        // The deadline counts from now, before the operation waits in a queue
+        if (operation.getTotalTimeout() == 0) {
+            operation.setTotalTimeout(this.totalTimeout);
+        }
+        operation.startDeadline();
+
+        if (this.responseCache != null && CachedURLResponse.isCacheableRequest(operation.getURLRequest())) {
+            operation.setResponseCache(this.responseCache);
+
+            CachedURLResponse response = this.responseCache.cachedResponseForRequest(operation.getURLRequest());
+            if (response != null && response.isFresh() && CachedURLResponse.isCacheLookupRequest(operation.getURLRequest())) {
+                operation.completeWithCachedResponse(response);
+                return;
+            }
+            if (response != null) {
+                operation.revalidateCachedResponse(response);
+            }
+        }
+
+        if (asynchronous && operation.getURLRequest().getTransportEngine() != null) {
+            operation.start();
+        } else if (asynchronous && operationQueue != null) {
+            operationQueue.addOperation(operation);
+        } else if (asynchronous) {
             this.enqueueHTTPURLRequestOperation(operation);
         } else {
             operation.startSynchronous();
@@ -405,6 +785,26 @@ public class HTTPClient {
      @return A {@link URLRequest} connection to be used by an operation.
      */
     public URLRequest connectionWithMethodPathAndParameters(String method, String path, Map<String, Object> parameters) {
+        return this.connectionWithMethodPathAndParameters(method, path, parameters, this.defaultRequestProperties());
+    }
+
+    /**
+     Returns the request properties set on every request of the client, the default headers and `Accept-Encoding`.
+     */
+    Map<String, String> defaultRequestProperties() {
+        Map<String, String> requestProperties = new LinkedHashMap<String, String>();
+        if (this.acceptsCompressedResponses) {
+            requestProperties.put("Accept-Encoding", "gzip, deflate");
+        }
+        requestProperties.putAll(this.defaultHeaders);
+        return requestProperties;
+    }
+
+    /**
+     Create a {@link URLRequest} connection with method, path and parameters, and the given request properties.
+     Requests created in bulk share the request properties returned by {@code defaultRequestProperties()}.
+     */
+    URLRequest connectionWithMethodPathAndParameters(String method, String path, Map<String, Object> parameters, Map<String, String> requestProperties) {
         if (path.charAt(0) == '/') {
             path = path.substring(1);
         }
@@ -416,16 +816,41 @@ public class HTTPClient {
         }
 
         URLRequest request = URLRequest.requestWithURLString(urlString);
+        request.setTransportEngine(this.transportEngine);
+        request.setConnectionPool(this.connectionPool);
         request.setRequestMethod(method);
-        request.setConnectTimeout(timeout);
-        for (String key : this.defaultHeaders.keySet()) {
-            request.setRequestProperty(key, this.defaultHeaders.get(key));
+        request.setConnectTimeout(this.connectTimeout);
+        request.setReadTimeout(this.readTimeout);
+        for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+            request.setRequestProperty(property.getKey(), property.getValue());
         }
 
         // Set POST/PUT/PATCH requestBody on operation
         if (method.equalsIgnoreCase("POST") || method.equalsIgnoreCase("PUT") || method.equalsIgnoreCase("PATCH")) {
             String charsetName = getStringEncoding().name();
 
+            if (this.parameterEncoding == HTTPClientParameterEncoding.MultipartFormDataParameterEncoding) {
+                MultipartFormDataBodyWriter body = new MultipartFormDataBodyWriter(parameters, getStringEncoding());
+                request.setRequestProperty("Content-Type", body.getContentType());
+                request.setHTTPBodyWriter(body);
+                // The transport engine sends byte array bodies only
+                request.setTransportEngine(null);
+                return request;
+            }
+
+            if (this.streamsRequestBodies && this.parameterEncoding == HTTPClientParameterEncoding.JSONParameterEncoding) {
+                request.setRequestProperty("Content-Type", String.format("application/json; charset=%s", charsetName));
+                request.setHTTPBodyWriter(new JSONBodyWriter(parameters, getStringEncoding()));
+                // The transport engine sends byte array bodies only
+                request.setTransportEngine(null);
+                return request;
+            }
+
+            if (this.compressesRequestBodies) {
+                this.setCompressedHTTPBodyWithParameters(request, parameters);
+                return request;
+            }
+
             switch (this.parameterEncoding) {
                 case FormURLParameterEncoding:
                     request.setRequestProperty("Content-Type", String.format("application/x-www-form-urlencoded; charset=%s", charsetName));
@@ -441,6 +866,49 @@ public class HTTPClient {
         return request;
     }
 
+    /**
+     Serializes the parameters through a {@link CompressingOutputStream}, which compresses the body while it is
+     written once it exceeds the request compression threshold.
+
+     @param request The {@link URLRequest} the body is set on.
+     @param parameters The parameters to be encoded with the clients parameter encoding.
+     */
+    private void setCompressedHTTPBodyWithParameters(URLRequest request, Map<String, Object> parameters) {
+        CompressingOutputStream body = new CompressingOutputStream(this.requestCompressionThreshold);
+        Writer writer = new OutputStreamWriter(body, getStringEncoding());
+        String charsetName = getStringEncoding().name();
+
+        try {
+            switch (this.parameterEncoding) {
+                case FormURLParameterEncoding:
+                    request.setRequestProperty("Content-Type", String.format("application/x-www-form-urlencoded; charset=%s", charsetName));
+
+                    List<QueryStringPair> paramPairs = QueryStringPairsFromMap(parameters);
+                    for (int i=0; i<paramPairs.size(); i++) {
+                        if (i != 0) {
+                            writer.write('&');
+                        }
+                        writer.write(paramPairs.get(i).URLEncodedStringValueWithEncoding(getStringEncoding()));
+                    }
+                    break;
+                case JSONParameterEncoding:
+                    request.setRequestProperty("Content-Type", String.format("application/json; charset=%s", charsetName));
+
+                    new Gson().toJson(parameters, writer);
+                    break;
+            }
+            writer.close();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+
+        if (body.isCompressed()) {
+            request.setRequestProperty("Content-Encoding", "gzip");
+        }
+        request.setHTTPBody(body.toByteArray());
+    }
+
     /**
      Creates a {@link HTTPURLRequestOperation} with an {@link URLRequest} and a {@link HTTPCompletion} callback.
 
@@ -489,22 +957,161 @@ public class HTTPClient {
      @param completion A callback object that is called when the request operation finishes.
      */
     public void GET(String path, Map<String, Object> parameters, HTTPCompletion completion) {
+        this.GET(path, parameters, QueuePriority.Normal, completion);
+    }
+
+    /**
+     Creates an {@link HTTPURLRequestOperation} with a `GET` request and a {@link QueuePriority}, e.g. `High` for
+     requests a user waits for and `Low` for prefetching. The priority orders the operation on a priority aware client
+     queue, see {@code setMaxConcurrentOperationCount()}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and appended as the query string for the request URL.
+     @param queuePriority The priority of the operation while it waits in the clients {@link OperationQueue}.
+     @param completion A callback object that is called when the request operation finishes.
+     */
+    public void GET(String path, Map<String, Object> parameters, QueuePriority queuePriority, HTTPCompletion completion) {
+        this.enqueueGETOperation(path, parameters, queuePriority, completion);
+    }
+
+    /**
+     Sends a `GET` request and returns a future completing with the {@link HTTPResponse}, see
+     {@code futureWithMethodPathAndParameters()}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and appended as the query string for the request URL.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> GET(String path, Map<String, Object> parameters) {
+        return this.futureWithGETOperation(path, parameters, QueuePriority.Normal);
+    }
+
+    /**
+     Sends a `GET` request with a {@link QueuePriority} and returns a future completing with the {@link HTTPResponse}.
+     Cancelling the future of a request coalesced with others, see {@code setCoalescesRequests()}, does not cancel
+     the shared request.
+     */
+    private CompletableFuture<HTTPResponse> futureWithGETOperation(String path, Map<String, Object> parameters, QueuePriority queuePriority) {
+        HTTPResponseFuture future = new HTTPResponseFuture();
+        boolean coalescesRequests = this.coalescesRequests;
+
+        HTTPURLRequestOperation operation = this.enqueueGETOperation(path, parameters, queuePriority, future);
+        if (!coalescesRequests) {
+            future.setOperation(operation);
+        }
+        return future;
+    }
+
+    /**
+     Creates and enqueues an operation with a `GET` request.
+
+     @return The operation, or null if the request is coalesced with an identical request in flight.
+     */
+    private HTTPURLRequestOperation enqueueGETOperation(String path, Map<String, Object> parameters, QueuePriority queuePriority, HTTPCompletion completion) {
         URLRequest request = this.connectionWithMethodPathAndParameters("GET", path, parameters);
+        if (this.coalescesRequests) {
+            completion = this.coalescingCompletion(request, completion);
+            if (completion == null) {
+                return null;
+            }
+        }
         HTTPURLRequestOperation operation = this.operationWithURLRequest(request, completion);
+        operation.setQueuePriority(queuePriority);
         this.prepareHTTPURLRequestOperationForExecution(operation);
+        return operation;
+    }
+
+    /**
+     Registers a completion for a coalesced request.
+
+     @return A completion calling every completion waiting for the request, if the request must be sent, or null if
+     an identical request is in flight.
+     */
+    private HTTPCompletion coalescingCompletion(URLRequest request, HTTPCompletion completion) {
+        final String key = coalescingKey(request);
+
+        synchronized (this.coalescedCompletions) {
+            List<HTTPCompletion> completions = this.coalescedCompletions.get(key);
+            if (completions != null) {
+                completions.add(completion);
+                this.coalescedRequestCount.incrementAndGet();
+                return null;
+            }
+            completions = new ArrayList<HTTPCompletion>();
+            completions.add(completion);
+            this.coalescedCompletions.put(key, completions);
+        }
+
+        return new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                for (HTTPCompletion completion : removeCoalescedCompletions(key)) {
+                    if (completion != null) {
+                        completion.failure(request, t);
+                    }
+                }
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                for (HTTPCompletion completion : removeCoalescedCompletions(key)) {
+                    if (completion != null) {
+                        completion.success(request, response);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     Removes the completions waiting for a request once it completes, later identical requests are sent again.
+     */
+    private List<HTTPCompletion> removeCoalescedCompletions(String key) {
+        synchronized (this.coalescedCompletions) {
+            return this.coalescedCompletions.remove(key);
+        }
+    }
+
+    /**
+     Returns the key identifying identical requests: the method, the URL and the request headers. The `Vary` header of
+     the response is not known before the response, so every request header is part of the key.
+     */
+    private static String coalescingKey(URLRequest request) {
+        StringBuilder key = new StringBuilder();
+        key.append(request.getRequestMethod()).append(' ').append(request.getURLString());
+        for (Map.Entry<String, String> property : new TreeMap<String, String>(request.getRequestProperties()).entrySet()) {
+            key.append('\n').append(property.getKey()).append(": ").append(property.getValue());
+        }
+        return key.toString();
     }
 
     /**
      Creates an {@link HTTPURLRequestOperation} with a `POST` request. By default the client is asynchronous
      and the operation is enqueued on the clients {@link OperationQueue}.
 
+     A body of 1 MB or more, and a streamed JSON or multipart body, is sent in streaming mode, a redirect or
+     authentication challenge in response to it fails the request, see {@code URLRequest.setFixedLengthStreamingMode()}.
+
      @param path The path to be appended to the HTTP client's base URL and used as the request URL.
      @param parameters The parameters to be encoded and appended as the query string for the request URL.
      @param completion A callback object that is called when the request operation finishes.
      */
     public void POST(String path, Map<String, Object> parameters, HTTPCompletion completion) {
+        this.POST(path, parameters, QueuePriority.Normal, completion);
+    }
+
+    /**
+     Creates an {@link HTTPURLRequestOperation} with a `POST` request and a {@link QueuePriority}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and sent as the request body.
+     @param queuePriority The priority of the operation while it waits in the clients {@link OperationQueue}.
+     @param completion A callback object that is called when the request operation finishes.
+     */
+    public void POST(String path, Map<String, Object> parameters, QueuePriority queuePriority, HTTPCompletion completion) {
         URLRequest request = this.connectionWithMethodPathAndParameters("POST", path, parameters);
         HTTPURLRequestOperation operation = this.operationWithURLRequest(request, completion);
+        operation.setQueuePriority(queuePriority);
         this.prepareHTTPURLRequestOperationForExecution(operation);
     }
 
@@ -549,4 +1156,251 @@ public class HTTPClient {
         HTTPURLRequestOperation operation = this.operationWithURLRequest(request, completion);
         this.prepareHTTPURLRequestOperationForExecution(operation);
     }
+
+    /**
+     Sends a `POST` request and returns a future completing with the {@link HTTPResponse}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and sent as the request body.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> POST(String path, Map<String, Object> parameters) {
+        return this.futureWithMethodPathAndParameters("POST", path, parameters);
+    }
+
+    /**
+     Sends a `PUT` request and returns a future completing with the {@link HTTPResponse}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and sent as the request body.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> PUT(String path, Map<String, Object> parameters) {
+        return this.futureWithMethodPathAndParameters("PUT", path, parameters);
+    }
+
+    /**
+     Sends a `PATCH` request and returns a future completing with the {@link HTTPResponse}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and sent as the request body.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> PATCH(String path, Map<String, Object> parameters) {
+        return this.futureWithMethodPathAndParameters("PATCH", path, parameters);
+    }
+
+    /**
+     Sends a `DELETE` request and returns a future completing with the {@link HTTPResponse}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded and appended as the query string for the request URL.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> DELETE(String path, Map<String, Object> parameters) {
+        return this.futureWithMethodPathAndParameters("DELETE", path, parameters);
+    }
+
+    /**
+     Sends a request and returns a future completing with the {@link HTTPResponse}: the status, the header fields and
+     the body parsed by the registered operation class. The request is enqueued like the requests of the methods
+     taking an {@link HTTPCompletion}.
+
+     The future completes on the thread completing the operation, the worker of the clients {@link OperationQueue},
+     the I/O thread of a {@link NIOTransportEngine}, or the calling thread for a cached response. Dependent stages
+     that are not async run on that thread too and should not block. The future completes exceptionally with the
+     failure of the operation, e.g. the {@link Error} of an unacceptable response code. Cancelling the future cancels
+     the operation, see {@code URLConnectionOperation.cancel()}.
+
+     @param method The HTTP method to be used.
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded with the clients parameter encoding.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> futureWithMethodPathAndParameters(String method, String path, Map<String, Object> parameters) {
+        HTTPResponseFuture future = new HTTPResponseFuture();
+
+        URLRequest request = this.connectionWithMethodPathAndParameters(method, path, parameters);
+        HTTPURLRequestOperation operation = this.operationWithURLRequest(request, future);
+        future.setOperation(operation);
+        this.prepareHTTPURLRequestOperationForExecution(operation);
+
+        return future;
+    }
+
+    /**
+     Sends a request with a {@link QueuePriority} and returns a future completing with the {@link HTTPResponse}, see
+     {@code futureWithMethodPathAndParameters()}. A `GET` request is coalesced like the requests of {@code GET()}, see
+     {@code setCoalescesRequests()}, cancelling its future then does not cancel the shared request.
+
+     @param method The HTTP method to be used.
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded with the clients parameter encoding.
+     @param queuePriority The priority of the operation while it waits in the clients {@link OperationQueue}.
+
+     @return A {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<HTTPResponse> futureWithMethodPathParametersAndPriority(String method, String path, Map<String, Object> parameters, QueuePriority queuePriority) {
+        if (method.equalsIgnoreCase("GET")) {
+            return this.futureWithGETOperation(path, parameters, queuePriority);
+        }
+
+        HTTPResponseFuture future = new HTTPResponseFuture();
+
+        URLRequest request = this.connectionWithMethodPathAndParameters(method, path, parameters);
+        HTTPURLRequestOperation operation = this.operationWithURLRequest(request, future);
+        operation.setQueuePriority(queuePriority);
+        future.setOperation(operation);
+        this.prepareHTTPURLRequestOperationForExecution(operation);
+
+        return future;
+    }
+
+    /**
+     {@link CompletableFuture} completed by the {@link HTTPCompletion} of an operation, cancelling the operation when
+     it is cancelled.
+     */
+    private static class HTTPResponseFuture extends CompletableFuture<HTTPResponse> implements HTTPCompletion {
+
+        private volatile URLConnectionOperation operation;
+
+        void setOperation(URLConnectionOperation operation) {
+            this.operation = operation;
+
+            // Cancelled before the operation was known
+            if (operation != null && this.isCancelled()) {
+                operation.cancel();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+            URLConnectionOperation operation = this.operation;
+            if (cancelled && operation != null) {
+                operation.cancel();
+            }
+            return cancelled;
+        }
+
+        @Override
+        public void failure(URLRequest request, Throwable t) {
+            this.completeExceptionally(t);
+        }
+
+        @Override
+        public void success(URLRequest request, Object response) {
+            HTTPResponse httpResponse;
+            try {
+                httpResponse = new HTTPResponse(request, request.getResponseCode(), request.getHeaderFields(), response);
+            } catch (IOException e) {
+                this.completeExceptionally(e);
+                return;
+            }
+            this.complete(httpResponse);
+        }
+    }
+
+    /**
+     Sends a batch of requests with up to {@code maxConcurrentRequestCount} of them in flight, and calls the completion
+     once with the results of all requests, see {@link HTTPRequestBatch}. The requests are created in one pass,
+     sharing the clients default headers.
+
+     @param requests The requests to be sent.
+     @param maxConcurrentRequestCount The maximum number of requests in flight at the same time.
+     @param completion A callback object that is called when every request completed.
+
+     @return The {@link HTTPRequestBatch}, which reports progress and can be cancelled.
+     */
+    public HTTPRequestBatch enqueueBatchOfRequests(List<HTTPRequestBatch.Request> requests, int maxConcurrentRequestCount, HTTPRequestBatch.BatchCompletion completion) {
+        HTTPRequestBatch batch = new HTTPRequestBatch(this, requests, maxConcurrentRequestCount, completion);
+        batch.start();
+        return batch;
+    }
+
+    /**
+     Creates a {@link Flow.Publisher} of the response body of a request, published in {@link ByteBuffer} chunks as
+     they are read, see {@link ResponseBodyPublisher}. The request is enqueued when the subscriber subscribes, and its
+     worker only reads the next chunk once the subscriber requested it.
+
+     The worker is held for the whole transfer. The request executes on the clients {@link OperationQueue} if it
+     executes operations concurrently, where it takes one of its slots. The default client queue executes one
+     operation at a time, the request then executes on its own {@link WorkerOperationQueue}, like the requests of a
+     {@link HTTPRequestBatch}, so a slow subscriber does not stall the other requests of the client.
+
+     Streamed requests are sent with a {@link URLConnection}, waiting for demand would block the I/O thread of a
+     {@link NIOTransportEngine}, and bypass the response cache. The clients total timeout applies to them, see
+     {@code setTotalTimeout()}, counted from the subscription and including the time spent waiting for demand. A
+     long lived stream, e.g. of events, needs a client without total timeout.
+
+     @param method The HTTP method to be used.
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded with the clients parameter encoding.
+
+     @return A publisher allowing a single subscriber.
+     */
+    public Flow.Publisher<ByteBuffer> bodyPublisherWithMethodPathAndParameters(String method, String path, Map<String, Object> parameters) {
+        URLRequest request = this.connectionWithMethodPathAndParameters(method, path, parameters);
+        request.setTransportEngine(null);
+
+        final HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(request, (HTTPCompletion) null);
+        operation.setTotalTimeout(this.totalTimeout);
+        ResponseBodyPublisher publisher = new ResponseBodyPublisher(operation, new Runnable() {
+            @Override
+            public void run() {
+                OperationQueue operationQueue = getOperationQueue();
+                if (operationQueue.getClass() == OperationQueue.class) {
+                    operationQueue = new WorkerOperationQueue(1);
+                }
+                operationQueue.addOperation(operation);
+            }
+        });
+        operation.setCompletion(publisher.completion());
+
+        return publisher;
+    }
+
+    /**
+     Creates a {@link Flow.Publisher} of the elements of a newline delimited JSON response body, e.g. a long lived
+     stream of events, see {@link JSONStreamPublisher}. The body is read as the subscriber requests elements.
+
+     @param method The HTTP method to be used.
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param parameters The parameters to be encoded with the clients parameter encoding.
+
+     @return A publisher allowing a single subscriber.
+     */
+    public Flow.Publisher<JsonElement> JSONPublisherWithMethodPathAndParameters(String method, String path, Map<String, Object> parameters) {
+        return new JSONStreamPublisher(this.bodyPublisherWithMethodPathAndParameters(method, path, parameters));
+    }
+
+    /**
+     Downloads a resource to a file with up to {@code segmentCount} concurrent `Range` requests. Falls back to a
+     single request if the server does not send `Accept-Ranges: bytes` for a `HEAD` request.
+
+     Each segment is checked against its `Content-Range`, including the total length. The segments run on the
+     clients {@link NIOTransportEngine}, or on its {@link OperationQueue} if it executes operations concurrently,
+     and on their own {@link WorkerOperationQueue} otherwise. The first failing segment cancels the others and
+     deletes the incomplete file. On success the completion receives the destination {@link Path}.
+
+     @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+     @param destination The file the resource is written to.
+     @param segmentCount The number of ranges requested concurrently.
+     @param completion A callback object that is called when the download finishes.
+     */
+    public void downloadFile(String path, Path destination, int segmentCount, HTTPCompletion completion) {
+        if (destination == null) {
+            throw new NullPointerException("destination cannot be null.");
+        }
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be at least 1");
+        }
+        new SegmentedDownload(this, path, destination, segmentCount, completion).start();
+    }
 }
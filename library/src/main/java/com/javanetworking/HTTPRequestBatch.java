@@ -0,0 +1,380 @@
+package com.javanetworking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.operationqueue.OperationQueue;
+
+/**
+ {@link HTTPRequestBatch} sends a list of requests with up to a maximum number of requests in flight, and reports all
+ results in one {@link BatchCompletion}, see {@code HTTPClient.enqueueBatchOfRequests()}.
+
+ The {@link URLRequest}s are created in one pass when the batch is enqueued, sharing the clients request properties.
+ Their connections are only opened when the requests are sent. Whenever a request completes, the next one is sent, so
+ the batch never holds more than its limit of operations in the queue.
+
+ Operations execute on the clients {@link OperationQueue} if it executes operations concurrently, e.g. a
+ {@link WorkerOperationQueue} or a {@link HostOperationQueue}. The default client queue executes one operation at a
+ time, a batch then executes its operations on its own {@link WorkerOperationQueue}, whose idle workers time out.
+ */
+public class HTTPRequestBatch {
+
+    /**
+     {@link BatchCompletion} is called once every request of a batch completed or was cancelled.
+     */
+    public interface BatchCompletion {
+        void completion(HTTPRequestBatch batch);
+    }
+
+    /**
+     {@link Request} describes a request of a batch, like the arguments of the clients request methods.
+     */
+    public static class Request {
+
+        private final String method;
+        private final String path;
+        private final Map<String, Object> parameters;
+
+        /**
+         @param method The HTTP method to be used.
+         @param path The path to be appended to the HTTP client's base URL and used as the request URL.
+         @param parameters The parameters to be encoded with the clients parameter encoding, or null.
+         */
+        public Request(String method, String path, Map<String, Object> parameters) {
+            if (method == null) {
+                throw new NullPointerException("method cannot be null.");
+            }
+            if (path == null) {
+                throw new NullPointerException("path cannot be null.");
+            }
+            this.method = method;
+            this.path = path;
+            this.parameters = parameters;
+        }
+
+        public static Request GET(String path, Map<String, Object> parameters) {
+            return new Request("GET", path, parameters);
+        }
+
+        public String getMethod() {
+            return this.method;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public Map<String, Object> getParameters() {
+            return this.parameters;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<Request %s %s>", this.method, this.path);
+        }
+    }
+
+    /**
+     {@link Result} is the outcome of one request of a batch.
+     */
+    public static class Result {
+
+        private final Request request;
+        private final URLRequest urlRequest;
+
+        private volatile HTTPURLRequestOperation operation;
+        private volatile Object response;
+        private volatile Throwable throwable;
+        private volatile long sentNanos;
+        private volatile long durationNanos = -1;
+
+        Result(Request request, URLRequest urlRequest) {
+            this.request = request;
+            this.urlRequest = urlRequest;
+        }
+
+        public Request getRequest() {
+            return this.request;
+        }
+
+        public URLRequest getURLRequest() {
+            return this.urlRequest;
+        }
+
+        /**
+         Returns the response as passed to {@code HTTPCompletion.success()}, or null if the request failed.
+         */
+        public Object getResponse() {
+            return this.response;
+        }
+
+        /**
+         Returns the failure of the request, a {@link CancellationException} if it was not sent because the batch was
+         cancelled, or null if it succeeded.
+         */
+        public Throwable getThrowable() {
+            return this.throwable;
+        }
+
+        public boolean isSuccessful() {
+            return this.throwable == null;
+        }
+
+        /**
+         Returns the time in nanoseconds from sending the request, including the time waiting in the queue, until it
+         completed, or -1 if it was not sent.
+         */
+        public long getDurationNanos() {
+            return this.durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<Result %s successful:%b durationNanos:%d>", this.request, this.isSuccessful(), this.durationNanos);
+        }
+    }
+
+    private final HTTPClient client;
+    private final OperationQueue operationQueue;
+    private final int maxConcurrentRequestCount;
+    private final BatchCompletion completion;
+    private final List<Result> results;
+
+    /**
+     The index of the next request to be sent, guarded by this.
+     */
+    private int nextIndex;
+
+    /**
+     The number of requests sent and not yet completed, guarded by this.
+     */
+    private int runningRequestCount;
+
+    /**
+     The number of completed requests, guarded by this.
+     */
+    private int completedRequestCount;
+
+    /**
+     A boolean value indicating if {@code cancel()} was called, guarded by this.
+     */
+    private boolean cancelled;
+
+    /**
+     Sending state of {@code sendRequests()}, guarded by this.
+     */
+    private boolean sending;
+    private boolean missed;
+
+    private long startNanos;
+    private volatile long elapsedNanos = -1;
+
+    HTTPRequestBatch(HTTPClient client, List<Request> requests, int maxConcurrentRequestCount, BatchCompletion completion) {
+        if (requests == null) {
+            throw new NullPointerException("requests cannot be null.");
+        }
+        if (maxConcurrentRequestCount < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequestCount must be at least 1");
+        }
+        this.client = client;
+        this.maxConcurrentRequestCount = maxConcurrentRequestCount;
+        this.completion = completion;
+
+        OperationQueue operationQueue = client.getOperationQueue();
+        if (operationQueue.getClass() == OperationQueue.class) {
+            operationQueue = new WorkerOperationQueue(maxConcurrentRequestCount);
+        }
+        this.operationQueue = operationQueue;
+
+        Map<String, String> requestProperties = client.defaultRequestProperties();
+        Result[] results = new Result[requests.size()];
+        for (int i=0; i<results.length; i++) {
+            Request request = requests.get(i);
+            results[i] = new Result(request, client.connectionWithMethodPathAndParameters(request.getMethod(), request.getPath(), request.getParameters(), requestProperties));
+        }
+        this.results = Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     Returns the results in the order of the requests. A result is complete once the batch completed.
+     */
+    public List<Result> getResults() {
+        return this.results;
+    }
+
+    /**
+     Returns the results of the failed requests.
+     */
+    public List<Result> getFailedResults() {
+        List<Result> failedResults = new ArrayList<Result>();
+        for (Result result : this.results) {
+            if (result.getThrowable() != null) {
+                failedResults.add(result);
+            }
+        }
+        return failedResults;
+    }
+
+    public int getMaxConcurrentRequestCount() {
+        return this.maxConcurrentRequestCount;
+    }
+
+    public synchronized int getCompletedRequestCount() {
+        return this.completedRequestCount;
+    }
+
+    public synchronized int getRunningRequestCount() {
+        return this.runningRequestCount;
+    }
+
+    /**
+     Returns the time in nanoseconds from enqueueing the batch until its last request completed, or -1 if the batch
+     has not completed.
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    public boolean isCompleted() {
+        return this.elapsedNanos >= 0;
+    }
+
+    /**
+     Cancels the batch. Requests not yet sent fail with a {@link CancellationException}, sent requests are cancelled,
+     see {@code URLConnectionOperation.cancel()}. The completion is called once the sent requests completed.
+     */
+    public void cancel() {
+        List<HTTPURLRequestOperation> operations = new ArrayList<HTTPURLRequestOperation>();
+        boolean completed;
+
+        synchronized (this) {
+            if (this.cancelled) {
+                return;
+            }
+            this.cancelled = true;
+
+            for (int i=0; i<this.nextIndex; i++) {
+                HTTPURLRequestOperation operation = this.results.get(i).operation;
+                if (operation != null) {
+                    operations.add(operation);
+                }
+            }
+            for (int i=this.nextIndex; i<this.results.size(); i++) {
+                this.results.get(i).throwable = new CancellationException("Batch cancelled before the request was sent");
+            }
+            this.completedRequestCount += this.results.size() - this.nextIndex;
+            this.nextIndex = this.results.size();
+            completed = (this.completedRequestCount == this.results.size());
+        }
+
+        for (HTTPURLRequestOperation operation : operations) {
+            operation.cancel();
+        }
+        if (completed) {
+            this.finish();
+        }
+    }
+
+    /**
+     Sends the first requests, up to the limit.
+     */
+    void start() {
+        this.startNanos = System.nanoTime();
+
+        if (this.results.isEmpty()) {
+            this.finish();
+            return;
+        }
+        this.sendRequests();
+    }
+
+    /**
+     Sends requests while fewer than the limit are running. Only one thread sends at a time, a call while another
+     thread sends makes that thread check again. Cached responses complete while they are sent, so they continue the
+     loop instead of recursing.
+     */
+    private void sendRequests() {
+        synchronized (this) {
+            if (this.sending) {
+                this.missed = true;
+                return;
+            }
+            this.sending = true;
+        }
+
+        while (true) {
+            final Result result;
+
+            synchronized (this) {
+                if (this.runningRequestCount < this.maxConcurrentRequestCount && this.nextIndex < this.results.size()) {
+                    result = this.results.get(this.nextIndex++);
+                    this.runningRequestCount++;
+                } else if (this.missed) {
+                    this.missed = false;
+                    continue;
+                } else {
+                    this.sending = false;
+                    return;
+                }
+            }
+
+            result.operation = this.client.operationWithURLRequest(result.urlRequest, new HTTPCompletion() {
+                @Override
+                public void failure(URLRequest request, Throwable t) {
+                    result.throwable = t;
+                    requestDidComplete(result);
+                }
+                @Override
+                public void success(URLRequest request, Object response) {
+                    result.response = response;
+                    requestDidComplete(result);
+                }
+            });
+            synchronized (this) {
+                // Cancelled before the operation was known
+                if (this.cancelled) {
+                    result.operation.cancel();
+                }
+            }
+            result.sentNanos = System.nanoTime();
+            this.client.prepareHTTPURLRequestOperationForExecution(result.operation, this.operationQueue, true);
+        }
+    }
+
+    private void requestDidComplete(Result result) {
+        result.durationNanos = System.nanoTime() - result.sentNanos;
+        // The operation is not cancelled after it completed
+        result.operation = null;
+
+        boolean completed;
+        synchronized (this) {
+            this.runningRequestCount--;
+            this.completedRequestCount++;
+            completed = (this.completedRequestCount == this.results.size());
+        }
+
+        if (completed) {
+            this.finish();
+        } else {
+            this.sendRequests();
+        }
+    }
+
+    private void finish() {
+        this.elapsedNanos = System.nanoTime() - this.startNanos;
+
+        if (this.completion != null) {
+            this.completion.completion(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<HTTPRequestBatch requestCount:%d maxConcurrentRequestCount:%d>", this.results.size(), this.maxConcurrentRequestCount);
+    }
+}
@@ -0,0 +1,67 @@
+package com.javanetworking;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ {@link HTTPResponse} is the result of a request sent with one of the {@link HTTPClient} methods returning a
+ {@link java.util.concurrent.CompletableFuture}: the response status, the header fields and the body, parsed by the
+ operation class registered with the client, e.g. a {@link com.javanetworking.gson.JsonElement} for a
+ {@link JSONURLRequestOperation}.
+ */
+public class HTTPResponse {
+
+    private final URLRequest request;
+    private final int statusCode;
+    private final Map<String, List<String>> headerFields;
+    private final Object body;
+
+    HTTPResponse(URLRequest request, int statusCode, Map<String, List<String>> headerFields, Object body) {
+        this.request = request;
+        this.statusCode = statusCode;
+        this.headerFields = headerFields;
+        this.body = body;
+    }
+
+    /**
+     Returns the request this response answers.
+     */
+    public URLRequest getURLRequest() {
+        return this.request;
+    }
+
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     Returns the response header fields.
+     */
+    public Map<String, List<String>> getHeaderFields() {
+        return this.headerFields;
+    }
+
+    /**
+     Returns the first value of a response header by case insensitive name, or null.
+     */
+    public String getHeaderField(String name) {
+        for (Map.Entry<String, List<String>> field : this.headerFields.entrySet()) {
+            if (field.getKey() != null && field.getKey().equalsIgnoreCase(name) && !field.getValue().isEmpty()) {
+                return field.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     Returns the response body as parsed by the operation, a byte array for an {@link HTTPURLRequestOperation}.
+     */
+    public Object getBody() {
+        return this.body;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<HTTPResponse statusCode:%d URL:%s>", this.statusCode, this.request.getURLString());
+    }
+}
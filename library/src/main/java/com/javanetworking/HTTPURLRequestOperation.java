@@ -187,6 +187,14 @@ public class HTTPURLRequestOperation extends URLConnectionOperation {
         return this.error;
     }
 
+    /**
+     Validates the response code and content type before the response body is passed to a data consumer.
+     */
+    @Override
+    protected boolean hasAcceptableResponse() {
+        return getError() == null;
+    }
+
     /**
     Sets the {@link HTTPCompletion} interface that responds to this operation.
     */
@@ -0,0 +1,394 @@
+package com.javanetworking;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.operationqueue.Operation;
+import com.operationqueue.Operation.OperationState;
+import com.operationqueue.OperationQueue;
+
+/**
+ {@link HostOperationQueue} is an {@link OperationQueue} limiting how many operations execute at the same time in
+ total and per host, so one slow host cannot take every worker of a client.
+
+ Operations wait in a queue per host, identified by the host and port of a {@link URLConnectionOperation}s request.
+ Whenever an operation may start, the hosts with waiting operations take turns, so a host with a long queue does not
+ delay the operations of other hosts. The next operation of a host is chosen by its
+ {@link URLConnectionOperation.QueuePriority}, aged like on {@code WorkerOperationQueue.queueWithPriorities()}.
+ Operations that may start are added to the underlying {@link OperationQueue}, which executes them.
+
+ Queue names are accepted for compatibility, all named queues share the same limits.
+ */
+public class HostOperationQueue extends OperationQueue {
+
+    /**
+     A waiting operation, ordered by its aged priority and then by the order operations were added.
+     */
+    private static class WaitingOperation implements Comparable<WaitingOperation> {
+        final Operation operation;
+        final long priorityKey;
+        final long sequenceNumber;
+
+        WaitingOperation(Operation operation, long priorityKey, long sequenceNumber) {
+            this.operation = operation;
+            this.priorityKey = priorityKey;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public int compareTo(WaitingOperation waitingOperation) {
+            long difference = this.priorityKey - waitingOperation.priorityKey;
+            if (difference != 0) {
+                return (difference < 0) ? -1 : 1;
+            }
+            return (this.sequenceNumber < waitingOperation.sequenceNumber) ? -1 : ((this.sequenceNumber == waitingOperation.sequenceNumber) ? 0 : 1);
+        }
+    }
+
+    /**
+     The waiting and executing operations of one host.
+     */
+    private static class HostQueue {
+        final PriorityQueue<WaitingOperation> waitingOperations = new PriorityQueue<WaitingOperation>();
+        int runningOperationCount;
+    }
+
+    /**
+     The queue executing the operations that may start.
+     */
+    private final OperationQueue operationQueue;
+
+    private final int maxConcurrentOperationCount;
+    private final int maxConcurrentOperationCountPerHost;
+
+    /**
+     The hosts with waiting or executing operations, guarded by this.
+     */
+    private final Map<String, HostQueue> hostQueues;
+
+    /**
+     The hosts with waiting operations in the order they take turns, guarded by this.
+     */
+    private final Deque<String> waitingHosts;
+
+    private int runningOperationCount;
+
+    /**
+     The operations started and not yet completed, guarded by this.
+     */
+    private final Set<Operation> runningOperations = new HashSet<Operation>();
+
+    /**
+     The waiting time in nanoseconds worth one priority level.
+     */
+    private final long agingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(WorkerOperationQueue.DEFAULT_AGING_INTERVAL_MILLIS);
+
+    /**
+     The number of operations added, guarded by this.
+     */
+    private long sequenceNumber;
+
+    /**
+     Creates a queue executing operations on a {@link WorkerOperationQueue} with {@code maxConcurrentOperationCount}
+     workers.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     @param maxConcurrentOperationCountPerHost The maximum number of operations of one host executing at the same time.
+     */
+    public HostOperationQueue(int maxConcurrentOperationCount, int maxConcurrentOperationCountPerHost) {
+        this(new WorkerOperationQueue(maxConcurrentOperationCount), maxConcurrentOperationCount, maxConcurrentOperationCountPerHost);
+    }
+
+    /**
+     Creates a queue executing operations on another queue.
+
+     @param operationQueue The {@link OperationQueue} executing the operations that may start.
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     @param maxConcurrentOperationCountPerHost The maximum number of operations of one host executing at the same time.
+     */
+    public HostOperationQueue(OperationQueue operationQueue, int maxConcurrentOperationCount, int maxConcurrentOperationCountPerHost) {
+        super();
+
+        if (operationQueue == null) {
+            throw new NullPointerException("operationQueue cannot be null.");
+        }
+        if (maxConcurrentOperationCount < 1) {
+            throw new IllegalArgumentException("maxConcurrentOperationCount must be at least 1");
+        }
+        if (maxConcurrentOperationCountPerHost < 1) {
+            throw new IllegalArgumentException("maxConcurrentOperationCountPerHost must be at least 1");
+        }
+        this.operationQueue = operationQueue;
+        this.maxConcurrentOperationCount = maxConcurrentOperationCount;
+        this.maxConcurrentOperationCountPerHost = maxConcurrentOperationCountPerHost;
+
+        this.hostQueues = new HashMap<String, HostQueue>();
+        this.waitingHosts = new ArrayDeque<String>();
+    }
+
+    public int getMaxConcurrentOperationCount() {
+        return this.maxConcurrentOperationCount;
+    }
+
+    public int getMaxConcurrentOperationCountPerHost() {
+        return this.maxConcurrentOperationCountPerHost;
+    }
+
+    /**
+     Returns the number of operations waiting for their turn.
+     */
+    public synchronized int getQueuedOperationCount() {
+        int count = 0;
+        for (HostQueue hostQueue : this.hostQueues.values()) {
+            count += hostQueue.waitingOperations.size();
+        }
+        return count;
+    }
+
+    /**
+     Returns the number of operations of a host waiting for their turn.
+
+     @param host The host and port, e.g. `example.com:443`.
+     */
+    public synchronized int getQueuedOperationCount(String host) {
+        HostQueue hostQueue = this.hostQueues.get(host);
+        return (hostQueue != null) ? hostQueue.waitingOperations.size() : 0;
+    }
+
+    /**
+     Returns the number of operations started and not yet completed.
+     */
+    public synchronized int getRunningOperationCount() {
+        return this.runningOperationCount;
+    }
+
+    /**
+     Returns the number of operations of a host started and not yet completed.
+
+     @param host The host and port, e.g. `example.com:443`.
+     */
+    public synchronized int getRunningOperationCount(String host) {
+        HostQueue hostQueue = this.hostQueues.get(host);
+        return (hostQueue != null) ? hostQueue.runningOperationCount : 0;
+    }
+
+    /**
+     Returns the queue depth of every host with waiting or executing operations, the number of waiting operations.
+     */
+    public synchronized Map<String, Integer> getQueuedOperationCountsByHost() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Map.Entry<String, HostQueue> hostQueue : this.hostQueues.entrySet()) {
+            counts.put(hostQueue.getKey(), hostQueue.getValue().waitingOperations.size());
+        }
+        return counts;
+    }
+
+    /**
+     Returns the host an operation is limited by: the host and port of a {@link URLConnectionOperation}s request, or an
+     empty string for other operations and invalid URLs.
+     */
+    protected String hostForOperation(Operation operation) {
+        if (!(operation instanceof URLConnectionOperation)) {
+            return "";
+        }
+
+        try {
+            URL url = new URL(((URLConnectionOperation) operation).getURLRequest().getURLString());
+            int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+            return String.format("%s:%d", url.getHost().toLowerCase(), port);
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    @Override
+    public void addOperation(Operation operation) {
+        this.addOperationToQueueNamed(null, operation);
+    }
+
+    /**
+     Adds an operation to the queue of its host. The queue name is ignored.
+     */
+    @Override
+    public void addOperationToQueueNamed(String name, Operation operation) {
+        String host = this.hostForOperation(operation);
+        long priorityKey = WorkerOperationQueue.agedPriorityKey(operation, this.agingIntervalNanos);
+        operation.setState(OperationState.InQueue);
+
+        synchronized (this) {
+            HostQueue hostQueue = this.hostQueues.get(host);
+            if (hostQueue == null) {
+                hostQueue = new HostQueue();
+                this.hostQueues.put(host, hostQueue);
+            }
+            if (hostQueue.waitingOperations.isEmpty()) {
+                this.waitingHosts.addLast(host);
+            }
+            hostQueue.waitingOperations.add(new WaitingOperation(operation, priorityKey, this.sequenceNumber++));
+        }
+
+        this.startOperations();
+    }
+
+    /**
+     Starts waiting operations while the limits allow, taking one operation of each host in turn.
+     The operations are added to the underlying queue outside the lock, it may complete them on this thread.
+     */
+    private void startOperations() {
+        List<Operation> operations = new ArrayList<Operation>();
+
+        synchronized (this) {
+            // Hosts at their limit are skipped, stop after a full turn without a startable host
+            int skippedHostCount = 0;
+            while (this.runningOperationCount < this.maxConcurrentOperationCount && skippedHostCount < this.waitingHosts.size()) {
+                String host = this.waitingHosts.pollFirst();
+                HostQueue hostQueue = this.hostQueues.get(host);
+
+                if (hostQueue.runningOperationCount >= this.maxConcurrentOperationCountPerHost) {
+                    this.waitingHosts.addLast(host);
+                    skippedHostCount++;
+                    continue;
+                }
+                skippedHostCount = 0;
+
+                Operation operation = hostQueue.waitingOperations.poll().operation;
+                hostQueue.runningOperationCount++;
+                this.runningOperationCount++;
+                this.runningOperations.add(operation);
+                operations.add(new HostOperation(host, operation));
+
+                if (!hostQueue.waitingOperations.isEmpty()) {
+                    this.waitingHosts.addLast(host);
+                }
+            }
+        }
+
+        for (Operation operation : operations) {
+            this.operationQueue.addOperation(operation);
+        }
+    }
+
+    /**
+     Counts a started operation as done and starts the next waiting operations.
+     */
+    private void operationDidComplete(String host, Operation operation) {
+        synchronized (this) {
+            HostQueue hostQueue = this.hostQueues.get(host);
+            hostQueue.runningOperationCount--;
+            this.runningOperationCount--;
+            this.runningOperations.remove(operation);
+
+            if (hostQueue.runningOperationCount == 0 && hostQueue.waitingOperations.isEmpty()) {
+                this.hostQueues.remove(host);
+            }
+        }
+
+        this.startOperations();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return this.hostQueues.isEmpty();
+    }
+
+    @Override
+    public boolean isEmpty(String name) {
+        return this.isEmpty();
+    }
+
+    /**
+     Cancels all waiting operations, the started operations and the operations of the underlying queue.
+
+     Waiting operations are completed with the `Cancelled` state. A started {@link URLConnectionOperation} is
+     cancelled, which closes its connection, see {@code URLConnectionOperation.cancel()}. The underlying queue only
+     sees the operations wrapped, it cannot cancel them itself.
+     */
+    @Override
+    public void cancelAllOperations() {
+        List<Operation> operations = new ArrayList<Operation>();
+        List<Operation> startedOperations;
+
+        synchronized (this) {
+            startedOperations = new ArrayList<Operation>(this.runningOperations);
+
+            for (HostQueue hostQueue : this.hostQueues.values()) {
+                for (WaitingOperation waitingOperation : hostQueue.waitingOperations) {
+                    operations.add(waitingOperation.operation);
+                }
+                hostQueue.waitingOperations.clear();
+            }
+            this.waitingHosts.clear();
+
+            for (String host : new ArrayList<String>(this.hostQueues.keySet())) {
+                if (this.hostQueues.get(host).runningOperationCount == 0) {
+                    this.hostQueues.remove(host);
+                }
+            }
+        }
+
+        for (Operation operation : operations) {
+            operation.setState(OperationState.Cancelled);
+            operation.complete();
+        }
+        for (Operation operation : startedOperations) {
+            if (operation instanceof URLConnectionOperation) {
+                ((URLConnectionOperation) operation).cancel();
+            }
+        }
+
+        this.operationQueue.cancelAllOperations();
+    }
+
+    /**
+     {@link Operation} passing a started operation to the underlying queue, which counts it as done when it completes.
+     */
+    private class HostOperation implements Operation {
+
+        private final String host;
+        private final Operation operation;
+
+        HostOperation(String host, Operation operation) {
+            this.host = host;
+            this.operation = operation;
+        }
+
+        @Override
+        public void setState(OperationState state) {
+            this.operation.setState(state);
+        }
+
+        @Override
+        public OperationState getState() {
+            return this.operation.getState();
+        }
+
+        @Override
+        public void execute() {
+            this.operation.execute();
+        }
+
+        @Override
+        public void complete() {
+            try {
+                this.operation.complete();
+            } finally {
+                operationDidComplete(this.host, this.operation);
+            }
+        }
+
+        @Override
+        public void failure(Throwable t) {
+            this.operation.failure(t);
+        }
+    }
+}
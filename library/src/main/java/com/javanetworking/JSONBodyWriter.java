@@ -0,0 +1,73 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+import com.javanetworking.gson.Gson;
+import com.javanetworking.gson.JsonIOException;
+import com.javanetworking.gson.JsonNull;
+import com.javanetworking.gson.stream.JsonWriter;
+
+/**
+ {@link JSONBodyWriter} is a {@link URLRequest.HTTPBodyWriter} serializing an object to JSON while the request is
+ sent.
+
+ The JSON is written through a {@link JsonWriter} straight into the connection, so neither a JSON string nor an
+ encoded byte array of the body is created. The length is not known in advance, the body is sent with chunked
+ transfer encoding.
+ */
+public class JSONBodyWriter implements URLRequest.HTTPBodyWriter {
+
+    private final Object src;
+    private final Charset charset;
+
+    /**
+     Creates a writer serializing an object as UTF-8 encoded JSON.
+
+     @param src The object to be serialized, typically a {@link java.util.Map} of parameters.
+     */
+    public JSONBodyWriter(Object src) {
+        this(src, Charset.forName("UTF-8"));
+    }
+
+    /**
+     Creates a writer serializing an object as JSON.
+
+     @param src The object to be serialized, typically a {@link java.util.Map} of parameters.
+     @param charset The {@link Charset} of the body.
+     */
+    public JSONBodyWriter(Object src, Charset charset) {
+        if (charset == null) {
+            throw new NullPointerException("charset cannot be null.");
+        }
+        this.src = src;
+        this.charset = charset;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(outputStream, this.charset));
+
+        try {
+            if (this.src == null) {
+                new Gson().toJson(JsonNull.INSTANCE, writer);
+            } else {
+                new Gson().toJson(this.src, this.src.getClass(), writer);
+            }
+        } catch (JsonIOException e) {
+            // Gson wraps the IOExceptions of the connection
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        writer.flush();
+    }
+}
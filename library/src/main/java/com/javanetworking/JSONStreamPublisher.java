@@ -0,0 +1,290 @@
+package com.javanetworking;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Flow;
+
+import com.javanetworking.gson.JsonElement;
+import com.javanetworking.gson.JsonParser;
+
+/**
+ {@link JSONStreamPublisher} parses a newline delimited JSON (NDJSON) body published as {@link ByteBuffer} chunks,
+ e.g. by a {@link ResponseBodyPublisher}, and publishes one {@link JsonElement} per line to a single
+ {@link Flow.Subscriber}, see {@code HTTPClient.JSONPublisherWithMethodPathAndParameters()}.
+
+ A chunk is requested from the body only when the subscriber requested more elements than the lines parsed so far,
+ so the demand of the subscriber throttles the transfer. Empty lines are skipped, a last line without a newline is
+ parsed when the body is complete. A line that is not valid JSON fails the subscriber and cancels the body.
+ */
+public class JSONStreamPublisher implements Flow.Publisher<JsonElement> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Flow.Publisher<ByteBuffer> bodyPublisher;
+
+    /**
+     The subscriber, guarded by this.
+     */
+    private Flow.Subscriber<? super JsonElement> subscriber;
+
+    /**
+     The subscription of the body, guarded by this.
+     */
+    private Flow.Subscription bodySubscription;
+
+    /**
+     The parsed elements not yet published, guarded by this.
+     */
+    private final Deque<JsonElement> elements = new ArrayDeque<JsonElement>();
+
+    /**
+     The bytes of the line being received, guarded by this.
+     */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /**
+     The number of elements requested and not yet published, guarded by this.
+     */
+    private long demand;
+
+    /**
+     A boolean value indicating if a chunk was requested from the body and not yet received, guarded by this.
+     */
+    private boolean chunkRequested;
+
+    /**
+     A boolean value indicating if the body is complete, guarded by this.
+     */
+    private boolean bodyComplete;
+
+    /**
+     The failure to be published once the parsed elements are published, guarded by this.
+     */
+    private Throwable error;
+
+    /**
+     A boolean value indicating if the subscription was cancelled or completed, guarded by this.
+     */
+    private boolean done;
+
+    /**
+     Publishing state of {@code drain()}, guarded by this.
+     */
+    private boolean draining;
+    private boolean missed;
+
+    /**
+     Creates a publisher parsing a body. The body is subscribed when the subscriber subscribes.
+
+     @param bodyPublisher The publisher of the newline delimited JSON body.
+     */
+    public JSONStreamPublisher(Flow.Publisher<ByteBuffer> bodyPublisher) {
+        if (bodyPublisher == null) {
+            throw new NullPointerException("bodyPublisher cannot be null.");
+        }
+        this.bodyPublisher = bodyPublisher;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super JsonElement> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber cannot be null.");
+        }
+
+        boolean subscribed;
+        synchronized (this) {
+            subscribed = (this.subscriber != null);
+            if (!subscribed) {
+                this.subscriber = subscriber;
+            }
+        }
+
+        if (subscribed) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("JSONStreamPublisher allows one subscriber only"));
+            return;
+        }
+
+        this.bodyPublisher.subscribe(new BodySubscriber());
+    }
+
+    /**
+     Splits a chunk into lines and parses every complete line.
+     */
+    private synchronized void parseChunk(ByteBuffer chunk) {
+        while (chunk.hasRemaining() && this.error == null) {
+            byte b = chunk.get();
+            if (b == '\n') {
+                this.parseLine();
+            } else {
+                this.line.write(b);
+            }
+        }
+    }
+
+    /**
+     Parses the received line, unless it is empty.
+     */
+    private void parseLine() {
+        String text = new String(this.line.toByteArray(), UTF8).trim();
+        this.line.reset();
+        if (text.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.elements.add(new JsonParser().parse(text));
+        } catch (RuntimeException e) {
+            this.error = e;
+        }
+    }
+
+    /**
+     Publishes parsed elements while the subscriber has demand, requests the next chunk when it runs out of elements,
+     and completes the subscriber when the body is done. Only one thread publishes at a time, a call while another
+     thread publishes makes that thread check again.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (this.draining) {
+                this.missed = true;
+                return;
+            }
+            this.draining = true;
+        }
+
+        while (true) {
+            JsonElement element = null;
+            Throwable failure = null;
+            boolean complete = false;
+            Flow.Subscription requestedSubscription = null;
+            Flow.Subscription cancelledSubscription = null;
+            Flow.Subscriber<? super JsonElement> subscriber;
+
+            synchronized (this) {
+                subscriber = this.subscriber;
+                if (this.done) {
+                    this.draining = false;
+                    return;
+                }
+
+                if (this.demand > 0 && !this.elements.isEmpty()) {
+                    element = this.elements.poll();
+                    this.demand--;
+                } else if (this.elements.isEmpty() && this.error != null) {
+                    this.done = true;
+                    failure = this.error;
+                    cancelledSubscription = this.bodyComplete ? null : this.bodySubscription;
+                } else if (this.elements.isEmpty() && this.bodyComplete) {
+                    this.done = true;
+                    complete = true;
+                } else if (this.demand > 0 && !this.chunkRequested && this.bodySubscription != null) {
+                    this.chunkRequested = true;
+                    requestedSubscription = this.bodySubscription;
+                } else if (this.missed) {
+                    this.missed = false;
+                    continue;
+                } else {
+                    this.draining = false;
+                    return;
+                }
+            }
+
+            if (element != null) {
+                subscriber.onNext(element);
+            } else if (failure != null) {
+                if (cancelledSubscription != null) {
+                    cancelledSubscription.cancel();
+                }
+                subscriber.onError(failure);
+            } else if (complete) {
+                subscriber.onComplete();
+            } else {
+                requestedSubscription.request(1);
+            }
+        }
+    }
+
+    /**
+     {@link Flow.Subscriber} of the body, parsing the chunks it receives.
+     */
+    private class BodySubscriber implements Flow.Subscriber<ByteBuffer> {
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            synchronized (JSONStreamPublisher.this) {
+                bodySubscription = subscription;
+            }
+
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    synchronized (JSONStreamPublisher.this) {
+                        if (n <= 0) {
+                            error = new IllegalArgumentException("Subscription request must be positive");
+                            elements.clear();
+                        } else {
+                            demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                        }
+                    }
+                    drain();
+                }
+                @Override
+                public void cancel() {
+                    Flow.Subscription subscription;
+                    synchronized (JSONStreamPublisher.this) {
+                        if (done) {
+                            return;
+                        }
+                        done = true;
+                        subscription = bodyComplete ? null : bodySubscription;
+                    }
+                    if (subscription != null) {
+                        subscription.cancel();
+                    }
+                }
+            });
+
+            drain();
+        }
+
+        @Override
+        public void onNext(ByteBuffer chunk) {
+            synchronized (JSONStreamPublisher.this) {
+                chunkRequested = false;
+            }
+            parseChunk(chunk);
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (JSONStreamPublisher.this) {
+                bodyComplete = true;
+                if (error == null) {
+                    error = t;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (JSONStreamPublisher.this) {
+                bodyComplete = true;
+                if (error == null) {
+                    parseLine();
+                }
+            }
+            drain();
+        }
+    }
+}
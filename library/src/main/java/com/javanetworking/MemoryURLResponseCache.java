@@ -0,0 +1,147 @@
+package com.javanetworking;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ {@link MemoryURLResponseCache} is a {@link URLResponseCache} keeping responses in memory, bounded by the total
+ number of bytes of the stored responses. The least recently used responses are evicted first.
+
+ Lookups finding a fresh response are counted as hits, all other lookups as misses.
+ */
+public class MemoryURLResponseCache implements URLResponseCache {
+
+    /**
+     The default maximum number of bytes of stored responses.
+     */
+    public static final long DEFAULT_MAX_BYTE_COUNT = 16 * 1024 * 1024;
+
+    private final long maxByteCount;
+
+    /**
+     The stored responses by URL, in access order.
+     */
+    private final LinkedHashMap<String, CachedURLResponse> responses;
+    private long byteCount;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     Creates a cache with {@code DEFAULT_MAX_BYTE_COUNT}.
+     */
+    public MemoryURLResponseCache() {
+        this(DEFAULT_MAX_BYTE_COUNT);
+    }
+
+    /**
+     Creates a cache.
+
+     @param maxByteCount The maximum number of bytes of stored responses. A larger response is not stored.
+     */
+    public MemoryURLResponseCache(long maxByteCount) {
+        if (maxByteCount < 0) {
+            throw new IllegalArgumentException("maxByteCount cannot be negative");
+        }
+        this.maxByteCount = maxByteCount;
+        this.responses = new LinkedHashMap<String, CachedURLResponse>(16, 0.75f, true);
+        this.byteCount = 0;
+    }
+
+    @Override
+    public synchronized CachedURLResponse cachedResponseForRequest(URLRequest request) {
+        CachedURLResponse response = this.responses.get(request.getURLString());
+        if (response != null && !response.matchesRequest(request)) {
+            response = null;
+        }
+
+        if (response != null && response.isFresh()) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+        return response;
+    }
+
+    @Override
+    public synchronized void storeCachedResponse(URLRequest request, CachedURLResponse response) {
+        this.remove(request.getURLString());
+
+        long responseByteCount = response.getByteCount();
+        if (responseByteCount > this.maxByteCount) {
+            return;
+        }
+
+        this.responses.put(request.getURLString(), response);
+        this.byteCount += responseByteCount;
+
+        Iterator<Map.Entry<String, CachedURLResponse>> leastRecentlyUsed = this.responses.entrySet().iterator();
+        while (this.byteCount > this.maxByteCount && leastRecentlyUsed.hasNext()) {
+            this.byteCount -= leastRecentlyUsed.next().getValue().getByteCount();
+            leastRecentlyUsed.remove();
+            this.evictionCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized void removeCachedResponse(URLRequest request) {
+        this.remove(request.getURLString());
+    }
+
+    /**
+     Removes all stored responses.
+     */
+    public synchronized void removeAllCachedResponses() {
+        this.responses.clear();
+        this.byteCount = 0;
+    }
+
+    private void remove(String urlString) {
+        CachedURLResponse response = this.responses.remove(urlString);
+        if (response != null) {
+            this.byteCount -= response.getByteCount();
+        }
+    }
+
+    public long getMaxByteCount() {
+        return this.maxByteCount;
+    }
+
+    /**
+     Returns the number of bytes of the stored responses.
+     */
+    public synchronized long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     Returns the number of stored responses.
+     */
+    public synchronized int getResponseCount() {
+        return this.responses.size();
+    }
+
+    /**
+     Returns the number of lookups that found a fresh response.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     Returns the number of lookups that found no response, or a stale one.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     Returns the number of responses evicted to stay within the maximum byte count.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+}
@@ -0,0 +1,243 @@
+package com.javanetworking;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ {@link MultipartFormDataBodyWriter} is a {@link URLRequest.HTTPBodyWriter} encoding parameters as a
+ `multipart/form-data` body while the request is sent.
+
+ {@link File} and {@link Path} values are sent as file parts, streamed from disk through a {@link FileChannel}.
+ `byte[]` values are sent as binary parts and {@link InputStream} values are streamed until they end. Any other
+ value is sent as a text part with its string value. Nested maps and lists are named like form URL parameters,
+ `key[nested]` and `key[]`.
+
+ The `Content-Length` is computed up front when the size of every part is known, so the body can be sent in fixed
+ length streaming mode. A body with an {@link InputStream} part is sent with chunked transfer encoding.
+ */
+public class MultipartFormDataBodyWriter implements URLRequest.HTTPBodyWriter {
+
+    private static final String CRLF = "\r\n";
+
+    private static final Random boundaryRandom = new Random();
+
+    /**
+     A form field. The value is a {@link Path}, `byte[]`, {@link InputStream} or text.
+     */
+    private static class Part {
+        final String name;
+        final Object value;
+
+        Part(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private final Charset charset;
+    private final String boundary;
+    private final List<Part> parts;
+
+    /**
+     Creates a writer for the parameters.
+
+     @param parameters A {@link Map} of the form fields, may be null.
+     @param charset The {@link Charset} of field names, file names and text values.
+     */
+    public MultipartFormDataBodyWriter(Map<String, Object> parameters, Charset charset) {
+        if (charset == null) {
+            throw new NullPointerException("charset cannot be null.");
+        }
+        this.charset = charset;
+        this.boundary = String.format("JavaNetworkingBoundary%016x%016x", boundaryRandom.nextLong(), boundaryRandom.nextLong());
+        this.parts = new ArrayList<Part>();
+
+        if (parameters != null) {
+            addParts(null, parameters);
+        }
+    }
+
+    /**
+     Returns the boundary separating the parts, used in the `Content-Type` request header.
+     */
+    public String getBoundary() {
+        return this.boundary;
+    }
+
+    /**
+     Returns the `Content-Type` of the body, including the boundary.
+     */
+    public String getContentType() {
+        return String.format("multipart/form-data; boundary=%s", this.boundary);
+    }
+
+    private void addParts(String key, Object value) {
+        if (value instanceof Map) {
+            // Parameter keys are strings, as in the parameters of a HTTPClient request
+            @SuppressWarnings("unchecked")
+            Map<String, ?> map = (Map<String, ?>) value;
+            for (Map.Entry<String, ?> entry : map.entrySet()) {
+                if (entry.getValue() != null) {
+                    addParts((key != null) ? String.format("%s[%s]", key, entry.getKey()) : entry.getKey(), entry.getValue());
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object nestedValue : (List<?>) value) {
+                addParts(String.format("%s[]", key), nestedValue);
+            }
+        } else if (value instanceof Set) {
+            for (Object object : (Set<?>) value) {
+                addParts(key, object);
+            }
+        } else if (value instanceof File) {
+            this.parts.add(new Part(key, ((File) value).toPath()));
+        } else if (value instanceof Path || value instanceof byte[] || value instanceof InputStream) {
+            this.parts.add(new Part(key, value));
+        } else {
+            this.parts.add(new Part(key, (value != null) ? value.toString() : ""));
+        }
+    }
+
+    /**
+     Returns the body length, or -1 if a part has no known size or a file size cannot be read.
+     */
+    @Override
+    public long getContentLength() {
+        long contentLength = 0;
+
+        for (Part part : this.parts) {
+            long length = partLength(part);
+            if (length == -1) {
+                return -1;
+            }
+            contentLength += partHeader(part).length + length + CRLF.length();
+        }
+        return contentLength + closingDelimiter().length;
+    }
+
+    private long partLength(Part part) {
+        if (part.value instanceof Path) {
+            try {
+                return Files.size((Path) part.value);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        if (part.value instanceof byte[]) {
+            return ((byte[]) part.value).length;
+        }
+        if (part.value instanceof InputStream) {
+            return -1;
+        }
+        return ((String) part.value).getBytes(this.charset).length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        byte[] crlf = CRLF.getBytes(this.charset);
+
+        for (Part part : this.parts) {
+            outputStream.write(partHeader(part));
+
+            if (part.value instanceof Path) {
+                writeFile((Path) part.value, outputStream);
+            } else if (part.value instanceof byte[]) {
+                outputStream.write((byte[]) part.value);
+            } else if (part.value instanceof InputStream) {
+                writeStream((InputStream) part.value, outputStream);
+            } else {
+                outputStream.write(((String) part.value).getBytes(this.charset));
+            }
+            outputStream.write(crlf);
+        }
+        outputStream.write(closingDelimiter());
+    }
+
+    private static void writeFile(Path path, OutputStream outputStream) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            // Not closed, closing it would close the connection stream
+            WritableByteChannel target = Channels.newChannel(outputStream);
+
+            long position = 0;
+            long size = channel.size();
+            while (position < size) {
+                long transferred = channel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    // Truncated while sending, the connection fails on the missing bytes
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeStream(InputStream is, OutputStream outputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = is.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private byte[] partHeader(Part part) {
+        StringBuilder header = new StringBuilder();
+        header.append("--").append(this.boundary).append(CRLF);
+        header.append("Content-Disposition: form-data; name=\"").append(escapeQuotedString(part.name)).append('"');
+
+        if (part.value instanceof Path) {
+            Path fileName = ((Path) part.value).getFileName();
+            String name = (fileName != null) ? fileName.toString() : "file";
+            header.append("; filename=\"").append(escapeQuotedString(name)).append('"').append(CRLF);
+            header.append("Content-Type: ").append(contentTypeForFileName(name)).append(CRLF);
+        } else if (part.value instanceof byte[] || part.value instanceof InputStream) {
+            header.append("; filename=\"").append(escapeQuotedString(part.name)).append('"').append(CRLF);
+            header.append("Content-Type: application/octet-stream").append(CRLF);
+        } else {
+            header.append(CRLF);
+        }
+        header.append(CRLF);
+
+        return header.toString().getBytes(this.charset);
+    }
+
+    private byte[] closingDelimiter() {
+        return String.format("--%s--%s", this.boundary, CRLF).getBytes(this.charset);
+    }
+
+    private static String contentTypeForFileName(String fileName) {
+        String contentType = URLConnection.guessContentTypeFromName(fileName);
+        return (contentType != null) ? contentType : "application/octet-stream";
+    }
+
+    /**
+     Escapes a field or file name the way browsers do, a quote or line break would end the header value.
+     */
+    private static String escapeQuotedString(String string) {
+        if (string == null) {
+            return "";
+        }
+        return string.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+}
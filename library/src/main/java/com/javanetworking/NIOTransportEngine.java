@@ -0,0 +1,997 @@
+package com.javanetworking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ {@link NIOTransportEngine} sends HTTP/1.1 requests over non-blocking {@link SocketChannel}s. A small number of
+ I/O threads, each running a selector loop, multiplex all connections, so a request in flight does not hold a
+ thread while it waits for the network.
+
+ Set an engine on a {@link URLRequest} with {@code setTransportEngine()} to send it through the engine. Without a
+ {@link ConnectionPool} each request uses its own connection, which is closed when the response is complete. With
+ a pool set on the request, connections are kept alive and reused. Only `http` URLs are supported.
+
+ {@link ResponseHandler} methods are called on an I/O thread and should return quickly.
+ */
+public class NIOTransportEngine {
+
+    /**
+     {@link ResponseHandler} receives the response of a request sent by a {@link NIOTransportEngine}.
+
+     Either {@code didFinish()} or {@code didFail()} is called exactly once per request.
+     */
+    public interface ResponseHandler {
+        void didReceiveResponse(int statusCode, Map<String, List<String>> headerFields);
+        /**
+         Called with the next chunk of the response body. The buffer is only valid during the call.
+         */
+        void didReceiveData(ByteBuffer data);
+        void didFinish();
+        void didFail(IOException e);
+    }
+
+    /**
+     The shared engine used when no other engine is given.
+     */
+    private static NIOTransportEngine defaultEngine;
+
+    /**
+     Returns the shared {@link NIOTransportEngine} with a single I/O thread.
+     */
+    public static synchronized NIOTransportEngine getDefaultEngine() {
+        if (defaultEngine == null) {
+            defaultEngine = new NIOTransportEngine(1);
+        }
+        return defaultEngine;
+    }
+
+    private static final Charset HEADER_ENCODING = Charset.forName("ISO-8859-1");
+    private static final int READ_BUFFER_LENGTH = 64 * 1024;
+    private static final long MAXIMUM_SELECT_MILLIS = 1000;
+
+    /**
+     The number used when naming I/O threads.
+     */
+    private static final AtomicInteger engineNumber = new AtomicInteger(1);
+
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop;
+
+    /**
+     Creates an engine with {@code ioThreadCount} I/O threads. The threads are started when the first request
+     is sent.
+
+     @param ioThreadCount The number of selector loop threads.
+     */
+    public NIOTransportEngine(int ioThreadCount) {
+        if (ioThreadCount < 1) {
+            throw new IllegalArgumentException("ioThreadCount must be at least 1");
+        }
+
+        int number = engineNumber.getAndIncrement();
+
+        this.loops = new SelectorLoop[ioThreadCount];
+        for (int i=0; i<ioThreadCount; i++) {
+            this.loops[i] = new SelectorLoop(String.format("NIOTransportEngine-%d-io-%d", number, i+1));
+        }
+        this.nextLoop = new AtomicInteger();
+    }
+
+    /**
+     Sends a request and reports the response to a {@link ResponseHandler}. Returns immediately, the host name
+     is resolved on the calling thread.
+
+     @param request The {@link URLRequest} to send.
+     @param handler The {@link ResponseHandler} receiving the response.
+     */
+    public void execute(URLRequest request, ResponseHandler handler) {
+        final Exchange exchange;
+        try {
+            exchange = new Exchange(request, handler);
+        } catch (IOException e) {
+            handler.didFail(e);
+            return;
+        }
+
+        final SelectorLoop loop = (exchange.pool != null) ? loopForPoolKey(exchange.poolKey) : nextLoop();
+        loop.submit(new Task() {
+            @Override
+            void run() {
+                loop.startExchange(exchange);
+            }
+            @Override
+            void fail(IOException e) {
+                exchange.fail(e);
+            }
+        });
+    }
+
+    /**
+     Opens connections to the host of a URL and adds them to a {@link ConnectionPool} as idle connections, within
+     the connection limits of the pool. Returns immediately, the connections are opened by an I/O thread.
+
+     @param pool The {@link ConnectionPool} receiving the connections.
+     @param urlString A URL with the host to connect to.
+     @param count The number of connections to open.
+     */
+    public void prewarm(final ConnectionPool pool, String urlString, final int count) throws IOException {
+        if (pool == null) {
+            throw new NullPointerException("pool cannot be null");
+        }
+
+        final InetSocketAddress address = addressForURL(new URL(urlString));
+        final String poolKey = poolKeyForAddress(address);
+
+        final SelectorLoop loop = loopForPoolKey(poolKey);
+        loop.submit(new Task() {
+            @Override
+            void run() {
+                for (int i=0; i<count && pool.getIdleConnectionCount(poolKey) < pool.getMaxIdleConnectionsPerHost(); i++) {
+                    if (!pool.reserveConnection(poolKey)) {
+                        break;
+                    }
+                    try {
+                        loop.openConnection(address, pool, poolKey, null);
+                    } catch (IOException e) {
+                        pool.connectionClosed(poolKey);
+                        break;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     Closes the engine. Requests in flight fail, later requests fail immediately.
+     */
+    public void close() {
+        for (SelectorLoop loop : this.loops) {
+            loop.close();
+        }
+    }
+
+    private SelectorLoop nextLoop() {
+        return this.loops[(this.nextLoop.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length];
+    }
+
+    /**
+     Pooled connections to a host are all handled by the same loop, so they can be shared between its exchanges.
+     */
+    private SelectorLoop loopForPoolKey(String poolKey) {
+        return this.loops[(poolKey.hashCode() & Integer.MAX_VALUE) % this.loops.length];
+    }
+
+    private static InetSocketAddress addressForURL(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IOException(String.format("NIOTransportEngine does not support %s URLs", url.getProtocol()));
+        }
+
+        int port = (url.getPort() != -1) ? url.getPort() : url.getDefaultPort();
+        InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+        if (address.isUnresolved()) {
+            throw new IOException(String.format("Unknown host %s", url.getHost()));
+        }
+        return address;
+    }
+
+    private static String poolKeyForAddress(InetSocketAddress address) {
+        return String.format("%s:%d", address.getHostString(), address.getPort());
+    }
+
+    /**
+     Work submitted to an I/O thread.
+     */
+    private static abstract class Task {
+        abstract void run();
+
+        /**
+         Called instead of {@code run()} when the loop is closed.
+         */
+        void fail(IOException e) {}
+    }
+
+    /**
+     A selector and the I/O thread running it.
+     */
+    static class SelectorLoop implements Runnable {
+
+        private final String threadName;
+        private final Queue<Task> pendingTasks;
+        private final ByteBuffer readBuffer;
+        /**
+         The hosts of each pool that exchanges of this loop waited for. Only used on the I/O thread.
+         */
+        private final Map<ConnectionPool, Set<String>> waitingPoolKeys;
+        private Selector selector;
+        private Thread thread;
+        private boolean closed;
+
+        SelectorLoop(String threadName) {
+            this.threadName = threadName;
+            this.pendingTasks = new ConcurrentLinkedQueue<Task>();
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_LENGTH);
+            this.waitingPoolKeys = new HashMap<ConnectionPool, Set<String>>();
+        }
+
+        void submit(Task task) {
+            Selector selector;
+            synchronized (this) {
+                if (this.closed) {
+                    task.fail(new IOException("Transport engine closed"));
+                    return;
+                }
+                if (this.selector == null) {
+                    try {
+                        this.selector = Selector.open();
+                    } catch (IOException e) {
+                        task.fail(e);
+                        return;
+                    }
+                    this.thread = new Thread(this, this.threadName);
+                    this.thread.setDaemon(true);
+                    this.thread.start();
+                }
+                selector = this.selector;
+
+                this.pendingTasks.add(task);
+            }
+            selector.wakeup();
+        }
+
+        synchronized void close() {
+            this.closed = true;
+            if (this.selector != null) {
+                this.selector.wakeup();
+            }
+        }
+
+        private synchronized boolean isClosed() {
+            return this.closed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isClosed()) {
+                    this.selector.select(selectTimeout());
+
+                    runPendingTasks();
+
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            connection.handle(key, this.readBuffer);
+                        } catch (IOException e) {
+                            connection.fail(e);
+                        } catch (RuntimeException e) {
+                            connection.fail(new IOException(e));
+                        }
+                    }
+
+                    expireTimedOutConnections();
+                }
+            } catch (IOException e) {
+                // Selector failed, every connection still registered fails below
+            } catch (ClosedSelectorException e) {
+                // Closed while selecting
+            }
+
+            synchronized (this) {
+                this.closed = true;
+            }
+
+            IOException closedException = new IOException("Transport engine closed");
+            for (SelectionKey key : this.selector.keys()) {
+                ((Connection) key.attachment()).fail(closedException);
+            }
+            Task task;
+            while ((task = this.pendingTasks.poll()) != null) {
+                task.fail(closedException);
+            }
+            // A closed connection only starts one waiting exchange, fail every exchange still waiting for one
+            for (Map.Entry<ConnectionPool, Set<String>> entry : this.waitingPoolKeys.entrySet()) {
+                for (String poolKey : entry.getValue()) {
+                    for (Exchange exchange : entry.getKey().removeWaitingExchanges(poolKey)) {
+                        exchange.fail(closedException);
+                    }
+                }
+            }
+            this.waitingPoolKeys.clear();
+            try {
+                this.selector.close();
+            } catch (IOException e) {}
+        }
+
+        private void runPendingTasks() {
+            Task task;
+            while ((task = this.pendingTasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        /**
+         Starts an exchange on an idle pooled connection or a new connection. When the pool has no connection
+         left for the host, the exchange waits for one to be released.
+         */
+        void startExchange(Exchange exchange) {
+            if (isClosed()) {
+                exchange.fail(new IOException("Transport engine closed"));
+                return;
+            }
+
+            ConnectionPool pool = exchange.pool;
+            if (pool != null) {
+                // A retried exchange always gets a new connection, another idle one may be just as stale
+                Connection connection = exchange.retried ? null : pool.takeIdleConnection(exchange.poolKey, this);
+                if (connection != null) {
+                    pool.recordHit();
+                    connection.assign(exchange);
+                    return;
+                }
+                if (!pool.reserveConnection(exchange.poolKey)) {
+                    pool.addWaitingExchange(exchange.poolKey, exchange);
+                    addWaitingPoolKey(pool, exchange.poolKey);
+                    return;
+                }
+                pool.recordMiss();
+            }
+
+            try {
+                openConnection(exchange.address, pool, exchange.poolKey, exchange);
+            } catch (IOException e) {
+                if (pool != null) {
+                    pool.connectionClosed(exchange.poolKey);
+                }
+                exchange.fail(e);
+            }
+        }
+
+        private void addWaitingPoolKey(ConnectionPool pool, String poolKey) {
+            Set<String> poolKeys = this.waitingPoolKeys.get(pool);
+            if (poolKeys == null) {
+                poolKeys = new HashSet<String>();
+                this.waitingPoolKeys.put(pool, poolKeys);
+            }
+            poolKeys.add(poolKey);
+        }
+
+        /**
+         Opens a non-blocking connection for an exchange. A connection opened without an exchange becomes idle
+         once connected.
+         */
+        void openConnection(InetSocketAddress address, ConnectionPool pool, String poolKey, Exchange exchange) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+
+                Connection connection = new Connection(this, channel, pool, poolKey);
+                connection.connected = channel.connect(address);
+                connection.key = channel.register(this.selector, connection.connected ? 0 : SelectionKey.OP_CONNECT, connection);
+                if (exchange != null) {
+                    connection.assign(exchange);
+                } else if (connection.connected) {
+                    connection.release();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private long selectTimeout() {
+            long now = System.nanoTime();
+            long timeout = MAXIMUM_SELECT_MILLIS;
+
+            for (SelectionKey key : this.selector.keys()) {
+                long deadline = ((Connection) key.attachment()).deadline;
+                if (deadline != 0) {
+                    timeout = Math.min(timeout, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1));
+                }
+            }
+            return timeout;
+        }
+
+        private void expireTimedOutConnections() {
+            long now = System.nanoTime();
+
+            for (SelectionKey key : this.selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.deadline != 0 && now - connection.deadline >= 0) {
+                    connection.expire();
+                }
+            }
+        }
+    }
+
+    /**
+     A connection to a host, running an exchange or idle in a {@link ConnectionPool}. Only used on the I/O
+     thread of its loop.
+     */
+    static class Connection {
+
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private final ConnectionPool pool;
+        private final String poolKey;
+
+        private SelectionKey key;
+        private Exchange exchange;
+        private boolean connected;
+        private boolean reused;
+        private boolean closed;
+        private long deadline;
+
+        Connection(SelectorLoop loop, SocketChannel channel, ConnectionPool pool, String poolKey) {
+            this.loop = loop;
+            this.channel = channel;
+            this.pool = pool;
+            this.poolKey = poolKey;
+        }
+
+        boolean isOnLoop(SelectorLoop loop) {
+            return this.loop == loop;
+        }
+
+        void assign(Exchange exchange) {
+            this.exchange = exchange;
+            exchange.connection = this;
+            exchange.restartTimeout();
+
+            if (this.connected) {
+                exchange.state = ExchangeState.Writing;
+                this.key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        void handle(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (key.isConnectable()) {
+                if (!this.channel.finishConnect()) {
+                    return;
+                }
+                this.connected = true;
+
+                if (this.exchange != null) {
+                    assign(this.exchange);
+                } else {
+                    key.interestOps(0);
+                    release();
+                }
+                return;
+            }
+
+            if (this.exchange == null) {
+                // An idle connection only becomes readable when the server closes it
+                if (key.isReadable()) {
+                    evict();
+                }
+                return;
+            }
+
+            if (key.isWritable()) {
+                this.exchange.write(this.channel, key);
+            }
+
+            if (key.isValid() && key.isReadable()) {
+                readBuffer.clear();
+                int length = this.channel.read(readBuffer);
+
+                if (length == -1) {
+                    this.exchange.endOfStream();
+                    return;
+                }
+
+                readBuffer.flip();
+                this.exchange.process(readBuffer);
+            }
+        }
+
+        /**
+         Hands the connection to the next exchange waiting for one, returns it to the pool, or closes it when
+         the pool is full.
+         */
+        void release() {
+            this.exchange = null;
+            this.deadline = 0;
+
+            if (this.pool == null) {
+                close();
+                return;
+            }
+
+            Exchange waiting = this.pool.pollWaitingExchange(this.poolKey);
+            if (waiting != null) {
+                this.pool.recordHit();
+                this.reused = true;
+                assign(waiting);
+                return;
+            }
+
+            if (this.pool.addIdleConnection(this.poolKey, this)) {
+                this.reused = true;
+                this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.pool.getKeepAliveMillis());
+                this.key.interestOps(SelectionKey.OP_READ);
+            } else {
+                close();
+                this.pool.recordEviction();
+            }
+        }
+
+        /**
+         Closes an idle connection and removes it from its pool.
+         */
+        void evict() {
+            boolean wasIdle = this.pool != null && this.pool.removeIdleConnection(this.poolKey, this);
+            close();
+            // Counted once closed, so an eviction is never observed with the connection still counted
+            if (wasIdle) {
+                this.pool.recordEviction();
+            }
+        }
+
+        void expire() {
+            if (this.exchange != null) {
+                this.exchange.fail(new SocketTimeoutException(this.connected ? "Read timed out" : "connect timed out"));
+            } else {
+                evict();
+            }
+        }
+
+        void fail(IOException e) {
+            if (this.exchange != null) {
+                this.exchange.fail(e);
+            } else {
+                evict();
+            }
+        }
+
+        /**
+         Closes the channel. The next exchange waiting for a connection to the host may then open a new one.
+         */
+        void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.exchange = null;
+            this.deadline = 0;
+
+            try {
+                this.channel.close();
+            } catch (IOException e) {}
+
+            if (this.pool != null) {
+                this.pool.connectionClosed(this.poolKey);
+
+                Exchange waiting = this.pool.pollWaitingExchange(this.poolKey);
+                if (waiting != null) {
+                    this.loop.startExchange(waiting);
+                }
+            }
+        }
+    }
+
+    private enum ExchangeState {
+        Connecting,
+        Writing,
+        ReadingHeaders,
+        ReadingBody,
+        ReadingChunkSize,
+        ReadingChunk,
+        ReadingChunkEnd,
+        ReadingTrailers,
+        ReadingUntilClose,
+        Done
+    }
+
+    /**
+     A single request and response.
+     */
+    static class Exchange {
+
+        private final ResponseHandler handler;
+        private final InetSocketAddress address;
+        private final ByteBuffer[] requestBuffers;
+        private final boolean expectsBody;
+        private final boolean idempotent;
+        private final long connectTimeoutNanos;
+        private final long readTimeoutNanos;
+        private final ConnectionPool pool;
+        private final String poolKey;
+
+        private Connection connection;
+        private ExchangeState state;
+        private boolean retried;
+        private boolean receivedData;
+        private boolean keepAlive;
+
+        private ByteArrayOutputStream lineBuffer;
+        private Map<String, List<String>> headerFields;
+        private int statusCode;
+        private long remaining;
+
+        Exchange(URLRequest request, ResponseHandler handler) throws IOException {
+            this.handler = handler;
+
+            if (request.getHTTPBodyWriter() != null) {
+                throw new IOException("NIOTransportEngine does not support streamed request bodies");
+            }
+
+            URL url = new URL(request.getURLString());
+            this.address = addressForURL(url);
+
+            this.pool = request.getConnectionPool();
+            this.poolKey = poolKeyForAddress(this.address);
+
+            String method = request.getRequestMethod();
+            this.expectsBody = !method.equalsIgnoreCase("HEAD");
+            this.idempotent = isIdempotentMethod(method);
+            this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(request.getConnectTimeout());
+            this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(request.getReadTimeout());
+
+            this.requestBuffers = requestBuffers(request, url, method, this.pool != null);
+            this.state = ExchangeState.Connecting;
+            this.lineBuffer = new ByteArrayOutputStream(256);
+        }
+
+        /**
+         Returns whether sending a request with the method twice has the same effect as sending it once.
+         */
+        private static boolean isIdempotentMethod(String method) {
+            return method.equalsIgnoreCase("GET") || method.equalsIgnoreCase("HEAD") || method.equalsIgnoreCase("PUT") || method.equalsIgnoreCase("DELETE") || method.equalsIgnoreCase("OPTIONS");
+        }
+
+        /**
+         Serializes the request line, headers and body.
+         */
+        private static ByteBuffer[] requestBuffers(URLRequest request, URL url, String method, boolean keepAlive) {
+            String path = url.getFile();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+
+            StringBuilder head = new StringBuilder();
+            head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            head.append("Host: ").append(url.getHost());
+            if (url.getPort() != -1) {
+                head.append(':').append(url.getPort());
+            }
+            head.append("\r\n");
+
+            boolean hasAccept = false;
+            for (Map.Entry<String, String> property : request.getRequestProperties().entrySet()) {
+                String name = property.getKey();
+                if (name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Content-Length")) {
+                    continue;
+                }
+                if (name.equalsIgnoreCase("Accept")) {
+                    hasAccept = true;
+                }
+                head.append(name).append(": ").append(property.getValue()).append("\r\n");
+            }
+            if (!hasAccept) {
+                head.append("Accept: */*\r\n");
+            }
+
+            byte[] body = request.getHTTPBody();
+            if (body != null) {
+                head.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            // HTTP/1.1 connections are persistent by default
+            if (!keepAlive) {
+                head.append("Connection: close\r\n");
+            }
+            head.append("\r\n");
+
+            ByteBuffer headBuffer = ByteBuffer.wrap(head.toString().getBytes(HEADER_ENCODING));
+            if (body == null) {
+                return new ByteBuffer[] { headBuffer };
+            }
+            return new ByteBuffer[] { headBuffer, ByteBuffer.wrap(body) };
+        }
+
+        private void restartTimeout() {
+            long timeoutNanos = this.connection.connected ? this.readTimeoutNanos : this.connectTimeoutNanos;
+            this.connection.deadline = (timeoutNanos > 0) ? System.nanoTime() + timeoutNanos : 0;
+        }
+
+        private void write(SocketChannel channel, SelectionKey key) throws IOException {
+            channel.write(this.requestBuffers);
+            restartTimeout();
+
+            if (!this.requestBuffers[this.requestBuffers.length-1].hasRemaining()) {
+                this.state = ExchangeState.ReadingHeaders;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         Parses received bytes according to the current state until the buffer is consumed.
+         */
+        private void process(ByteBuffer buffer) throws IOException {
+            this.receivedData = true;
+            restartTimeout();
+
+            while (buffer.hasRemaining() && this.state != ExchangeState.Done) {
+                switch (this.state) {
+                    case ReadingHeaders:
+                    case ReadingTrailers:
+                        String line = readLine(buffer);
+                        if (line != null) {
+                            if (this.state == ExchangeState.ReadingHeaders) {
+                                headerLine(line);
+                            } else if (line.isEmpty()) {
+                                finish();
+                            }
+                        }
+                        break;
+                    case ReadingChunkSize:
+                        String sizeLine = readLine(buffer);
+                        if (sizeLine != null) {
+                            chunkSizeLine(sizeLine);
+                        }
+                        break;
+                    case ReadingBody:
+                    case ReadingChunk:
+                        deliver(buffer, (int) Math.min(this.remaining, buffer.remaining()));
+                        if (this.remaining == 0) {
+                            if (this.state == ExchangeState.ReadingBody) {
+                                finish();
+                            } else {
+                                this.state = ExchangeState.ReadingChunkEnd;
+                            }
+                        }
+                        break;
+                    case ReadingChunkEnd:
+                        String chunkEnd = readLine(buffer);
+                        if (chunkEnd != null) {
+                            if (!chunkEnd.isEmpty()) {
+                                throw new IOException("Malformed chunked response");
+                            }
+                            this.state = ExchangeState.ReadingChunkSize;
+                        }
+                        break;
+                    case ReadingUntilClose:
+                        deliver(buffer, buffer.remaining());
+                        break;
+                    default:
+                        return;
+                }
+            }
+        }
+
+        /**
+         Reads a CRLF terminated line, returns null if the line is not complete yet.
+         */
+        private String readLine(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    byte[] bytes = this.lineBuffer.toByteArray();
+                    this.lineBuffer.reset();
+
+                    int length = bytes.length;
+                    if (length > 0 && bytes[length-1] == '\r') {
+                        length--;
+                    }
+                    return new String(bytes, 0, length, HEADER_ENCODING);
+                }
+                this.lineBuffer.write(b);
+
+                if (this.lineBuffer.size() > 64 * 1024) {
+                    throw new IOException("Response header line too long");
+                }
+            }
+            return null;
+        }
+
+        private void headerLine(String line) throws IOException {
+            if (this.headerFields == null) {
+                // Status line, e.g. `HTTP/1.1 200 OK`
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                    throw new IOException(String.format("Malformed status line: %s", line));
+                }
+                try {
+                    this.statusCode = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Malformed status line: %s", line));
+                }
+                this.keepAlive = parts[0].equals("HTTP/1.1");
+
+                this.headerFields = new LinkedHashMap<String, List<String>>();
+                addHeaderField(null, line);
+                return;
+            }
+
+            if (!line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    addHeaderField(line.substring(0, colon).trim(), line.substring(colon+1).trim());
+                }
+                return;
+            }
+
+            // End of headers, an informational response is followed by the final response
+            if (this.statusCode / 100 == 1) {
+                this.headerFields = null;
+                return;
+            }
+
+            String connectionHeader = headerField("Connection");
+            if (connectionHeader != null) {
+                if (connectionHeader.equalsIgnoreCase("close")) {
+                    this.keepAlive = false;
+                } else if (connectionHeader.equalsIgnoreCase("keep-alive")) {
+                    this.keepAlive = true;
+                }
+            }
+
+            this.handler.didReceiveResponse(this.statusCode, this.headerFields);
+
+            String transferEncoding = headerField("Transfer-Encoding");
+            String contentLength = headerField("Content-Length");
+
+            if (!this.expectsBody || this.statusCode == 204 || this.statusCode == 304) {
+                finish();
+            } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                this.state = ExchangeState.ReadingChunkSize;
+            } else if (contentLength != null) {
+                try {
+                    this.remaining = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Malformed Content-Length: %s", contentLength));
+                }
+                this.state = ExchangeState.ReadingBody;
+                if (this.remaining == 0) {
+                    finish();
+                }
+            } else {
+                // The body ends when the server closes the connection, which cannot be reused
+                this.keepAlive = false;
+                this.state = ExchangeState.ReadingUntilClose;
+            }
+        }
+
+        private void chunkSizeLine(String line) throws IOException {
+            int extension = line.indexOf(';');
+            String size = (extension != -1 ? line.substring(0, extension) : line).trim();
+            try {
+                this.remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("Malformed chunk size: %s", line));
+            }
+            this.state = (this.remaining == 0) ? ExchangeState.ReadingTrailers : ExchangeState.ReadingChunk;
+        }
+
+        private void addHeaderField(String name, String value) {
+            List<String> values = this.headerFields.get(name);
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                this.headerFields.put(name, values);
+            }
+            values.add(value);
+        }
+
+        private String headerField(String name) {
+            for (Map.Entry<String, List<String>> field : this.headerFields.entrySet()) {
+                if (name.equalsIgnoreCase(field.getKey())) {
+                    return field.getValue().get(field.getValue().size()-1);
+                }
+            }
+            return null;
+        }
+
+        /**
+         Passes the next {@code length} bytes of the buffer to the handler.
+         */
+        private void deliver(ByteBuffer buffer, int length) {
+            ByteBuffer data = buffer.duplicate();
+            data.limit(data.position() + length);
+            buffer.position(buffer.position() + length);
+
+            if (this.state != ExchangeState.ReadingUntilClose) {
+                this.remaining -= length;
+            }
+            this.handler.didReceiveData(data);
+        }
+
+        private void endOfStream() throws IOException {
+            if (this.state == ExchangeState.ReadingUntilClose) {
+                finish();
+            } else {
+                throw new EOFException("Unexpected end of stream");
+            }
+        }
+
+        private void finish() {
+            if (this.state == ExchangeState.Done) {
+                return;
+            }
+            this.state = ExchangeState.Done;
+
+            if (this.keepAlive) {
+                this.connection.release();
+            } else {
+                this.connection.close();
+            }
+
+            try {
+                this.handler.didFinish();
+            } catch (RuntimeException e) {
+                // A failing handler must not stop the I/O thread
+            }
+        }
+
+        void fail(IOException e) {
+            if (this.state == ExchangeState.Done) {
+                return;
+            }
+
+            Connection connection = this.connection;
+            if (connection != null) {
+                connection.close();
+
+                // The server may have closed a reused connection while it was idle, send the request once more. A
+                // request that is not idempotent, e.g. a POST, is only sent again if it was not completely written,
+                // the server may have processed it before closing the connection.
+                boolean written = (this.state != ExchangeState.Connecting && this.state != ExchangeState.Writing);
+                if (connection.reused && !this.receivedData && !this.retried && (this.idempotent || !written) && !(e instanceof SocketTimeoutException)) {
+                    retry(connection.loop);
+                    return;
+                }
+            }
+            this.state = ExchangeState.Done;
+
+            try {
+                this.handler.didFail(e);
+            } catch (RuntimeException exception) {
+                // A failing handler must not stop the I/O thread
+            }
+        }
+
+        private void retry(SelectorLoop loop) {
+            this.pool.recordStaleRetry();
+
+            this.retried = true;
+            this.connection = null;
+            this.state = ExchangeState.Connecting;
+            this.lineBuffer.reset();
+            for (ByteBuffer buffer : this.requestBuffers) {
+                buffer.rewind();
+            }
+
+            loop.startExchange(this);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.URLConnectionOperation.URLDataConsumer;
+
+/**
+ {@link ResponseBodyPublisher} publishes the response body of an operation as {@link ByteBuffer} chunks to a single
+ {@link Flow.Subscriber}, see {@code HTTPClient.bodyPublisherWithMethodPathAndParameters()}.
+
+ The operation is enqueued when the subscriber subscribes. Each chunk is read from the connection only once the
+ subscriber requested it, the worker waits for demand in between and is held until the body is complete. A
+ subscriber that stops requesting therefore stops the transfer, the unread data stays in the socket buffers and the
+ server is throttled by TCP flow control. The subscriber owns the chunks it receives. Cancelling the subscription
+ cancels the operation and closes the connection.
+
+ Chunks are at most 16 KB. The subscriber completes when the body is complete, and fails with the failure of the
+ operation, e.g. the {@link Error} of an unacceptable response code.
+ */
+public class ResponseBodyPublisher implements Flow.Publisher<ByteBuffer> {
+
+    /**
+     The maximum length of a published chunk.
+     */
+    private static final int CHUNK_LENGTH = 16 * 1024;
+
+    /**
+     The interval in milliseconds at which a worker waiting for demand checks whether the operation was cancelled,
+     e.g. by its total timeout or by its operation queue.
+     */
+    private static final long CANCELLATION_CHECK_MILLIS = 100;
+
+    private final URLConnectionOperation operation;
+    private final Runnable start;
+
+    /**
+     The subscriber, guarded by this.
+     */
+    private Flow.Subscriber<? super ByteBuffer> subscriber;
+
+    /**
+     The number of chunks requested and not yet published, guarded by this.
+     */
+    private long demand;
+
+    /**
+     A boolean value indicating if the subscription was cancelled or completed, guarded by this.
+     */
+    private boolean done;
+
+    /**
+     Creates a publisher for an operation, receiving the operations response body. The operation must complete
+     through the {@link HTTPCompletion} returned by {@code completion()}.
+
+     @param operation The operation sending the request.
+     @param start Starts the operation when the subscriber subscribes.
+     */
+    ResponseBodyPublisher(URLConnectionOperation operation, Runnable start) {
+        this.operation = operation;
+        this.start = start;
+
+        operation.setDataConsumer(new URLDataConsumer() {
+            @Override
+            public void didReceiveResponse(URLRequest urlRequest) throws IOException {}
+
+            @Override
+            public void didReceiveData(URLRequest urlRequest, ByteBuffer data) throws IOException {
+                while (data.hasRemaining()) {
+                    int length = Math.min(data.remaining(), CHUNK_LENGTH);
+                    ByteBuffer chunk = ByteBuffer.allocate(length);
+                    ByteBuffer source = data.duplicate();
+                    source.limit(source.position() + length);
+                    chunk.put(source);
+                    chunk.flip();
+                    data.position(data.position() + length);
+
+                    publish(chunk);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber cannot be null.");
+        }
+
+        boolean subscribed;
+        synchronized (this) {
+            subscribed = (this.subscriber != null);
+            if (!subscribed) {
+                this.subscriber = subscriber;
+            }
+        }
+
+        if (subscribed) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("ResponseBodyPublisher allows one subscriber only"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    Flow.Subscriber<? super ByteBuffer> subscriber = cancelOperation();
+                    if (subscriber != null) {
+                        subscriber.onError(new IllegalArgumentException("Subscription request must be positive"));
+                    }
+                    return;
+                }
+                synchronized (ResponseBodyPublisher.this) {
+                    demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                    ResponseBodyPublisher.this.notifyAll();
+                }
+            }
+            @Override
+            public void cancel() {
+                cancelOperation();
+            }
+        });
+
+        this.start.run();
+    }
+
+    /**
+     Returns the {@link HTTPCompletion} of the operation, completing the subscriber.
+     */
+    HTTPCompletion completion() {
+        return new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                Flow.Subscriber<? super ByteBuffer> subscriber = terminate();
+                if (subscriber != null) {
+                    subscriber.onError(t);
+                }
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                Flow.Subscriber<? super ByteBuffer> subscriber = terminate();
+                if (subscriber != null) {
+                    subscriber.onComplete();
+                }
+            }
+        };
+    }
+
+    /**
+     Waits until the subscriber requested a chunk and publishes it, on the worker executing the operation. Stops
+     waiting when the subscription is cancelled or the operation is cancelled, which closes the connection but does
+     not wake the worker.
+     */
+    private void publish(ByteBuffer chunk) throws IOException {
+        Flow.Subscriber<? super ByteBuffer> subscriber;
+
+        synchronized (this) {
+            while (this.demand == 0 && !this.done && !this.operation.isCancelled()) {
+                try {
+                    this.wait(CANCELLATION_CHECK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for subscriber demand");
+                }
+            }
+            if (this.done || this.operation.isCancelled()) {
+                throw new IOException("Response body subscription cancelled");
+            }
+            this.demand--;
+            subscriber = this.subscriber;
+        }
+
+        subscriber.onNext(chunk);
+    }
+
+    /**
+     Cancels the operation, unless the subscription is done.
+
+     @return The subscriber, or null if the subscription was already done.
+     */
+    private Flow.Subscriber<? super ByteBuffer> cancelOperation() {
+        Flow.Subscriber<? super ByteBuffer> subscriber = terminate();
+        if (subscriber != null) {
+            this.operation.cancel();
+        }
+        return subscriber;
+    }
+
+    /**
+     Marks the subscription as done and wakes a waiting worker.
+
+     @return The subscriber to be signalled, or null if the subscription was already done.
+     */
+    private synchronized Flow.Subscriber<? super ByteBuffer> terminate() {
+        if (this.done) {
+            return null;
+        }
+        this.done = true;
+        this.notifyAll();
+        return this.subscriber;
+    }
+}
@@ -0,0 +1,220 @@
+package com.javanetworking;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.URLConnectionOperation.URLDataConsumer;
+import com.operationqueue.OperationQueue;
+
+/**
+ {@link SegmentedDownload} downloads a resource to a file with several concurrent `Range` requests, see
+ {@code HTTPClient.downloadFile()}.
+
+ A `HEAD` request finds the resource length. If the server sends `Accept-Ranges: bytes` the file is
+ preallocated and each segment is written at its offset as it arrives. Otherwise the resource is downloaded
+ with a single {@link FileDownloadURLRequestOperation}. The `HEAD` request and the segments ask for
+ `Accept-Encoding: identity`, so the length and the ranges count the bytes written to the file.
+
+ Segments execute on the clients {@link OperationQueue} if it executes operations concurrently. The default client
+ queue executes one operation at a time, the segments then execute on their own {@link WorkerOperationQueue}, like
+ the requests of a {@link HTTPRequestBatch}. The first failing segment cancels the others, and the incomplete file
+ is deleted.
+ */
+class SegmentedDownload {
+
+    private final HTTPClient client;
+    private final String path;
+    private final Path destination;
+    private final int segmentCount;
+    private final HTTPCompletion completion;
+
+    private URLRequest headRequest;
+    private FileChannel fileChannel;
+
+    /**
+     The segment operations, the number of segments not yet finished and the first failure, guarded by this.
+     */
+    private HTTPURLRequestOperation[] operations;
+    private int remainingSegments;
+    private Throwable error;
+
+    SegmentedDownload(HTTPClient client, String path, Path destination, int segmentCount, HTTPCompletion completion) {
+        this.client = client;
+        this.path = path;
+        this.destination = destination;
+        this.segmentCount = segmentCount;
+        this.completion = completion;
+    }
+
+    void start() {
+        this.headRequest = this.client.connectionWithMethodPathAndParameters("HEAD", this.path, null);
+        this.headRequest.setRequestProperty("Accept-Encoding", "identity");
+
+        this.client.prepareHTTPURLRequestOperationForExecution(HTTPURLRequestOperation.operationWithURLRequest(this.headRequest, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                downloadWithSingleRequest();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                String acceptRanges = request.getHeaderField("Accept-Ranges");
+                long length = contentLength(request.getHeaderField("Content-Length"));
+
+                if (segmentCount > 1 && length > 1 && acceptRanges != null && acceptRanges.toLowerCase().contains("bytes")) {
+                    downloadSegments(length);
+                } else {
+                    downloadWithSingleRequest();
+                }
+            }
+        }));
+    }
+
+    private static long contentLength(String contentLength) {
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void downloadWithSingleRequest() {
+        URLRequest request = this.client.connectionWithMethodPathAndParameters("GET", this.path, null);
+        this.client.prepareHTTPURLRequestOperationForExecution(FileDownloadURLRequestOperation.operationWithURLRequest(request, this.destination, this.completion));
+    }
+
+    private void downloadSegments(long length) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(this.destination.toFile(), "rw");
+            file.setLength(length);
+            this.fileChannel = file.getChannel();
+        } catch (IOException e) {
+            if (this.completion != null) {
+                this.completion.failure(this.headRequest, e);
+            }
+            return;
+        }
+
+        int count = (int) Math.min(this.segmentCount, length);
+        long segmentLength = (length + count - 1) / count;
+
+        HTTPURLRequestOperation[] operations = new HTTPURLRequestOperation[count];
+        for (int i=0; i<count; i++) {
+            long first = i * segmentLength;
+            long last = Math.min(length, first + segmentLength) - 1;
+            operations[i] = this.segmentOperation(first, last, length);
+        }
+
+        OperationQueue operationQueue = this.client.getOperationQueue();
+        if (operationQueue.getClass() == OperationQueue.class) {
+            operationQueue = new WorkerOperationQueue(count);
+        }
+
+        synchronized (this) {
+            this.operations = operations;
+            this.remainingSegments = count;
+        }
+        for (HTTPURLRequestOperation operation : operations) {
+            this.client.prepareHTTPURLRequestOperationForExecution(operation, operationQueue, true);
+        }
+    }
+
+    /**
+     Creates the operation writing bytes {@code first} to {@code last} of the resource at their offset in the file.
+     */
+    private HTTPURLRequestOperation segmentOperation(final long first, final long last, final long length) {
+        URLRequest request = this.client.connectionWithMethodPathAndParameters("GET", this.path, null);
+        request.setRequestProperty("Range", String.format("bytes=%d-%d", first, last));
+        request.setRequestProperty("Accept-Encoding", "identity");
+
+        final long[] position = new long[] { first };
+
+        HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(request, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                segmentFinished(t);
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                if (position[0] != last + 1) {
+                    segmentFinished(new IOException(String.format("Expected %d bytes for range %d-%d, got %d", last - first + 1, first, last, position[0] - first)));
+                } else {
+                    segmentFinished(null);
+                }
+            }
+        });
+        operation.setDataConsumer(new URLDataConsumer() {
+            @Override
+            public void didReceiveResponse(URLRequest urlRequest) throws IOException {
+                String expected = String.format("bytes %d-%d/%d", first, last, length);
+                String contentRange = urlRequest.getHeaderField("Content-Range");
+
+                if (urlRequest.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || contentRange == null || !contentRange.trim().equals(expected)) {
+                    throw new IOException(String.format("Expected Content-Range %s, got %s", expected, contentRange));
+                }
+            }
+            @Override
+            public void didReceiveData(URLRequest urlRequest, ByteBuffer data) throws IOException {
+                if (position[0] + data.remaining() > last + 1) {
+                    throw new IOException(String.format("Received more than %d bytes for range %d-%d", last - first + 1, first, last));
+                }
+                while (data.hasRemaining()) {
+                    position[0] += fileChannel.write(data, position[0]);
+                }
+            }
+        });
+        return operation;
+    }
+
+    private void segmentFinished(Throwable t) {
+        HTTPURLRequestOperation[] cancelledOperations = null;
+        boolean finished;
+
+        synchronized (this) {
+            if (t != null && this.error == null) {
+                this.error = t;
+                cancelledOperations = this.operations;
+            }
+            finished = (--this.remainingSegments == 0);
+        }
+
+        // The download fails with the first failure, the other segments are not needed
+        if (cancelledOperations != null) {
+            for (HTTPURLRequestOperation operation : cancelledOperations) {
+                operation.cancel();
+            }
+        }
+        if (!finished) {
+            return;
+        }
+
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            if (this.error == null) {
+                this.error = e;
+            }
+        }
+        if (this.error != null) {
+            try {
+                Files.deleteIfExists(this.destination);
+            } catch (IOException e) {}
+        }
+
+        if (this.completion != null) {
+            if (this.error != null) {
+                this.completion.failure(this.headRequest, this.error);
+            } else {
+                this.completion.success(this.headRequest, this.destination);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.javanetworking;
+
+/**
+ {@link TieredURLResponseCache} is a {@link URLResponseCache} combining a cache for small responses, typically a
+ {@link MemoryURLResponseCache}, with a cache for large responses, typically a {@link DiskURLResponseCache}.
+
+ A response is stored in exactly one of the caches, chosen by its size, and removed from the other. Lookups try
+ the cache for small responses first.
+ */
+public class TieredURLResponseCache implements URLResponseCache {
+
+    private final URLResponseCache smallResponseCache;
+    private final URLResponseCache largeResponseCache;
+    private final long maxSmallResponseByteCount;
+
+    /**
+     Creates a tiered cache.
+
+     @param smallResponseCache The cache storing responses up to {@code maxSmallResponseByteCount}.
+     @param largeResponseCache The cache storing larger responses.
+     @param maxSmallResponseByteCount The largest response, in bytes, stored in the cache for small responses.
+     */
+    public TieredURLResponseCache(URLResponseCache smallResponseCache, URLResponseCache largeResponseCache, long maxSmallResponseByteCount) {
+        if (smallResponseCache == null) {
+            throw new NullPointerException("smallResponseCache cannot be null.");
+        }
+        if (largeResponseCache == null) {
+            throw new NullPointerException("largeResponseCache cannot be null.");
+        }
+        if (maxSmallResponseByteCount < 0) {
+            throw new IllegalArgumentException("maxSmallResponseByteCount cannot be negative");
+        }
+        this.smallResponseCache = smallResponseCache;
+        this.largeResponseCache = largeResponseCache;
+        this.maxSmallResponseByteCount = maxSmallResponseByteCount;
+    }
+
+    public URLResponseCache getSmallResponseCache() {
+        return this.smallResponseCache;
+    }
+
+    public URLResponseCache getLargeResponseCache() {
+        return this.largeResponseCache;
+    }
+
+    @Override
+    public CachedURLResponse cachedResponseForRequest(URLRequest request) {
+        CachedURLResponse response = this.smallResponseCache.cachedResponseForRequest(request);
+        if (response != null) {
+            return response;
+        }
+        return this.largeResponseCache.cachedResponseForRequest(request);
+    }
+
+    @Override
+    public void storeCachedResponse(URLRequest request, CachedURLResponse response) {
+        if (response.getByteCount() <= this.maxSmallResponseByteCount) {
+            this.largeResponseCache.removeCachedResponse(request);
+            this.smallResponseCache.storeCachedResponse(request, response);
+        } else {
+            this.smallResponseCache.removeCachedResponse(request);
+            this.largeResponseCache.storeCachedResponse(request, response);
+        }
+    }
+
+    @Override
+    public void removeCachedResponse(URLRequest request) {
+        this.smallResponseCache.removeCachedResponse(request);
+        this.largeResponseCache.removeCachedResponse(request);
+    }
+}
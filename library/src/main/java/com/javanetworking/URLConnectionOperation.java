@@ -1,13 +1,27 @@
 package com.javanetworking;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.operationqueue.BaseOperation;
 import com.operationqueue.Operation;
 import com.operationqueue.OperationQueue;
+import com.operationqueue.Operation.OperationState;
 
 /**
  {@link URLRequestRequest} is an extension of {@link BaseOperation} that implements the {@link Operation} interface.
@@ -23,6 +37,51 @@ public class URLConnectionOperation extends BaseOperation {
         void success(URLRequest urlRequest, byte[] responseData);
     }
 
+    /**
+     {@link URLDataConsumer} receives the response body of a {@link URLConnectionOperation} in chunks as they
+     are read, instead of the whole body in {@code URLCompletion.success()}.
+
+     The next chunk is not read until {@code didReceiveData()} returns, so a slow consumer slows down the
+     transfer rather than buffering the body in memory. Throwing an {@link IOException} stops the transfer
+     and the operation fails with the exception.
+     */
+    public interface URLDataConsumer {
+        /**
+         Called once the response status and headers are received and accepted, before any data.
+         */
+        void didReceiveResponse(URLRequest urlRequest) throws IOException;
+        /**
+         Called with the next chunk of the response body. The buffer is only valid during the call.
+         */
+        void didReceiveData(URLRequest urlRequest, ByteBuffer data) throws IOException;
+    }
+
+    /**
+     {@link QueuePriority} orders the operations waiting in a priority aware operation queue, see
+     {@code WorkerOperationQueue.queueWithPriorities()}. Operations with a higher priority start first, operations
+     waiting longer are aged towards higher priorities so they are not starved.
+     */
+    public enum QueuePriority {
+        VeryLow(-2),
+        Low(-1),
+        Normal(0),
+        High(1),
+        VeryHigh(2);
+
+        private final int level;
+
+        QueuePriority(int level) {
+            this.level = level;
+        }
+
+        /**
+         Returns the number of priority levels above `Normal`, negative below.
+         */
+        public int getLevel() {
+            return this.level;
+        }
+    }
+
     /**
      A static constructor method that creates and returns a {@link URLRequestRequest} instance.
      */
@@ -30,6 +89,39 @@ public class URLConnectionOperation extends BaseOperation {
         return new URLConnectionOperation(urlRequest, completion);
     }
 
+    /**
+     The maximum number of operations the default operation queue executes at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_OPERATION_COUNT = 64;
+
+    /**
+     The process wide {@link OperationQueue} used by {@code start()}.
+     */
+    private static OperationQueue defaultOperationQueue;
+
+    /**
+     Returns the process wide {@link OperationQueue} used to run asynchronously started operations.
+
+     Defaults to a {@link WorkerOperationQueue} with {@code DEFAULT_MAX_CONCURRENT_OPERATION_COUNT} workers,
+     created the first time it is needed.
+     */
+    public static synchronized OperationQueue getDefaultOperationQueue() {
+        if (defaultOperationQueue == null) {
+            defaultOperationQueue = new WorkerOperationQueue(DEFAULT_MAX_CONCURRENT_OPERATION_COUNT);
+        }
+        return defaultOperationQueue;
+    }
+
+    /**
+     Sets the process wide {@link OperationQueue} used to run asynchronously started operations. Cannot be null.
+     */
+    public static synchronized void setDefaultOperationQueue(OperationQueue operationQueue) {
+        if (operationQueue == null) {
+            throw new NullPointerException("operationQueue cannot be null.");
+        }
+        defaultOperationQueue = operationQueue;
+    }
+
     /**
      The URL request.
      */
@@ -40,11 +132,107 @@ public class URLConnectionOperation extends BaseOperation {
      */
     private URLCompletion completion;
 
+    /**
+     Size of the chunk buffer used when reading the response body.
+     */
+    private static final int READ_BUFFER_LENGTH = 16 * 1024;
+
+    /**
+     Byte array request bodies of at least this length are sent in fixed length streaming mode, unless the request
+     sets a streaming mode. Smaller bodies are buffered by the connection, which can send them again to follow a
+     redirect or to answer an authentication challenge.
+     */
+    static final int STREAMED_BODY_LENGTH = 1024 * 1024;
+
+    /**
+     Upper bound for pre-sizing the accumulation buffer from the `Content-Length` header, so a wrong or hostile
+     `Content-Length` does not allocate memory before any data arrived. Larger bodies grow as they are read.
+     */
+    private static final int MAXIMUM_PRESIZED_BUFFER_LENGTH = 1024 * 1024;
+
+    /**
+     Chunk buffer reused by every operation executing on the same worker thread.
+     */
+    private static final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_LENGTH];
+        }
+    };
+
     /**
      Response accumulation buffer, a byte array output stream.
      */
     private ByteArrayOutputStream accumulationBuffer;
 
+    /**
+     The {@link IOException} that ended the connection, reported when the operation completes.
+     */
+    private IOException connectionError;
+
+    /**
+     The consumer receiving the response body, or null to accumulate the body.
+     */
+    private URLDataConsumer dataConsumer;
+
+    /**
+     Whether the rest of the response body is ignored, because it is unacceptable or could not be received.
+     */
+    private boolean discardsResponseData;
+
+    /**
+     The decoder of an encoded response body, or null if the response is not encoded.
+     */
+    private ContentDecoder contentDecoder;
+
+    /**
+     The cache storing the response of this operation, or null.
+     */
+    private URLResponseCache responseCache;
+
+    /**
+     The stale cached response revalidated by the conditional request of this operation, or null.
+     */
+    private CachedURLResponse revalidatedResponse;
+
+    /**
+     The priority of this operation while it waits in an operation queue.
+     */
+    private volatile QueuePriority queuePriority = QueuePriority.Normal;
+
+    /**
+     A boolean value indicating if the operation was cancelled with {@code cancel()}.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     The maximum time in milliseconds from enqueuing this operation until it completes, or 0 for no limit.
+     */
+    private volatile long totalTimeout;
+
+    /**
+     The {@code System.nanoTime()} at which the total timeout expires, or 0 if the operation is not enqueued.
+     */
+    private volatile long deadline;
+
+    /**
+     A boolean value indicating if the operation was cancelled because its total timeout expired.
+     */
+    private volatile boolean timedOut;
+
+    /**
+     The task cancelling this operation when its deadline expires while it executes, or null, guarded by this.
+     */
+    private ScheduledFuture<?> deadlineTask;
+
+    /**
+     A boolean value indicating if {@code complete()} was called, guarded by this.
+     */
+    private boolean completed;
+
+    private volatile long compressedByteCount;
+    private volatile long uncompressedByteCount;
+
     /**
      Instantiates this class and sets the {@link URLRequest} to use, and the {@link URLCompletion} interface.
 
@@ -63,6 +251,21 @@ public class URLConnectionOperation extends BaseOperation {
         this.accumulationBuffer = new ByteArrayOutputStream();
     }
 
+    /**
+     Sets whether asynchronously started operations run on virtual threads. Enabling replaces the default
+     operation queue with {@code WorkerOperationQueue.queueWithVirtualThreads()}, which falls back to platform
+     worker threads if the JVM does not support virtual threads. Disabling restores a worker thread queue.
+
+     @param usesVirtualThreads A boolean value indicating if started operations should run on virtual threads.
+     */
+    public static void setUsesVirtualThreads(boolean usesVirtualThreads) {
+        if (usesVirtualThreads) {
+            setDefaultOperationQueue(WorkerOperationQueue.queueWithVirtualThreads());
+        } else {
+            setDefaultOperationQueue(new WorkerOperationQueue(DEFAULT_MAX_CONCURRENT_OPERATION_COUNT));
+        }
+    }
+
     /**
      Returns the current {@link URLRequest} used.
 
@@ -90,7 +293,174 @@ public class URLConnectionOperation extends BaseOperation {
     }
 
     /**
-     Creates a new {@link OperationQueue} and adds this class which executes this operation.
+     Returns the {@link URLDataConsumer} receiving the response body, or null if the body is accumulated.
+     */
+    public URLDataConsumer getDataConsumer() {
+        return this.dataConsumer;
+    }
+
+    /**
+     Sets a {@link URLDataConsumer} receiving the response body in chunks. The body is then not accumulated,
+     and {@code URLCompletion.success()} is called with null response data. Default is null.
+
+     When the request is sent by a {@link NIOTransportEngine} the consumer is called on the engines I/O thread.
+     */
+    public void setDataConsumer(URLDataConsumer dataConsumer) {
+        this.dataConsumer = dataConsumer;
+    }
+
+    public QueuePriority getQueuePriority() {
+        return this.queuePriority;
+    }
+
+    /**
+     Sets the priority of this operation while it waits in a priority aware operation queue. Has no effect once the
+     operation is enqueued, and on queues executing operations in the order they are added. Default is `Normal`.
+     */
+    public void setQueuePriority(QueuePriority queuePriority) {
+        if (queuePriority == null) {
+            throw new NullPointerException("queuePriority cannot be null.");
+        }
+        this.queuePriority = queuePriority;
+    }
+
+    public URLResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     Sets a {@link URLResponseCache} storing the response when the operation completes, if the response is
+     cacheable and accumulated. Default is null.
+     */
+    public void setResponseCache(URLResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     Revalidates a stale cached response: the request is made conditional with `If-None-Match` and
+     `If-Modified-Since` from the responses validators, and a `304 Not Modified` completes the operation with the
+     cached body as a `200` response. Requests that set their own conditional headers are left unchanged.
+     */
+    void revalidateCachedResponse(CachedURLResponse response) {
+        if (!response.hasValidator()
+                || CachedURLResponse.requestProperty(this.urlRequest, "If-None-Match") != null
+                || CachedURLResponse.requestProperty(this.urlRequest, "If-Modified-Since") != null) {
+            return;
+        }
+
+        if (response.getEntityTag() != null) {
+            this.urlRequest.setRequestProperty("If-None-Match", response.getEntityTag());
+        }
+        if (response.getLastModified() != null) {
+            this.urlRequest.setRequestProperty("If-Modified-Since", response.getLastModified());
+        }
+        this.revalidatedResponse = response;
+    }
+
+    /**
+     Cancels this operation. A waiting operation does not send its request when it is executed, and the connection of
+     a running request sent with a {@link URLConnection} is closed. The operation then completes with the `Cancelled`
+     state and its completion fails. A request sent by a {@link NIOTransportEngine} is not interrupted, its response
+     is discarded. Has no effect once the operation completed.
+     */
+    public void cancel() {
+        this.cancelled = true;
+
+        if (this.urlRequest.getTransportEngine() == null) {
+            this.urlRequest.disconnect();
+        }
+    }
+
+    /**
+     Returns whether {@code cancel()} was called.
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public long getTotalTimeout() {
+        return this.totalTimeout;
+    }
+
+    /**
+     Sets the maximum time from enqueuing this operation until it completes, including the time waiting in an
+     operation queue, connecting and receiving the response. An operation whose deadline expired while waiting is
+     completed without opening a connection, a running request sent with a {@link URLConnection} is cancelled when
+     the deadline expires. Either way the operation completes with the `Cancelled` state and its completion fails
+     with a {@link TimeoutException}, see {@code isTimedOut()}. A request sent by a {@link NIOTransportEngine} is only
+     dropped before it is sent, once sent it is limited by its connect and read timeouts.
+
+     Has no effect once the operation is enqueued. Default is 0, no limit.
+
+     @param totalTimeout The time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTotalTimeout(long totalTimeout) {
+        if (totalTimeout < 0) {
+            throw new IllegalArgumentException("totalTimeout cannot be negative");
+        }
+        this.totalTimeout = totalTimeout;
+    }
+
+    /**
+     Returns the {@code System.nanoTime()} at which the total timeout expires, or 0 if there is no total timeout or
+     the operation is not enqueued yet.
+     */
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     Returns whether the operation was cancelled because its total timeout expired.
+     */
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    /**
+     Starts counting the total timeout, when the operation is enqueued or started. Later calls have no effect.
+     */
+    synchronized void startDeadline() {
+        if (this.totalTimeout > 0 && this.deadline == 0) {
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.totalTimeout);
+        }
+    }
+
+    /**
+     Returns the nanoseconds left until the deadline, 0 or less once it expired, or {@code Long.MAX_VALUE} if there
+     is no deadline.
+     */
+    private long remainingNanos() {
+        long deadline = this.deadline;
+        return (deadline == 0) ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     Cancels this operation because its deadline expired, unless it completed.
+     */
+    private void expire() {
+        synchronized (this) {
+            if (this.completed) {
+                return;
+            }
+            this.timedOut = true;
+            this.cancelled = true;
+        }
+        this.cancel();
+    }
+
+    /**
+     Starts the deadline when an operation queue accepts this operation.
+     */
+    @Override
+    public void setState(OperationState state) {
+        if (state == OperationState.InQueue) {
+            this.startDeadline();
+        }
+        super.setState(state);
+    }
+
+    /**
+     Adds this operation to the default {@link OperationQueue} which executes this operation.
      */
     public void start() {
         this.start(true);
@@ -104,15 +474,27 @@ public class URLConnectionOperation extends BaseOperation {
     }
 
     /**
-     Starts and runs this operation. If asynchronous is true an operation queue is created and the operation is
-     put on its queue.
+     Starts and runs this operation. If asynchronous is true the operation is put on the default operation queue,
+     see {@code getDefaultOperationQueue()}.
+
+     If the {@link URLRequest} has a {@link NIOTransportEngine} an asynchronous operation is sent by the engine
+     without a worker thread, and completes on the engines I/O thread.
 
      @param asynchronous A boolean value indicating if this operation should be started synchronously or asynchronously.
      */
     public void start(boolean asynchronous) {
-        if (asynchronous) {
-            OperationQueue queue = new OperationQueue();
-            queue.addOperation(this);
+        this.startDeadline();
+
+        if (asynchronous && this.urlRequest.getTransportEngine() != null) {
+            if (this.remainingNanos() <= 0) {
+                this.expire();
+                this.complete();
+                return;
+            }
+            setState(OperationState.Running);
+            this.urlRequest.getTransportEngine().execute(this.urlRequest, new TransportResponseHandler(null));
+        } else if (asynchronous) {
+            getDefaultOperationQueue().addOperation(this);
         } else {
             this.execute();
             this.complete();
@@ -122,36 +504,459 @@ public class URLConnectionOperation extends BaseOperation {
     /**
      The executing method of this operation.
 
-     This method runs in the worker thread of this operations operation queue.
+     This method runs in the worker thread of this operations operation queue. It is not synchronized, a
+     virtual thread blocking on network I/O while holding a monitor would pin its carrier thread.
      */
     @Override
-    public synchronized void execute() {
+    public void execute() {
         super.execute();
 
+        this.startDeadline();
+        long remainingNanos = this.remainingNanos();
+        if (remainingNanos <= 0) {
+            // Expired while waiting, the request is not sent
+            this.expire();
+        }
+        if (this.cancelled) {
+            return;
+        }
+        if (remainingNanos != Long.MAX_VALUE && this.urlRequest.getTransportEngine() == null) {
+            this.scheduleDeadline(remainingNanos);
+        }
+
+        if (this.urlRequest.getTransportEngine() != null) {
+            this.executeWithTransportEngine();
+            return;
+        }
+
         try {
             // Write requestBody if any
-            if (this.urlRequest.getHTTPBody() != null) {
-                this.urlRequest.setRequestProperty("Content-Length", "" + Integer.toString(this.urlRequest.getHTTPBody().length));
+            if (this.urlRequest.getHTTPBodyWriter() != null) {
+                this.writeHTTPBodyWithWriter(this.urlRequest.getHTTPBodyWriter());
+            } else if (this.urlRequest.getHTTPBody() != null) {
+                byte[] body = this.urlRequest.getHTTPBody();
+                // Without a streaming mode the connection copies the body into its own buffer before sending it
+                if (!this.urlRequest.isStreamingMode() && body.length >= STREAMED_BODY_LENGTH) {
+                    this.urlRequest.setFixedLengthStreamingMode(body.length);
+                }
                 this.urlRequest.setDoOutput(true);
+                this.connect();
+
+                OutputStream os = this.urlRequest.getOutputStream();
+                try {
+                    os.write(body);
+                } finally {
+                    os.close();
+                }
+            } else {
+                this.connect();
+            }
+
+            // Cancelled while the body was written
+            this.disconnectIfCancelled();
+
+            InputStream is = this.responseInputStream();
+            try {
+                this.prepareResponseData();
+
+                byte[] buffer = readBuffer.get();
+                ByteBuffer data = ByteBuffer.wrap(buffer);
+                int length;
+                while (!this.discardsResponseData && -1 != (length = is.read(buffer))) {
+                    data.clear();
+                    data.limit(length);
+                    this.receiveResponseData(data);
+                }
+                this.finishResponseData();
+            } finally {
+                is.close();
+            }
+
+        } catch (IOException e) {
+            this.connectionError = e;
+        }
+    }
+
+    /**
+     Connects the {@link URLConnection} of the request. {@code cancel()} can only close a connection once it is
+     connected, an operation cancelled while the connection was created or connected is noticed here.
+     */
+    private void connect() throws IOException {
+        this.urlRequest.getURLConnection().connect();
+        this.disconnectIfCancelled();
+    }
+
+    /**
+     Closes the connection and fails with an {@link IOException} if this operation was cancelled. A connection
+     opened again after {@code cancel()} closed it, e.g. by writing the body, is closed here.
+     */
+    private void disconnectIfCancelled() throws IOException {
+        if (this.cancelled) {
+            this.urlRequest.disconnect();
+            throw new IOException("URLRequestOperation cancelled");
+        }
+    }
+
+    /**
+     Returns the stream of the response body. A {@link HttpURLConnection} fails reading the body of an error
+     response, it is read from the error stream if {@code acceptsErrorResponse()}.
+     */
+    private InputStream responseInputStream() throws IOException {
+        URLConnection connection = this.urlRequest.getURLConnection();
+        if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST && this.acceptsErrorResponse()) {
+            InputStream errorStream = ((HttpURLConnection) connection).getErrorStream();
+            return (errorStream != null) ? errorStream : new ByteArrayInputStream(new byte[0]);
+        }
+        return this.urlRequest.getInputStream();
+    }
+
+    /**
+     Returns whether the error response received from a {@link URLConnection}, with a status code of 400 or above,
+     is read like any other response instead of failing this operation with an {@link IOException}. Returns false,
+     subclasses accepting an error response override it.
+     */
+    protected boolean acceptsErrorResponse() {
+        return false;
+    }
+
+    /**
+     Schedules cancelling this operation when its deadline expires.
+     */
+    private synchronized void scheduleDeadline(long remainingNanos) {
+        this.deadlineTask = DeadlineTimer.executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, remainingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     The timer thread cancelling operations whose deadline expires, created when it is first needed.
+     */
+    private static class DeadlineTimer {
+        static final ScheduledThreadPoolExecutor executor;
+
+        static {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "URLConnectionOperation-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     Streams the request body to the connection. The connection sends the body as it is written, with a fixed
+     length when the writer knows it and with chunked transfer encoding otherwise, instead of buffering it.
+     */
+    private void writeHTTPBodyWithWriter(URLRequest.HTTPBodyWriter bodyWriter) throws IOException {
+        if (!this.urlRequest.isStreamingMode()) {
+            long contentLength = bodyWriter.getContentLength();
+            if (contentLength >= 0) {
+                this.urlRequest.setFixedLengthStreamingMode(contentLength);
+            } else {
+                this.urlRequest.setChunkedStreamingMode(0);
+            }
+        }
+        this.urlRequest.setDoOutput(true);
+        this.connect();
+
+        OutputStream os = this.urlRequest.getOutputStream();
+        try {
+            bodyWriter.writeTo(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     Returns whether the received response status and headers are acceptable. The response body is only passed
+     to a {@link URLDataConsumer} if the response is acceptable. Subclasses validating responses override this.
+
+     @return A boolean value indicating if the response is acceptable. Default is true.
+     */
+    protected boolean hasAcceptableResponse() {
+        return true;
+    }
+
+    /**
+     Returns the number of response body bytes received, before decoding a `Content-Encoding`.
+     */
+    public long getCompressedByteCount() {
+        return this.compressedByteCount;
+    }
+
+    /**
+     Returns the number of response body bytes after decoding a `Content-Encoding`. Equals the compressed byte
+     count if the response is not encoded.
+     */
+    public long getUncompressedByteCount() {
+        return this.uncompressedByteCount;
+    }
+
+    /**
+     Prepares receiving the response body once the response status and headers are known.
+     */
+    private void prepareResponseData() throws IOException {
+        if (this.revalidatedResponse != null && this.urlRequest.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            this.prepareNotModifiedResponseData();
+            return;
+        }
+
+        this.contentDecoder = ContentDecoder.decoderForContentEncoding(this.urlRequest.getHeaderField("Content-Encoding"), new ContentDecoder.DataSink() {
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                deliverResponseData(data);
+            }
+        });
+
+        if (this.dataConsumer == null) {
+            this.accumulationBuffer = accumulationBufferForContentLength(this.hasResponseBody() ? this.urlRequest.getContentLength() : 0);
+        } else if (hasAcceptableResponse()) {
+            this.dataConsumer.didReceiveResponse(this.urlRequest);
+        } else {
+            // An unacceptable response is not passed on, it is reported when the operation completes
+            this.discardsResponseData = true;
+        }
+    }
+
+    /**
+     Replaces a `304 Not Modified` by the revalidated cached response, refreshed with the headers of the 304, and
+     delivers the cached body. The empty body of the 304 is ignored.
+     */
+    private void prepareNotModifiedResponseData() throws IOException {
+        CachedURLResponse response = this.revalidatedResponse.responseRevalidatedByRequest(this.urlRequest);
+
+        this.urlRequest.setResponse(response.getStatusCode(), response.getHeaderFields());
+        this.discardsResponseData = true;
+
+        boolean acceptable = hasAcceptableResponse();
+        if (this.responseCache != null && acceptable) {
+            this.responseCache.storeCachedResponse(this.urlRequest, response);
+        }
+        // Already stored
+        this.responseCache = null;
+
+        if (this.dataConsumer == null) {
+            this.accumulationBuffer = accumulationBufferForContentLength(response.getDataLength());
+        } else if (acceptable) {
+            this.dataConsumer.didReceiveResponse(this.urlRequest);
+        } else {
+            return;
+        }
+        this.deliverResponseData(response.getDataBuffer());
+    }
+
+    /**
+     Counts the next chunk of the response body and decodes it while it is read.
+     */
+    private void receiveResponseData(ByteBuffer data) throws IOException {
+        if (this.discardsResponseData) {
+            return;
+        }
+        this.compressedByteCount += data.remaining();
+
+        if (this.contentDecoder != null) {
+            this.contentDecoder.decode(data);
+        } else {
+            this.deliverResponseData(data);
+        }
+    }
+
+    /**
+     Passes decoded response data to the data consumer, or accumulates it.
+     */
+    private void deliverResponseData(ByteBuffer data) throws IOException {
+        this.uncompressedByteCount += data.remaining();
+
+        if (this.dataConsumer != null) {
+            this.dataConsumer.didReceiveData(this.urlRequest, data);
+        } else {
+            accumulate(this.accumulationBuffer, data);
+        }
+    }
+
+    /**
+     Writes a buffer to the accumulation buffer. A buffer without an array, e.g. a cached body mapped into memory,
+     is copied in chunks.
+     */
+    private static void accumulate(ByteArrayOutputStream accumulationBuffer, ByteBuffer data) {
+        if (data.hasArray()) {
+            accumulationBuffer.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+
+        ByteBuffer source = data.duplicate();
+        byte[] chunk = new byte[Math.min(source.remaining(), READ_BUFFER_LENGTH)];
+        while (source.hasRemaining()) {
+            int length = Math.min(source.remaining(), chunk.length);
+            source.get(chunk, 0, length);
+            accumulationBuffer.write(chunk, 0, length);
+        }
+    }
+
+    /**
+     Verifies that an encoded response body is complete.
+     */
+    private void finishResponseData() throws IOException {
+        if (this.contentDecoder != null && !this.discardsResponseData) {
+            this.contentDecoder.finish();
+        }
+    }
+
+    /**
+     Sends the request with the requests {@link NIOTransportEngine} and waits for the response.
+     */
+    private void executeWithTransportEngine() {
+        CountDownLatch signal = new CountDownLatch(1);
+
+        this.urlRequest.getTransportEngine().execute(this.urlRequest, new TransportResponseHandler(signal));
+
+        try {
+            signal.await();
+        } catch (InterruptedException e) {
+            this.connectionError = new InterruptedIOException("Interrupted while waiting for response");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     {@link NIOTransportEngine.ResponseHandler} receiving the response of this operation.
+
+     Counts down the signal when the response is complete, or completes the operation if there is no signal.
+     */
+    private class TransportResponseHandler implements NIOTransportEngine.ResponseHandler {
+
+        private final CountDownLatch signal;
+
+        TransportResponseHandler(CountDownLatch signal) {
+            this.signal = signal;
+        }
+
+        @Override
+        public void didReceiveResponse(int statusCode, Map<String, List<String>> headerFields) {
+            urlRequest.setResponse(statusCode, headerFields);
+
+            try {
+                prepareResponseData();
+            } catch (IOException e) {
+                this.stopReceiving(e);
+            }
+        }
 
-                this.urlRequest.getOutputStream().write(this.urlRequest.getHTTPBody());
+        @Override
+        public void didReceiveData(ByteBuffer data) {
+            try {
+                receiveResponseData(data);
+            } catch (IOException e) {
+                this.stopReceiving(e);
             }
+        }
+
+        /**
+         The rest of the body is discarded, the operation fails with the exception.
+         */
+        private void stopReceiving(IOException e) {
+            discardsResponseData = true;
+            connectionError = e;
+        }
 
-            InputStream is = urlRequest.getInputStream();
-            BufferedInputStream bin = new BufferedInputStream(is);
+        @Override
+        public void didFinish() {
+            try {
+                finishResponseData();
+            } catch (IOException e) {
+                this.stopReceiving(e);
+            }
+            this.done();
+        }
 
-            int c;
-            while (-1 != (c = bin.read())) {
-                this.accumulationBuffer.write(c);
+        @Override
+        public void didFail(IOException e) {
+            if (connectionError == null) {
+                connectionError = e;
             }
-            bin.close();
-            is.close();
+            this.done();
+        }
+
+        private void done() {
+            if (this.signal != null) {
+                this.signal.countDown();
+            } else {
+                complete();
+            }
+        }
+    }
+
+    /**
+     Completes this operation with a response from a {@link URLResponseCache}, without a connection. The response
+     passes through the same validation, data consumer and completion as a response from the network.
+     */
+    void completeWithCachedResponse(CachedURLResponse response) {
+        // Already stored
+        this.responseCache = null;
 
+        this.urlRequest.setResponse(response.getStatusCode(), response.getHeaderFields());
+        try {
+            this.prepareResponseData();
+            this.receiveResponseData(response.getDataBuffer());
+            this.finishResponseData();
         } catch (IOException e) {
-            if (this.completion != null) {
-                this.completion.failure(this.urlRequest, e);
+            this.connectionError = e;
+        }
+        this.complete();
+    }
+
+    /**
+     Stores an accumulated response in the response cache, if it is acceptable and cacheable.
+     */
+    private void storeResponseData(byte[] responseData) {
+        if (this.responseCache == null || responseData == null || !hasAcceptableResponse()) {
+            return;
+        }
+
+        try {
+            CachedURLResponse response = CachedURLResponse.responseForRequest(this.urlRequest, responseData);
+            if (response != null) {
+                this.responseCache.storeCachedResponse(this.urlRequest, response);
             }
+        } catch (IOException e) {
+            // Not cached, the response status is unavailable
+        }
+    }
+
+    /**
+     Returns whether the response can have a body. The `Content-Length` of a response to `HEAD`, and of a
+     `204 No Content` or `304 Not Modified` response, describes a body that is not sent.
+     */
+    private boolean hasResponseBody() throws IOException {
+        if ("HEAD".equalsIgnoreCase(this.urlRequest.getRequestMethod())) {
+            return false;
+        }
+        if (this.urlRequest.getTransportEngine() == null && !(this.urlRequest.getURLConnection() instanceof HttpURLConnection)) {
+            return true;
+        }
+        int responseCode = this.urlRequest.getResponseCode();
+        return responseCode >= 200 && responseCode != HttpURLConnection.HTTP_NO_CONTENT && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     Creates the response accumulation buffer, pre-sized from the response `Content-Length` when it is known.
+
+     @param contentLength The response content length, 0 if the response has no body, or -1 if unknown.
+
+     @return A {@link ByteArrayOutputStream} with room for the expected response body.
+     */
+    private static ByteArrayOutputStream accumulationBufferForContentLength(int contentLength) {
+        if (contentLength >= 0) {
+            return new ByteArrayOutputStream(Math.min(contentLength, MAXIMUM_PRESIZED_BUFFER_LENGTH));
         }
+        return new ByteArrayOutputStream(READ_BUFFER_LENGTH);
     }
 
     /**
@@ -159,8 +964,16 @@ public class URLConnectionOperation extends BaseOperation {
      */
     @Override
     public synchronized void complete() {
-        super.complete();
+        this.completed = true;
+        if (this.deadlineTask != null) {
+            this.deadlineTask.cancel(false);
+            this.deadlineTask = null;
+        }
+        if (this.cancelled && getState() != OperationState.Rejected) {
+            setState(OperationState.Cancelled);
+        }
 
+        // Rejected and cancelled operations keep their state, everything else is finished
         switch (getState()) {
             case Rejected:
                 if (this.completion != null) {
@@ -168,13 +981,26 @@ public class URLConnectionOperation extends BaseOperation {
                 }
                 break;
             case Cancelled:
-                if (this.completion != null) {
-                    this.completion.failure(this.urlRequest, new Throwable("URLRequestOperation cancelled in operation queue"));
+                // A failure thrown while executing has already been reported through failure()
+                if (this.completion != null && getThrowable() == null) {
+                    Throwable cause = this.timedOut ? new TimeoutException(String.format("URLRequestOperation exceeded its total timeout of %d ms", this.totalTimeout)) : new Throwable("URLRequestOperation cancelled in operation queue");
+                    this.completion.failure(this.urlRequest, cause);
                 }
                 break;
             default:
-                if (this.completion != null) {
-                    this.completion.success(this.urlRequest, this.accumulationBuffer.toByteArray());
+                super.complete();
+
+                if (this.connectionError != null) {
+                    if (this.completion != null) {
+                        this.completion.failure(this.urlRequest, this.connectionError);
+                    }
+                } else {
+                    byte[] responseData = (this.dataConsumer != null) ? null : this.accumulationBuffer.toByteArray();
+                    this.storeResponseData(responseData);
+
+                    if (this.completion != null) {
+                        this.completion.success(this.urlRequest, responseData);
+                    }
                 }
                 break;
         }
@@ -184,6 +1010,10 @@ public class URLConnectionOperation extends BaseOperation {
             this.accumulationBuffer = null;
         } catch (IOException e) {}
 
+        if (this.contentDecoder != null) {
+            this.contentDecoder.end();
+        }
+
     }
 
     /**
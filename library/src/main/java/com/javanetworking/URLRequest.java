@@ -7,20 +7,69 @@ import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  Wrapper class for a {@link URLConnection} request. Holds the string URL, URLConnection
  request and HTTP body content for current request.
+
+ The request method, request properties and timeouts are recorded on the request and applied to the
+ {@link URLConnection} when it is created. When a {@link NIOTransportEngine} is set the request is sent
+ by the engine instead, and no {@link URLConnection} is opened.
  */
 public class URLRequest {
 
+    /**
+     {@link HTTPBodyWriter} writes a request body straight to the connection while the request is sent, so the
+     body does not have to be held in memory as a byte array.
+     */
+    public interface HTTPBodyWriter {
+        /**
+         Returns the length of the body in bytes, or -1 if it is not known before the body is written. A body of
+         unknown length is sent with chunked transfer encoding.
+         */
+        long getContentLength();
+        /**
+         Writes the body to the connection. Called once, on the thread sending the request. The stream is closed
+         by the caller.
+         */
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
     private String urlString;
-    private URLConnection urlConnection;
+    /**
+     The connection, created when it is first needed. Volatile, it is disconnected from other threads.
+     */
+    private volatile URLConnection urlConnection;
     private byte[] HTTPBody;
+    private HTTPBodyWriter HTTPBodyWriter;
     private Exception error;
 
+    private String requestMethod;
+    private Map<String, String> requestProperties;
+    private int connectTimeout;
+    /**
+     The read timeout, or -1 to use the connect timeout.
+     */
+    private int readTimeout;
+
+    /**
+     The body length of fixed length streaming mode, or -1.
+     */
+    private long streamingContentLength;
+    /**
+     The chunk length of chunked streaming mode, 0 for the default chunk length, or -1.
+     */
+    private int streamingChunkLength;
+
+    private NIOTransportEngine transportEngine;
+    private ConnectionPool connectionPool;
+    private int responseCode;
+    private Map<String, List<String>> responseHeaderFields;
+
     public static URLRequest requestWithURLString(String url) {
         return new URLRequest(url);
     }
@@ -34,6 +83,23 @@ public class URLRequest {
         this.urlString = urlString;
         this.urlConnection = null;
         this.HTTPBody = null;
+        this.HTTPBodyWriter = null;
+
+        this.requestMethod = "GET";
+        this.requestProperties = new LinkedHashMap<String, String>();
+        this.connectTimeout = 0;
+        this.readTimeout = -1;
+        this.streamingContentLength = -1;
+        this.streamingChunkLength = -1;
+
+        this.transportEngine = null;
+        this.connectionPool = null;
+        this.responseCode = -1;
+        this.responseHeaderFields = null;
+    }
+
+    public String getURLString() {
+        return this.urlString;
     }
 
     public byte[] getHTTPBody() {
@@ -42,29 +108,176 @@ public class URLRequest {
 
     public void setHTTPBody(byte[] HTTPBody) {
         this.HTTPBody = HTTPBody;
+        this.HTTPBodyWriter = null;
+    }
+
+    /**
+     Returns the {@link HTTPBodyWriter} streaming the request body, or null if the body is a byte array.
+     */
+    public HTTPBodyWriter getHTTPBodyWriter() {
+        return this.HTTPBodyWriter;
+    }
+
+    /**
+     Sets an {@link HTTPBodyWriter} streaming the request body, replacing any byte array body. Streamed bodies are
+     sent with a {@link URLConnection}, the {@link NIOTransportEngine} sends byte array bodies only.
+     */
+    public void setHTTPBodyWriter(HTTPBodyWriter HTTPBodyWriter) {
+        this.HTTPBodyWriter = HTTPBodyWriter;
+        this.HTTPBody = null;
     }
 
     public Exception getException() {
         return this.error;
     }
 
+    /**
+     Returns the {@link NIOTransportEngine} sending this request, or null if the request uses a {@link URLConnection}.
+     */
+    public NIOTransportEngine getTransportEngine() {
+        return this.transportEngine;
+    }
+
+    /**
+     Sets the {@link NIOTransportEngine} used to send this request. Default is null, which sends the request
+     with a {@link URLConnection}. The engine supports `http` URLs only.
+     */
+    public void setTransportEngine(NIOTransportEngine transportEngine) {
+        this.transportEngine = transportEngine;
+    }
+
+    /**
+     Returns the {@link ConnectionPool} the {@link NIOTransportEngine} takes the connection for this request from.
+     */
+    public ConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    /**
+     Sets the {@link ConnectionPool} used by the {@link NIOTransportEngine} sending this request. Default is null,
+     which sends the request on a new connection that is closed afterwards.
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
     public URLConnection getURLConnection() {
         if (urlConnection == null) {
             try {
                 urlConnection = new URL(this.urlString).openConnection();
             } catch (Exception e) {
                 this.error = e;
+                return null;
+            }
+
+            if (urlConnection instanceof HttpURLConnection) {
+                try {
+                    ((HttpURLConnection) urlConnection).setRequestMethod(this.requestMethod);
+                } catch (ProtocolException e) {
+                    this.error = e;
+                }
+            }
+            urlConnection.setConnectTimeout(this.connectTimeout);
+            urlConnection.setReadTimeout(this.getReadTimeout());
+            this.applyStreamingMode();
+
+            for (Map.Entry<String, String> property : this.requestProperties.entrySet()) {
+                urlConnection.setRequestProperty(property.getKey(), property.getValue());
             }
         }
         return urlConnection;
     }
 
+    /**
+     Sets fixed length streaming mode for a request body of a known length. The body is sent as it is written
+     instead of being buffered by the {@link HttpURLConnection} until it is complete, and the `Content-Length`
+     header is set by the connection.
+
+     A streamed body cannot be sent again, a redirect or authentication challenge in response to it fails the
+     request with an {@link java.net.HttpRetryException}. {@link URLConnectionOperation} only streams byte array
+     bodies of 1 MB or more without a streaming mode set here, and always streams {@link HTTPBodyWriter} bodies.
+
+     @param contentLength The exact number of body bytes that will be written.
+     */
+    public void setFixedLengthStreamingMode(long contentLength) {
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("contentLength cannot be negative");
+        }
+        this.streamingContentLength = contentLength;
+        this.streamingChunkLength = -1;
+        this.applyStreamingMode();
+    }
+
+    /**
+     Sets chunked streaming mode for a request body of an unknown length. The body is sent with chunked transfer
+     encoding as it is written, instead of being buffered by the {@link HttpURLConnection} until it is complete.
+     See {@code setFixedLengthStreamingMode()} for the limitations of streamed bodies.
+
+     @param chunkLength The number of body bytes in each chunk, or 0 for the default chunk length.
+     */
+    public void setChunkedStreamingMode(int chunkLength) {
+        if (chunkLength < 0) {
+            throw new IllegalArgumentException("chunkLength cannot be negative");
+        }
+        this.streamingChunkLength = chunkLength;
+        this.streamingContentLength = -1;
+        this.applyStreamingMode();
+    }
+
+    /**
+     Returns whether the request body is sent in fixed length or chunked streaming mode.
+     */
+    public boolean isStreamingMode() {
+        return this.streamingContentLength != -1 || this.streamingChunkLength != -1;
+    }
+
+    /**
+     Returns the body length of fixed length streaming mode, or -1 if the request is not in that mode.
+     */
+    public long getStreamingContentLength() {
+        return this.streamingContentLength;
+    }
+
+    private void applyStreamingMode() {
+        if (!(this.urlConnection instanceof HttpURLConnection)) {
+            return;
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) this.urlConnection;
+        if (this.streamingContentLength != -1) {
+            connection.setFixedLengthStreamingMode(this.streamingContentLength);
+        } else if (this.streamingChunkLength != -1) {
+            connection.setChunkedStreamingMode(this.streamingChunkLength);
+        }
+    }
+
     public HttpURLConnection getHttpURLConnection() {
         return ((HttpURLConnection)getURLConnection());
     }
 
+    /**
+     Closes the connection of the request, if it has one. Request or response I/O blocked on another thread fails.
+     */
+    public void disconnect() {
+        URLConnection urlConnection = this.urlConnection;
+        if (urlConnection instanceof HttpURLConnection) {
+            ((HttpURLConnection) urlConnection).disconnect();
+        }
+    }
+
     public void setRequestProperty(String key, String value) {
-        getURLConnection().setRequestProperty(key, value);
+        this.requestProperties.put(key, value);
+
+        if (this.urlConnection != null) {
+            this.urlConnection.setRequestProperty(key, value);
+        }
+    }
+
+    /**
+     Returns the request properties set on this request, in the order they were first set.
+     */
+    public Map<String, String> getRequestProperties() {
+        return Collections.unmodifiableMap(this.requestProperties);
     }
 
     public void setDoOutput(boolean b) {
@@ -80,26 +293,149 @@ public class URLRequest {
     }
 
     public int getResponseCode() throws IOException {
+        if (this.hasResponseWithoutConnection()) {
+            if (this.responseCode == -1) {
+                throw new IOException("No response received");
+            }
+            return this.responseCode;
+        }
         return getHttpURLConnection().getResponseCode();
     }
 
     public String getContentType() {
-        return getHttpURLConnection().getContentType();
+        return getHeaderField("Content-Type");
+    }
+
+    /**
+     Returns the response `Content-Length`, or -1 if it is not known.
+     */
+    public int getContentLength() {
+        String contentLength = getHeaderField("Content-Length");
+        if (contentLength != null) {
+            try {
+                return Integer.parseInt(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     Returns the value of the named response header field. Header names are case insensitive.
+
+     @param name The name of the header field.
+
+     @return The last value of the header field, or null if the response has no such field.
+     */
+    public String getHeaderField(String name) {
+        if (!this.hasResponseWithoutConnection()) {
+            return getURLConnection().getHeaderField(name);
+        }
+
+        if (this.responseHeaderFields != null) {
+            for (Map.Entry<String, List<String>> field : this.responseHeaderFields.entrySet()) {
+                if (name.equalsIgnoreCase(field.getKey()) && !field.getValue().isEmpty()) {
+                    return field.getValue().get(field.getValue().size()-1);
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getRequestMethod() {
+        return this.requestMethod;
     }
 
     public void setRequestMethod(String method) {
-        try {
-            getHttpURLConnection().setRequestMethod(method);
-        } catch (ProtocolException e) {
-            this.error = e;
+        if (this.urlConnection != null) {
+            try {
+                getHttpURLConnection().setRequestMethod(method);
+            } catch (ProtocolException e) {
+                this.error = e;
+                return;
+            }
         }
+        this.requestMethod = method;
+    }
+
+    /**
+     Returns the read timeout, see {@code getReadTimeout()}.
+     */
+    public int getTimeout() {
+        return this.getReadTimeout();
+    }
+
+    public int getConnectTimeout() {
+        return this.connectTimeout;
     }
 
+    /**
+     Sets the time in milliseconds to wait for the connection to be established, 0 to wait indefinitely. Unless a
+     read timeout is set, it is also used as the read timeout. Default is 0.
+     */
     public void setConnectTimeout(int timeout) {
-        getHttpURLConnection().setReadTimeout(timeout);
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+        this.connectTimeout = timeout;
+
+        URLConnection urlConnection = this.urlConnection;
+        if (urlConnection != null) {
+            urlConnection.setConnectTimeout(timeout);
+            urlConnection.setReadTimeout(this.getReadTimeout());
+        }
+    }
+
+    /**
+     Returns the time in milliseconds to wait for the next response data, the connect timeout unless a read timeout
+     is set.
+     */
+    public int getReadTimeout() {
+        return (this.readTimeout < 0) ? this.connectTimeout : this.readTimeout;
+    }
+
+    /**
+     Sets the time in milliseconds to wait for the next response data, 0 to wait indefinitely. The timeout restarts
+     whenever data is received, it does not limit the total time of the request, see
+     {@code URLConnectionOperation.setTotalTimeout()}.
+     */
+    public void setReadTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+        this.readTimeout = timeout;
+
+        URLConnection urlConnection = this.urlConnection;
+        if (urlConnection != null) {
+            urlConnection.setReadTimeout(timeout);
+        }
     }
 
     public Map<String, List<String>> getHeaderFields() {
+        if (this.hasResponseWithoutConnection()) {
+            if (this.responseHeaderFields == null) {
+                return Collections.emptyMap();
+            }
+            return this.responseHeaderFields;
+        }
         return getHttpURLConnection().getHeaderFields();
     }
+
+    /**
+     Returns whether the response is not read from a {@link URLConnection}, because the request is sent by a
+     {@link NIOTransportEngine} or answered from a {@link URLResponseCache}.
+     */
+    private boolean hasResponseWithoutConnection() {
+        return this.transportEngine != null || this.responseHeaderFields != null;
+    }
+
+    /**
+     Sets the response status and header fields received by the {@link NIOTransportEngine}, or stored in a
+     {@link URLResponseCache}.
+     */
+    void setResponse(int responseCode, Map<String, List<String>> headerFields) {
+        this.responseCode = responseCode;
+        this.responseHeaderFields = Collections.unmodifiableMap(headerFields);
+    }
 }
@@ -0,0 +1,21 @@
+package com.javanetworking;
+
+/**
+ {@link URLResponseCache} stores responses of `GET` requests, so {@link HTTPClient} can answer repeated requests
+ without the network. Implementations must be thread safe.
+ */
+public interface URLResponseCache {
+    /**
+     Returns the stored response matching the request, including the request headers named by `Vary`, or null.
+     The response may be stale, see {@code CachedURLResponse.isFresh()}.
+     */
+    CachedURLResponse cachedResponseForRequest(URLRequest request);
+    /**
+     Stores a response, replacing any response stored for the same URL.
+     */
+    void storeCachedResponse(URLRequest request, CachedURLResponse response);
+    /**
+     Removes the response stored for the requests URL.
+     */
+    void removeCachedResponse(URLRequest request);
+}
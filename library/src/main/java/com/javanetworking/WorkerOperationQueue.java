@@ -0,0 +1,504 @@
+package com.javanetworking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.operationqueue.Operation;
+import com.operationqueue.Operation.OperationState;
+import com.operationqueue.OperationQueue;
+
+/**
+ {@link WorkerOperationQueue} is an {@link OperationQueue} that executes its operations on a pool of
+ worker threads instead of a single thread per queue name.
+
+ Operations report the same {@link OperationState} transitions as on an {@link OperationQueue}:
+ `InQueue` when accepted, `Running` while executing and `Finished` when done. Operations that cannot
+ be accepted by a bounded queue are handled by the queue's {@link RejectionPolicy}.
+
+ Waiting operations start in the order they are added, or by their {@link URLConnectionOperation.QueuePriority}
+ on a queue created with {@code queueWithPriorities()}.
+
+ Queue names are accepted for compatibility, all named queues share the same workers.
+ */
+public class WorkerOperationQueue extends OperationQueue {
+
+    /**
+     {@link RejectionPolicy} decides what happens to an operation added to a full queue.
+
+     - `Reject` sets the operation state to `Rejected` and completes it on the calling thread.
+     - `CallerRuns` executes the operation on the calling thread.
+     - `Block` blocks the calling thread until the queue has room. An interrupted caller stops waiting and the
+       operation is rejected.
+     - `DropOldest` rejects the operation that has waited longest to make room for the new one. The dropped
+       operation is completed on the calling thread.
+     */
+    public enum RejectionPolicy {
+        Reject,
+        CallerRuns,
+        Block,
+        DropOldest
+    }
+
+    /**
+     Time an idle worker thread is kept alive before it is stopped.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     The default waiting time after which an operation is ordered like one added a priority level higher.
+     */
+    public static final long DEFAULT_AGING_INTERVAL_MILLIS = 1000;
+
+    /**
+     The number used when naming worker threads.
+     */
+    private static final AtomicInteger queueNumber = new AtomicInteger(1);
+
+    /**
+     The executor running the workers.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     The rejection policy used when the queue is full.
+     */
+    private final RejectionPolicy rejectionPolicy;
+
+    /**
+     Tasks currently being executed by a worker.
+     */
+    private final Set<OperationTask> runningTasks;
+
+    /**
+     The waiting time in nanoseconds worth one priority level, or 0 if operations start in the order they are added.
+     */
+    private final long agingIntervalNanos;
+
+    /**
+     The number of operations added, orders operations with the same priority key.
+     */
+    private final AtomicLong sequenceNumber = new AtomicLong();
+
+    private final AtomicLong rejectedOperationCount = new AtomicLong();
+
+    /**
+     Creates a queue with {@code maxConcurrentOperationCount} workers and an unbounded queue.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     */
+    public WorkerOperationQueue(int maxConcurrentOperationCount) {
+        this(maxConcurrentOperationCount, 0, RejectionPolicy.Reject);
+    }
+
+    /**
+     Creates a queue with {@code maxConcurrentOperationCount} workers and a queue holding at most
+     {@code maxQueuedOperationCount} waiting operations.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     @param maxQueuedOperationCount The maximum number of waiting operations, 0 for an unbounded queue.
+     @param rejectionPolicy The {@link RejectionPolicy} used when the queue is full.
+     */
+    public WorkerOperationQueue(int maxConcurrentOperationCount, int maxQueuedOperationCount, RejectionPolicy rejectionPolicy) {
+        this(workerExecutor(maxConcurrentOperationCount, maxQueuedOperationCount), rejectionPolicy, 0);
+    }
+
+    /**
+     Creates a queue executing its operations on the given executor.
+     */
+    private WorkerOperationQueue(ThreadPoolExecutor executor, RejectionPolicy rejectionPolicy, long agingIntervalNanos) {
+        super();
+
+        if (rejectionPolicy == null) {
+            throw new NullPointerException("rejectionPolicy cannot be null.");
+        }
+        this.rejectionPolicy = rejectionPolicy;
+        this.executor = executor;
+        this.agingIntervalNanos = agingIntervalNanos;
+
+        this.runningTasks = Collections.newSetFromMap(new ConcurrentHashMap<OperationTask, Boolean>());
+    }
+
+    /**
+     Creates a queue which runs every operation on its own virtual thread, so blocking network I/O does not
+     hold an operating system thread. There is no limit on the number of operations executing at the same time.
+
+     Falls back to a queue with {@code URLConnectionOperation.DEFAULT_MAX_CONCURRENT_OPERATION_COUNT} platform
+     worker threads if the JVM does not support virtual threads.
+
+     @return A {@link WorkerOperationQueue} running operations on virtual threads when supported.
+     */
+    public static WorkerOperationQueue queueWithVirtualThreads() {
+        ThreadFactory threadFactory = virtualThreadFactory();
+        if (threadFactory == null) {
+            return new WorkerOperationQueue(URLConnectionOperation.DEFAULT_MAX_CONCURRENT_OPERATION_COUNT);
+        }
+
+        // Virtual threads are not pooled, every operation gets a new thread which ends with the operation
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), threadFactory);
+
+        return new WorkerOperationQueue(executor, RejectionPolicy.Reject, 0);
+    }
+
+    /**
+     Creates a queue with {@code maxConcurrentOperationCount} workers starting waiting operations by their
+     {@link URLConnectionOperation.QueuePriority}, aged by {@code DEFAULT_AGING_INTERVAL_MILLIS}.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+
+     @return A {@link WorkerOperationQueue} with an unbounded priority queue.
+     */
+    public static WorkerOperationQueue queueWithPriorities(int maxConcurrentOperationCount) {
+        return queueWithPriorities(maxConcurrentOperationCount, DEFAULT_AGING_INTERVAL_MILLIS);
+    }
+
+    /**
+     Creates a queue with {@code maxConcurrentOperationCount} workers starting waiting operations by their
+     {@link URLConnectionOperation.QueuePriority}. Operations with the same priority start in the order they are added.
+
+     Waiting ages an operation: an operation is ordered as if it was added {@code agingIntervalMillis} earlier for each
+     priority level above `Normal`, and later for each level below. A `VeryLow` operation thus starts before every
+     `VeryHigh` operation added more than four aging intervals after it, and no backlog of higher priority operations
+     starves it.
+
+     @param maxConcurrentOperationCount The maximum number of operations executing at the same time.
+     @param agingIntervalMillis The waiting time in milliseconds worth one priority level.
+
+     @return A {@link WorkerOperationQueue} with an unbounded priority queue.
+     */
+    public static WorkerOperationQueue queueWithPriorities(int maxConcurrentOperationCount, long agingIntervalMillis) {
+        if (maxConcurrentOperationCount < 1) {
+            throw new IllegalArgumentException("maxConcurrentOperationCount must be at least 1");
+        }
+        if (agingIntervalMillis < 1) {
+            throw new IllegalArgumentException("agingIntervalMillis must be at least 1");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentOperationCount, maxConcurrentOperationCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        return new WorkerOperationQueue(executor, RejectionPolicy.Reject, TimeUnit.MILLISECONDS.toNanos(agingIntervalMillis));
+    }
+
+    /**
+     Returns the key ordering a waiting operation, smaller keys start first: the time the operation is added, moved
+     earlier by one aging interval per priority level of a {@link URLConnectionOperation}.
+     */
+    static long agedPriorityKey(Operation operation, long agingIntervalNanos) {
+        int level = 0;
+        if (operation instanceof URLConnectionOperation) {
+            level = ((URLConnectionOperation) operation).getQueuePriority().getLevel();
+        }
+        return System.nanoTime() - level * agingIntervalNanos;
+    }
+
+    /**
+     Returns whether waiting operations start by their priority instead of in the order they are added.
+     */
+    public boolean isPrioritized() {
+        return this.agingIntervalNanos > 0;
+    }
+
+    /**
+     Returns true if the JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     Creates the platform worker thread executor for the public constructors.
+     */
+    private static ThreadPoolExecutor workerExecutor(int maxConcurrentOperationCount, int maxQueuedOperationCount) {
+        if (maxConcurrentOperationCount < 1) {
+            throw new IllegalArgumentException("maxConcurrentOperationCount must be at least 1");
+        }
+        if (maxQueuedOperationCount < 0) {
+            throw new IllegalArgumentException("maxQueuedOperationCount cannot be negative");
+        }
+
+        BlockingQueue<Runnable> workQueue;
+        if (maxQueuedOperationCount == 0) {
+            workQueue = new LinkedBlockingQueue<Runnable>();
+        } else {
+            workQueue = new ArrayBlockingQueue<Runnable>(maxQueuedOperationCount);
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentOperationCount, maxConcurrentOperationCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, workQueue, new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     Looks up a virtual thread factory with reflection, {@code Thread.ofVirtual()} is only available on Java 21
+     and later.
+
+     @return A virtual thread {@link ThreadFactory}, or null if virtual threads are not supported.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder,
+                    String.format("WorkerOperationQueue-%d-virtual-", queueNumber.getAndIncrement()), 1L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     Returns the maximum number of operations executing at the same time.
+     */
+    public int getMaxConcurrentOperationCount() {
+        return this.executor.getMaximumPoolSize();
+    }
+
+    /**
+     Returns the number of operations waiting for a worker.
+     */
+    public int getQueuedOperationCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     Returns the maximum number of waiting operations, or {@code Integer.MAX_VALUE} for an unbounded queue.
+     */
+    public int getMaxQueuedOperationCount() {
+        BlockingQueue<Runnable> workQueue = this.executor.getQueue();
+        return workQueue.size() + workQueue.remainingCapacity();
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return this.rejectionPolicy;
+    }
+
+    /**
+     Returns the number of operations completed with the `Rejected` state, because they were added to a full queue
+     or dropped from it.
+     */
+    public long getRejectedOperationCount() {
+        return this.rejectedOperationCount.get();
+    }
+
+    /**
+     Returns the number of operations currently executing.
+     */
+    public int getRunningOperationCount() {
+        return this.runningTasks.size();
+    }
+
+    @Override
+    public void addOperation(Operation operation) {
+        this.addOperationToQueueNamed(null, operation);
+    }
+
+    /**
+     Adds an operation to the queue. The queue name is ignored, all operations share the same workers.
+     */
+    @Override
+    public void addOperationToQueueNamed(String name, Operation operation) {
+        operation.setState(OperationState.InQueue);
+
+        OperationTask task = new OperationTask(operation);
+        while (true) {
+            try {
+                this.executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                switch (this.rejectionPolicy) {
+                    case CallerRuns:
+                        task.run();
+                        return;
+                    case Block:
+                        this.put(task);
+                        return;
+                    case DropOldest:
+                        Runnable oldestTask = this.executor.getQueue().poll();
+                        if (oldestTask != null) {
+                            this.reject(((OperationTask) oldestTask).operation);
+                        }
+                        // Retry with the room made, or taken by a worker meanwhile
+                        continue;
+                    default:
+                        this.reject(operation);
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     Waits until the work queue has room for a task.
+     */
+    private void put(OperationTask task) {
+        try {
+            this.executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.reject(task.operation);
+            return;
+        }
+
+        // The workers may have stopped while waiting, a task added to the work queue directly does not start one
+        this.executor.prestartCoreThread();
+    }
+
+    /**
+     Completes an operation that was not accepted with the `Rejected` state.
+     */
+    private void reject(Operation operation) {
+        this.rejectedOperationCount.incrementAndGet();
+        operation.setState(OperationState.Rejected);
+        operation.complete();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.executor.getQueue().isEmpty();
+    }
+
+    @Override
+    public boolean isEmpty(String name) {
+        return this.isEmpty();
+    }
+
+    /**
+     Cancels all waiting operations and the running operations.
+
+     Waiting operations are completed with the `Cancelled` state. A running {@link URLConnectionOperation} is
+     cancelled, which closes its connection, see {@code URLConnectionOperation.cancel()}. The workers of running
+     operations are interrupted as well, which releases operations blocked elsewhere, e.g. a virtual thread blocked
+     on socket I/O. The operation then fails with the resulting I/O exception.
+     */
+    @Override
+    public void cancelAllOperations() {
+        List<Runnable> waitingTasks = new ArrayList<Runnable>();
+        this.executor.getQueue().drainTo(waitingTasks);
+
+        for (Runnable runnable : waitingTasks) {
+            Operation operation = ((OperationTask) runnable).operation;
+            operation.setState(OperationState.Cancelled);
+            operation.complete();
+        }
+
+        for (OperationTask task : this.runningTasks) {
+            if (task.operation instanceof URLConnectionOperation) {
+                ((URLConnectionOperation) task.operation).cancel();
+            }
+            task.interrupt();
+        }
+    }
+
+    /**
+     Runnable executing a single operation on a worker thread, in the same order as {@link OperationQueue}. Tasks are
+     ordered by priority in the work queue of a priority queue.
+     */
+    private class OperationTask implements Runnable, Comparable<OperationTask> {
+
+        private final Operation operation;
+
+        /**
+         The worker executing the task, and whether it was interrupted by {@code interrupt()}, guarded by this.
+         */
+        private Thread thread;
+        private boolean interrupted;
+
+        /**
+         The order of the task among waiting tasks of a priority queue.
+         */
+        private final long priorityKey;
+        private final long sequenceNumber;
+
+        OperationTask(Operation operation) {
+            this.operation = operation;
+            this.priorityKey = (agingIntervalNanos > 0) ? agedPriorityKey(operation, agingIntervalNanos) : 0;
+            this.sequenceNumber = WorkerOperationQueue.this.sequenceNumber.getAndIncrement();
+        }
+
+        @Override
+        public int compareTo(OperationTask task) {
+            // Nanosecond times are compared by their difference, they may overflow
+            long difference = this.priorityKey - task.priorityKey;
+            if (difference != 0) {
+                return (difference < 0) ? -1 : 1;
+            }
+            return (this.sequenceNumber < task.sequenceNumber) ? -1 : ((this.sequenceNumber == task.sequenceNumber) ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                this.thread = Thread.currentThread();
+            }
+            runningTasks.add(this);
+
+            try {
+                try {
+                    this.operation.setState(OperationState.Running);
+                    this.operation.execute();
+                    this.operation.setState(OperationState.Finished);
+                } catch (Throwable t) {
+                    this.operation.failure(t);
+                    this.operation.setState(OperationState.Cancelled);
+                }
+                this.operation.complete();
+            } catch (Throwable t) {
+                this.operation.failure(t);
+            } finally {
+                runningTasks.remove(this);
+
+                // Do not leak a cancellation interrupt into the next operation on this worker. No interrupt
+                // follows once the thread is cleared.
+                synchronized (this) {
+                    this.thread = null;
+                    if (this.interrupted) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        synchronized void interrupt() {
+            if (this.thread != null) {
+                this.interrupted = true;
+                this.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     Creates named daemon worker threads so idle queues never keep the JVM alive.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String namePrefix = String.format("WorkerOperationQueue-%d-worker-", queueNumber.getAndIncrement());
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.namePrefix + this.threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class CoalescingRequestTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    private static final AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     Released to let the server respond.
+     */
+    private static volatile CountDownLatch release;
+
+    private HTTPClient client;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                int statusCode = exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200;
+                byte[] body = exchange.getRequestURI().toString().getBytes("UTF-8");
+                exchange.sendResponseHeaders(statusCode, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        requestCount.set(0);
+        release = new CountDownLatch(1);
+
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setCoalescesRequests(true);
+    }
+
+    private CountDownLatch get(String path, final List<Object> results) {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        client.GET(path, null, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                results.add(t);
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                results.add(response);
+                signal.countDown();
+            }
+        });
+        return signal;
+    }
+
+    private static void awaitRequestCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (requestCount.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, requestCount.get());
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneOperation() throws Exception {
+        List<Object> results = new CopyOnWriteArrayList<Object>();
+        List<CountDownLatch> signals = new CopyOnWriteArrayList<CountDownLatch>();
+
+        signals.add(get("/resource", results));
+        awaitRequestCount(1);
+        for (int i=0; i<49; i++) {
+            signals.add(get("/resource", results));
+        }
+        release.countDown();
+
+        for (CountDownLatch signal : signals) {
+            assertTrue(signal.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(50, results.size());
+        for (Object result : results) {
+            assertEquals("/resource", new String((byte[]) result, "UTF-8"));
+        }
+        assertEquals(1, requestCount.get());
+        assertEquals(49, client.getCoalescedRequestCount());
+
+        // Completed requests are not coalesced with later ones
+        assertTrue(get("/resource", results).await(10, TimeUnit.SECONDS));
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotCoalesced() throws Exception {
+        List<Object> results = new CopyOnWriteArrayList<Object>();
+
+        CountDownLatch a = get("/resource?page=1", results);
+        CountDownLatch b = get("/resource?page=2", results);
+        client.setDefaultHeader("Accept-Language", "de");
+        CountDownLatch c = get("/resource?page=1", results);
+        awaitRequestCount(3);
+        release.countDown();
+
+        assertTrue(a.await(10, TimeUnit.SECONDS));
+        assertTrue(b.await(10, TimeUnit.SECONDS));
+        assertTrue(c.await(10, TimeUnit.SECONDS));
+        assertEquals(0, client.getCoalescedRequestCount());
+    }
+
+    @Test
+    public void testFailureIsFannedOut() throws Exception {
+        List<Object> results = new CopyOnWriteArrayList<Object>();
+
+        CountDownLatch a = get("/missing", results);
+        awaitRequestCount(1);
+        CountDownLatch b = get("/missing", results);
+        release.countDown();
+
+        assertTrue(a.await(10, TimeUnit.SECONDS));
+        assertTrue(b.await(10, TimeUnit.SECONDS));
+        assertTrue(results.get(0) instanceof Throwable);
+        assertTrue(results.get(1) instanceof Throwable);
+        assertEquals(1, requestCount.get());
+    }
+}
@@ -0,0 +1,205 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.URLConnectionOperation.QueuePriority;
+import com.javanetworking.gson.JsonElement;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class CompletableFutureTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    /**
+     Released to let the server respond to requests for `/slow`.
+     */
+    private static volatile CountDownLatch release;
+
+    private HTTPClient client;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/slow")) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                int statusCode = path.equals("/missing") ? 404 : 200;
+                byte[] body = String.format("{\"method\":\"%s\"}", exchange.getRequestMethod()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("X-Path", path);
+                exchange.sendResponseHeaders(statusCode, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        release = new CountDownLatch(1);
+
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setMaxConcurrentOperationCount(4);
+    }
+
+    @Test
+    public void testAllOfCompletesWithEveryResponse() throws Exception {
+        List<CompletableFuture<HTTPResponse>> futures = new ArrayList<CompletableFuture<HTTPResponse>>();
+        for (int i=0; i<20; i++) {
+            futures.add(client.GET("/item" + i, null));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        for (int i=0; i<20; i++) {
+            HTTPResponse response = futures.get(i).get();
+            assertEquals(200, response.getStatusCode());
+            assertEquals("/item" + i, response.getHeaderField("x-path"));
+            assertTrue(response.getBody() instanceof byte[]);
+        }
+    }
+
+    @Test
+    public void testFutureCompletesOnWorkerThread() throws Exception {
+        final Thread callerThread = Thread.currentThread();
+        final Thread[] completionThread = new Thread[1];
+
+        CompletableFuture<HTTPResponse> future = client.POST("/post", null);
+        future.whenComplete(new BiConsumer<HTTPResponse, Throwable>() {
+            @Override
+            public void accept(HTTPResponse response, Throwable t) {
+                completionThread[0] = Thread.currentThread();
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertNotNull(completionThread[0]);
+        assertFalse(completionThread[0] == callerThread);
+    }
+
+    @Test
+    public void testResponseBodyIsParsedByRegisteredOperation() throws Exception {
+        client.registerHTTPOperationClass(JSONURLRequestOperation.class);
+
+        String[] methods = { "GET", "PUT", "DELETE" };
+        List<CompletableFuture<HTTPResponse>> futures = new ArrayList<CompletableFuture<HTTPResponse>>();
+        futures.add(client.GET("/get", null));
+        futures.add(client.PUT("/put", null));
+        futures.add(client.DELETE("/delete", null));
+
+        for (int i=0; i<methods.length; i++) {
+            HTTPResponse response = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertTrue(response.getBody() instanceof JsonElement);
+            assertEquals(methods[i], ((JsonElement) response.getBody()).getAsJsonObject().get("method").getAsString());
+        }
+    }
+
+    @Test
+    public void testFutureWithPriorityCompletesWithResponse() throws Exception {
+        CompletableFuture<HTTPResponse> get = client.futureWithMethodPathParametersAndPriority("GET", "/get", null, QueuePriority.High);
+        CompletableFuture<HTTPResponse> put = client.futureWithMethodPathParametersAndPriority("PUT", "/put", null, QueuePriority.Low);
+
+        assertEquals("/get", get.get(10, TimeUnit.SECONDS).getHeaderField("x-path"));
+        assertEquals("/put", put.get(10, TimeUnit.SECONDS).getHeaderField("x-path"));
+    }
+
+    @Test
+    public void testNullCompletionIsNotAmbiguous() throws Exception {
+        // Compiles like it did before the future methods were added
+        client.GET("/get", null, null);
+        client.POST("/post", null, null);
+    }
+
+    @Test
+    public void testFailureCompletesExceptionally() throws Exception {
+        CompletableFuture<HTTPResponse> future = client.GET("/missing", null);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            assertNotNull(e.getCause());
+        }
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCancellingFutureCancelsOperation() throws Exception {
+        client.setMaxConcurrentOperationCount(1);
+
+        // The slow request takes the only worker until the server is released
+        CompletableFuture<HTTPResponse> slow = client.GET("/slow", null);
+        CompletableFuture<HTTPResponse> next = client.GET("/next", null);
+        Thread.sleep(200);
+
+        assertTrue(slow.cancel(true));
+        assertTrue(slow.isCancelled());
+        try {
+            slow.get();
+            fail("Expected the future to be cancelled");
+        } catch (CancellationException e) {}
+
+        // Closing the connection frees the worker before the server responds
+        try {
+            assertEquals(200, next.get(5, TimeUnit.SECONDS).getStatusCode());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testCancellingFutureBeforeExecutionSkipsRequest() throws Exception {
+        client.setMaxConcurrentOperationCount(1);
+
+        CompletableFuture<HTTPResponse> slow = client.GET("/slow", null);
+        CompletableFuture<HTTPResponse> waiting = client.POST("/waiting", null);
+        assertTrue(waiting.cancel(false));
+        release.countDown();
+
+        assertEquals(200, slow.get(10, TimeUnit.SECONDS).getStatusCode());
+        assertTrue(waiting.isCancelled());
+    }
+}
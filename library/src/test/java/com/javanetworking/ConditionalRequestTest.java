@@ -0,0 +1,189 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ConditionalRequestTest {
+
+    private static final String LAST_MODIFIED = "Tue, 15 Nov 1994 12:45:26 GMT";
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static NIOTransportEngine engine;
+
+    private static volatile String version;
+    private static final AtomicInteger requestCount = new AtomicInteger();
+    private static final AtomicInteger notModifiedCount = new AtomicInteger();
+
+    private HTTPClient client;
+    private MemoryURLResponseCache cache;
+
+    /**
+     Responds with the current version as body, or 304 if the request validates the current version.
+     */
+    private static class VersionHandler implements HttpHandler {
+
+        private final boolean usesEntityTag;
+        private final String notModifiedCacheControl;
+
+        VersionHandler(boolean usesEntityTag, String notModifiedCacheControl) {
+            this.usesEntityTag = usesEntityTag;
+            this.notModifiedCacheControl = notModifiedCacheControl;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+
+            String entityTag = "\"" + version + "\"";
+            String lastModified = version.equals("v1") ? LAST_MODIFIED : "Wed, 16 Nov 1994 12:45:26 GMT";
+
+            boolean notModified = this.usesEntityTag
+                ? entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))
+                : lastModified.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+
+            if (this.usesEntityTag) {
+                exchange.getResponseHeaders().set("ETag", entityTag);
+            } else {
+                exchange.getResponseHeaders().set("Last-Modified", lastModified);
+            }
+
+            if (notModified) {
+                notModifiedCount.incrementAndGet();
+                if (this.notModifiedCacheControl != null) {
+                    exchange.getResponseHeaders().set("Cache-Control", this.notModifiedCacheControl);
+                }
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = String.format("{\"version\":\"%s\"}", version).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/etag", new VersionHandler(true, null));
+        server.createContext("/last-modified", new VersionHandler(false, null));
+        server.createContext("/refreshed", new VersionHandler(true, "max-age=60"));
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+        engine = new NIOTransportEngine(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        engine.close();
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        version = "v1";
+        requestCount.set(0);
+        notModifiedCount.set(0);
+
+        cache = new MemoryURLResponseCache();
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setResponseCache(cache);
+    }
+
+    private String get(String path) throws Exception {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+
+        client.GET(path, null, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        if (result[0] instanceof Throwable) {
+            throw new AssertionError(result[0]);
+        }
+        return new String((byte[]) result[0], "UTF-8");
+    }
+
+    @Test
+    public void testNotModifiedEntityTagCompletesWithCachedBody() throws Exception {
+        assertEquals("{\"version\":\"v1\"}", get("/etag"));
+        assertEquals("{\"version\":\"v1\"}", get("/etag"));
+        assertEquals("{\"version\":\"v1\"}", get("/etag"));
+
+        assertEquals(3, requestCount.get());
+        assertEquals(2, notModifiedCount.get());
+    }
+
+    @Test
+    public void testNotModifiedLastModifiedCompletesWithCachedBody() throws Exception {
+        get("/last-modified");
+
+        assertEquals("{\"version\":\"v1\"}", get("/last-modified"));
+        assertEquals(1, notModifiedCount.get());
+    }
+
+    @Test
+    public void testModifiedResponseReplacesCachedBody() throws Exception {
+        get("/etag");
+        version = "v2";
+
+        assertEquals("{\"version\":\"v2\"}", get("/etag"));
+        assertEquals("{\"version\":\"v2\"}", get("/etag"));
+        assertEquals(1, notModifiedCount.get());
+    }
+
+    @Test
+    public void testNotModifiedRefreshesFreshness() throws Exception {
+        get("/refreshed");
+        get("/refreshed");
+        get("/refreshed");
+
+        assertEquals(2, requestCount.get());
+        assertEquals(1, notModifiedCount.get());
+        assertTrue(cache.cachedResponseForRequest(client.connectionWithMethodPathAndParameters("GET", "/refreshed", null)).isFresh());
+    }
+
+    @Test
+    public void testNotModifiedWithTransportEngine() throws Exception {
+        client.setTransportEngine(engine);
+
+        get("/etag");
+
+        assertEquals("{\"version\":\"v1\"}", get("/etag"));
+        assertEquals(1, notModifiedCount.get());
+    }
+}
@@ -0,0 +1,302 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+
+public class ConnectionPoolTest {
+
+    /**
+     Loopback HTTP/1.1 server answering {@code requestsPerConnection} requests on each connection. A
+     connection receiving one more request is closed without a response.
+     */
+    private static class KeepAliveServer implements Runnable {
+
+        private final ServerSocket serverSocket;
+        private final int requestsPerConnection;
+        private final AtomicInteger acceptedConnections;
+
+        KeepAliveServer(int requestsPerConnection) throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            this.requestsPerConnection = requestsPerConnection;
+            this.acceptedConnections = new AtomicInteger();
+
+            Thread thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getBaseURL() {
+            return String.format("http://127.0.0.1:%d", this.serverSocket.getLocalPort());
+        }
+
+        @Override
+        public void run() {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    final Socket socket = this.serverSocket.accept();
+                    this.acceptedConnections.incrementAndGet();
+
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                OutputStream os = socket.getOutputStream();
+
+                for (int i=0; ; i++) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    while (line != null && !line.isEmpty()) {
+                        line = reader.readLine();
+                    }
+                    if (i == this.requestsPerConnection) {
+                        break;
+                    }
+
+                    os.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                    os.flush();
+                }
+            } catch (IOException e) {
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        void close() throws IOException {
+            this.serverSocket.close();
+        }
+    }
+
+    private KeepAliveServer server;
+    private NIOTransportEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new NIOTransportEngine(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        engine.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private String get(HTTPClient client) throws InterruptedException {
+        return request(client, "GET");
+    }
+
+    private String request(HTTPClient client, String method) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final StringBuilder resultSB = new StringBuilder();
+
+        HTTPCompletion completion = new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                resultSB.append(t.toString());
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                resultSB.append(new String((byte[]) response));
+                signal.countDown();
+            }
+        };
+        if (method.equals("POST")) {
+            client.POST("/", Collections.<String, Object>singletonMap("key", "value"), completion);
+        } else {
+            client.GET("/", null, completion);
+        }
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return resultSB.toString();
+    }
+
+    private HTTPClient clientWithPool(ConnectionPool pool) {
+        HTTPClient client = HTTPClient.clientWithBaseURL(server.getBaseURL());
+        client.setTransportEngine(engine);
+        client.setConnectionPool(pool);
+        client.setTimeout(5000);
+        return client;
+    }
+
+    private void waitForIdleConnections(ConnectionPool pool, int count) throws InterruptedException {
+        for (int i=0; i<100 && pool.getIdleConnectionCount() != count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testSequentialRequestsReuseConnection() throws Exception {
+        server = new KeepAliveServer(100);
+        ConnectionPool pool = new ConnectionPool();
+        HTTPClient client = clientWithPool(pool);
+
+        for (int i=0; i<5; i++) {
+            assertEquals("ok", get(client));
+            waitForIdleConnections(pool, 1);
+        }
+
+        assertEquals(1, server.acceptedConnections.get());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(4, pool.getHitCount());
+    }
+
+    @Test
+    public void testWithoutPoolEveryRequestOpensConnection() throws Exception {
+        server = new KeepAliveServer(100);
+        HTTPClient client = clientWithPool(null);
+
+        for (int i=0; i<3; i++) {
+            assertEquals("ok", get(client));
+        }
+
+        assertEquals(3, server.acceptedConnections.get());
+    }
+
+    @Test
+    public void testPrewarmOpensIdleConnections() throws Exception {
+        server = new KeepAliveServer(100);
+        ConnectionPool pool = new ConnectionPool(4, 8, 30000);
+        HTTPClient client = clientWithPool(pool);
+
+        client.prewarmConnections(3);
+        waitForIdleConnections(pool, 3);
+        // Connections are established before the server thread accepts them
+        for (int i=0; i<100 && server.acceptedConnections.get() != 3; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(3, server.acceptedConnections.get());
+
+        assertEquals("ok", get(client));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void testIdleConnectionIsEvictedAfterKeepAlive() throws Exception {
+        server = new KeepAliveServer(100);
+        ConnectionPool pool = new ConnectionPool(4, 8, 100);
+        HTTPClient client = clientWithPool(pool);
+
+        assertEquals("ok", get(client));
+        // The connection returns to the pool after the request completes, wait for the eviction itself
+        for (int i=0; i<100 && pool.getEvictionCount() == 0; i++) {
+            Thread.sleep(50);
+        }
+        waitForIdleConnections(pool, 0);
+
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(0, pool.getConnectionCount());
+    }
+
+    @Test
+    public void testStaleConnectionIsRetried() throws Exception {
+        server = new KeepAliveServer(1);
+        ConnectionPool pool = new ConnectionPool();
+        HTTPClient client = clientWithPool(pool);
+
+        assertEquals("ok", get(client));
+        waitForIdleConnections(pool, 1);
+
+        // The server closes the reused connection without a response
+        assertEquals("ok", get(client));
+
+        assertEquals(1, pool.getStaleRetryCount());
+        assertEquals(2, server.acceptedConnections.get());
+    }
+
+    @Test
+    public void testStaleConnectionIsNotRetriedForPOST() throws Exception {
+        server = new KeepAliveServer(1);
+        ConnectionPool pool = new ConnectionPool();
+        HTTPClient client = clientWithPool(pool);
+
+        assertEquals("ok", get(client));
+        waitForIdleConnections(pool, 1);
+
+        // The server may have processed the POST before closing the connection
+        assertTrue(request(client, "POST").contains("Exception"));
+
+        assertEquals(0, pool.getStaleRetryCount());
+        assertEquals(1, server.acceptedConnections.get());
+    }
+
+    @Test
+    public void testClosingEngineFailsEveryWaitingExchange() throws Exception {
+        // Connections are established by the backlog but never accepted, so no request gets a response
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        try {
+            ConnectionPool pool = new ConnectionPool(1, 1, 30000);
+            HTTPClient client = HTTPClient.clientWithBaseURL(String.format("http://127.0.0.1:%d", serverSocket.getLocalPort()));
+            client.setTransportEngine(engine);
+            client.setConnectionPool(pool);
+            client.setTimeout(60000);
+
+            final CountDownLatch signal = new CountDownLatch(4);
+            final AtomicInteger failures = new AtomicInteger();
+            HTTPCompletion completion = new HTTPCompletion() {
+                @Override
+                public void failure(URLRequest request, Throwable t) {
+                    failures.incrementAndGet();
+                    signal.countDown();
+                }
+                @Override
+                public void success(URLRequest request, Object response) {
+                    signal.countDown();
+                }
+            };
+            for (int i=0; i<4; i++) {
+                client.GET("/", null, completion);
+            }
+            for (int i=0; i<100 && pool.getConnectionCount() != 1; i++) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(200);
+            assertEquals(4, signal.getCount());
+
+            engine.close();
+
+            assertTrue(signal.await(5, TimeUnit.SECONDS));
+            assertEquals(4, failures.get());
+        } finally {
+            serverSocket.close();
+        }
+    }
+}
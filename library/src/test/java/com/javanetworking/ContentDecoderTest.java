@@ -0,0 +1,200 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ContentDecoderTest {
+
+    private static byte[] body;
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static NIOTransportEngine engine;
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream os = new GZIPOutputStream(compressed);
+        os.write(bytes);
+        os.close();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream os = new DeflaterOutputStream(compressed);
+        os.write(bytes);
+        os.close();
+        return compressed.toByteArray();
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i=0; i<5000; i++) {
+            json.append(String.format("{\"id\":%d,\"name\":\"item\"},", i));
+        }
+        json.append("{}]");
+        body = json.toString().getBytes("UTF-8");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] response = body;
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response = gzip(body);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+        });
+        server.createContext("/truncated", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] compressed = gzip(body);
+                byte[] response = Arrays.copyOf(compressed, compressed.length / 2);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+        });
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+        engine = new NIOTransportEngine(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        engine.close();
+        server.stop(0);
+    }
+
+    private byte[] decodeInChunks(String contentEncoding, byte[] encoded, int chunkLength) throws IOException {
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+
+        ContentDecoder decoder = ContentDecoder.decoderForContentEncoding(contentEncoding, new ContentDecoder.DataSink() {
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                decoded.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+        });
+
+        for (int i=0; i<encoded.length; i+=chunkLength) {
+            decoder.decode(ByteBuffer.wrap(encoded, i, Math.min(chunkLength, encoded.length - i)));
+        }
+        decoder.finish();
+        decoder.end();
+
+        return decoded.toByteArray();
+    }
+
+    @Test
+    public void testGzipIsDecodedInAnyChunking() throws IOException {
+        byte[] encoded = gzip(body);
+
+        assertArrayEquals(body, decodeInChunks("gzip", encoded, 1));
+        assertArrayEquals(body, decodeInChunks("gzip", encoded, 7));
+        assertArrayEquals(body, decodeInChunks("gzip", encoded, encoded.length));
+    }
+
+    @Test
+    public void testDeflateIsDecoded() throws IOException {
+        assertArrayEquals(body, decodeInChunks("deflate", deflate(body), 100));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedGzipFails() throws IOException {
+        byte[] encoded = gzip(body);
+        decodeInChunks("gzip", Arrays.copyOf(encoded, encoded.length - 4), 100);
+    }
+
+    private HTTPURLRequestOperation get(HTTPClient client, String path, final Object[] result) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        URLRequest request = client.connectionWithMethodPathAndParameters("GET", path, null);
+        HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(request, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+        client.prepareHTTPURLRequestOperationForExecution(operation);
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return operation;
+    }
+
+    @Test
+    public void testClientInflatesCompressedResponses() throws Exception {
+        for (NIOTransportEngine transportEngine : new NIOTransportEngine[] { null, engine }) {
+            HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+            client.setTransportEngine(transportEngine);
+            client.setAcceptsCompressedResponses(true);
+
+            Object[] result = new Object[1];
+            HTTPURLRequestOperation operation = get(client, "/json", result);
+
+            assertArrayEquals(body, (byte[]) result[0]);
+            assertEquals(body.length, operation.getUncompressedByteCount());
+            assertTrue(operation.getCompressedByteCount() < body.length / 5);
+        }
+    }
+
+    @Test
+    public void testClientDoesNotAskForCompressionByDefault() throws Exception {
+        Object[] result = new Object[1];
+        HTTPURLRequestOperation operation = get(HTTPClient.clientWithBaseURL(baseURL), "/json", result);
+
+        assertArrayEquals(body, (byte[]) result[0]);
+        assertEquals(body.length, operation.getCompressedByteCount());
+        assertEquals(body.length, operation.getUncompressedByteCount());
+    }
+
+    @Test
+    public void testTruncatedResponseFails() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setTransportEngine(engine);
+        client.setAcceptsCompressedResponses(true);
+
+        Object[] result = new Object[1];
+        get(client, "/truncated", result);
+
+        assertTrue(result[0] instanceof EOFException);
+    }
+}
@@ -0,0 +1,250 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.operationqueue.Operation.OperationState;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DeadlineTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    private static final AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     Released to let the server respond to requests for `/slow`.
+     */
+    private static volatile CountDownLatch release;
+
+    private HTTPClient client;
+
+    /**
+     Completion recording the failure of an operation.
+     */
+    private static class RecordingCompletion implements HTTPCompletion {
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Throwable throwable;
+        volatile long completedNanos;
+
+        @Override
+        public void failure(URLRequest request, Throwable t) {
+            throwable = t;
+            completedNanos = System.nanoTime();
+            completed.countDown();
+        }
+
+        @Override
+        public void success(URLRequest request, Object response) {
+            completedNanos = System.nanoTime();
+            completed.countDown();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                if (exchange.getRequestURI().getPath().equals("/slow")) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        requestCount.set(0);
+        release = new CountDownLatch(1);
+
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setTimeout(5000);
+    }
+
+    private HTTPURLRequestOperation enqueue(String path, RecordingCompletion completion) {
+        return enqueue(path, 0, completion);
+    }
+
+    private HTTPURLRequestOperation enqueue(String path, long totalTimeout, RecordingCompletion completion) {
+        HTTPURLRequestOperation operation = client.operationWithURLRequest(client.connectionWithMethodPathAndParameters("GET", path, null), completion);
+        operation.setTotalTimeout(totalTimeout);
+        client.prepareHTTPURLRequestOperationForExecution(operation);
+        return operation;
+    }
+
+    @Test
+    public void testConnectAndReadTimeoutsAreSeparate() throws Exception {
+        URLRequest request = URLRequest.requestWithURLString(baseURL);
+        request.setConnectTimeout(300);
+        assertEquals(300, request.getConnectTimeout());
+        assertEquals(300, request.getReadTimeout());
+
+        request.setReadTimeout(700);
+        request.setConnectTimeout(400);
+        assertEquals(400, request.getConnectTimeout());
+        assertEquals(700, request.getReadTimeout());
+
+        URLConnection urlConnection = request.getURLConnection();
+        assertEquals(400, urlConnection.getConnectTimeout());
+        assertEquals(700, urlConnection.getReadTimeout());
+
+        client.setConnectTimeout(100);
+        client.setReadTimeout(200);
+        URLRequest clientRequest = client.connectionWithMethodPathAndParameters("GET", "/", null);
+        assertEquals(100, clientRequest.getConnectTimeout());
+        assertEquals(200, clientRequest.getReadTimeout());
+    }
+
+    @Test
+    public void testReadTimeoutFailsWithSocketTimeout() throws Exception {
+        client.setReadTimeout(200);
+
+        RecordingCompletion completion = new RecordingCompletion();
+        HTTPURLRequestOperation operation = enqueue("/slow", completion);
+
+        try {
+            assertTrue(completion.completed.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(completion.throwable instanceof SocketTimeoutException);
+        assertFalse(operation.isTimedOut());
+    }
+
+    @Test
+    public void testTotalTimeoutCancelsRunningRequest() throws Exception {
+        client.setTotalTimeout(300);
+
+        RecordingCompletion completion = new RecordingCompletion();
+        long startNanos = System.nanoTime();
+        HTTPURLRequestOperation operation = enqueue("/slow", completion);
+
+        try {
+            assertTrue(completion.completed.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(completion.completedNanos - startNanos < TimeUnit.SECONDS.toNanos(3));
+        assertTrue(completion.throwable instanceof TimeoutException);
+        assertTrue(operation.isTimedOut());
+        assertEquals(OperationState.Cancelled, operation.getState());
+    }
+
+    @Test
+    public void testExpiredOperationIsDroppedBeforeExecution() throws Exception {
+        client.setMaxConcurrentOperationCount(1);
+        client.setTotalTimeout(500);
+
+        // The first request holds the only worker until its deadline expires, after the deadline of the second
+        RecordingCompletion first = new RecordingCompletion();
+        RecordingCompletion second = new RecordingCompletion();
+        enqueue("/slow", first);
+        HTTPURLRequestOperation waiting = enqueue("/fast", 100, second);
+
+        try {
+            assertTrue(first.completed.await(5, TimeUnit.SECONDS));
+            assertTrue(second.completed.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        assertTrue(second.throwable instanceof TimeoutException);
+        assertTrue(waiting.isTimedOut());
+        assertEquals(OperationState.Cancelled, waiting.getState());
+        // Only the first request reached the server
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void testRequestWithinTotalTimeoutSucceeds() throws Exception {
+        client.setTotalTimeout(5000);
+
+        RecordingCompletion completion = new RecordingCompletion();
+        HTTPURLRequestOperation operation = enqueue("/fast", completion);
+
+        assertTrue(completion.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(null, completion.throwable);
+        assertFalse(operation.isTimedOut());
+        assertTrue(operation.getDeadline() != 0);
+    }
+
+    @Test
+    public void testCancelWhileConnectingClosesConnection() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        try {
+            URLRequest request = URLRequest.requestWithURLString("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+            request.setReadTimeout(10000);
+
+            RecordingCompletion completion = new RecordingCompletion();
+            final HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(request, completion);
+
+            // Cancelled once the connection is accepted, before the URLConnection can be closed, and never answered
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        operation.cancel();
+                        socket.getInputStream().read(new byte[1024]);
+                    } catch (IOException e) {}
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            operation.start();
+
+            assertTrue(completion.completed.await(5, TimeUnit.SECONDS));
+            assertTrue(completion.throwable != null);
+            assertTrue(operation.isCancelled());
+        } finally {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.URLConnectionOperation.URLDataConsumer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DiskURLResponseCacheTest {
+
+    private static final byte[] BODY = new byte[200000];
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static final AtomicInteger requestCount = new AtomicInteger();
+
+    private Path directory;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        for (int i=0; i<BODY.length; i++) {
+            BODY[i] = (byte) (i % 241);
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/snapshot", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                exchange.sendResponseHeaders(200, BODY.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(BODY);
+                os.close();
+            }
+        });
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("responses");
+        requestCount.set(0);
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        for (Path file : files) {
+            Files.delete(file);
+        }
+        files.close();
+        Files.delete(directory);
+    }
+
+    private static CachedURLResponse response(String urlString, byte[] data) {
+        Map<String, List<String>> headerFields = new HashMap<String, List<String>>();
+        headerFields.put("Content-Type", Collections.singletonList("application/octet-stream"));
+        return new CachedURLResponse(urlString, 200, headerFields, data, new HashMap<String, String>(), System.currentTimeMillis() + 60000);
+    }
+
+    private List<String> dataFileNames() throws IOException {
+        List<String> names = new ArrayList<String>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.data");
+        for (Path file : files) {
+            names.add(file.getFileName().toString());
+        }
+        files.close();
+        return names;
+    }
+
+    @Test
+    public void testResponsesSurviveRestart() throws Exception {
+        URLRequest request = URLRequest.requestWithURLString("http://example.com/snapshot");
+
+        DiskURLResponseCache cache = new DiskURLResponseCache(directory);
+        cache.storeCachedResponse(request, response(request.getURLString(), BODY));
+
+        DiskURLResponseCache reopened = new DiskURLResponseCache(directory);
+        CachedURLResponse response = reopened.cachedResponseForRequest(request);
+
+        assertEquals(1, reopened.getResponseCount());
+        assertEquals(1, reopened.getHitCount());
+        assertTrue(response.isFresh());
+        assertEquals("application/octet-stream", response.getHeaderFields().get("Content-Type").get(0));
+
+        ByteBuffer data = response.getDataBuffer();
+        assertFalse(data.hasArray());
+        assertArrayEquals(BODY, response.getData());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResponseIsEvicted() throws Exception {
+        URLRequest a = URLRequest.requestWithURLString("http://a/");
+        URLRequest b = URLRequest.requestWithURLString("http://b/");
+        URLRequest c = URLRequest.requestWithURLString("http://c/");
+
+        DiskURLResponseCache cache = new DiskURLResponseCache(directory, 3000);
+        cache.storeCachedResponse(a, response("http://a/", new byte[1000]));
+        cache.storeCachedResponse(b, response("http://b/", new byte[1000]));
+        cache.cachedResponseForRequest(a);
+        cache.storeCachedResponse(c, response("http://c/", new byte[1000]));
+
+        assertEquals(2, cache.getResponseCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(null, cache.cachedResponseForRequest(b));
+        assertEquals(2, dataFileNames().size());
+
+        DiskURLResponseCache reopened = new DiskURLResponseCache(directory, 3000);
+        assertTrue(reopened.cachedResponseForRequest(a) != null);
+        assertTrue(reopened.cachedResponseForRequest(c) != null);
+    }
+
+    @Test
+    public void testConcurrentlyStoredResponsesAreIndexed() throws Exception {
+        final DiskURLResponseCache cache = new DiskURLResponseCache(directory);
+        final CountDownLatch finished = new CountDownLatch(8);
+
+        for (int t=0; t<8; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i=0; i<25; i++) {
+                        String urlString = String.format("http://example.com/%d/%d", thread, i);
+                        cache.storeCachedResponse(URLRequest.requestWithURLString(urlString), response(urlString, new byte[100]));
+                    }
+                    finished.countDown();
+                }
+            }).start();
+        }
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+
+        // The index written last records every response
+        DiskURLResponseCache reopened = new DiskURLResponseCache(directory);
+        assertEquals(200, reopened.getResponseCount());
+        assertEquals(200, dataFileNames().size());
+        assertTrue(reopened.cachedResponseForRequest(URLRequest.requestWithURLString("http://example.com/7/24")) != null);
+    }
+
+    @Test
+    public void testUnindexedDataFilesAreDeleted() throws Exception {
+        Files.write(directory.resolve("partial.data"), new byte[10]);
+        Files.write(directory.resolve("index.json"), "not json".getBytes("UTF-8"));
+
+        DiskURLResponseCache cache = new DiskURLResponseCache(directory);
+
+        assertEquals(0, cache.getResponseCount());
+        assertTrue(dataFileNames().isEmpty());
+    }
+
+    @Test
+    public void testLargeResponsesAreServedFromDisk() throws Exception {
+        MemoryURLResponseCache memoryCache = new MemoryURLResponseCache();
+        DiskURLResponseCache diskCache = new DiskURLResponseCache(directory);
+
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setResponseCache(new TieredURLResponseCache(memoryCache, diskCache, 64 * 1024));
+
+        final List<Object> results = new ArrayList<Object>();
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i=0; i<2; i++) {
+            final CountDownLatch signal = new CountDownLatch(1);
+
+            URLRequest request = client.connectionWithMethodPathAndParameters("GET", "/snapshot", null);
+            HTTPURLRequestOperation operation = new HTTPURLRequestOperation(request, new HTTPCompletion() {
+                @Override
+                public void failure(URLRequest request, Throwable t) {
+                    results.add(t);
+                    signal.countDown();
+                }
+                @Override
+                public void success(URLRequest request, Object response) {
+                    results.add(response);
+                    signal.countDown();
+                }
+            });
+            if (i == 1) {
+                operation.setDataConsumer(new URLDataConsumer() {
+                    @Override
+                    public void didReceiveResponse(URLRequest urlRequest) {
+                    }
+                    @Override
+                    public void didReceiveData(URLRequest urlRequest, ByteBuffer data) {
+                        buffers.add(data);
+                    }
+                });
+            }
+            client.prepareHTTPURLRequestOperationForExecution(operation);
+
+            assertTrue(signal.await(10, TimeUnit.SECONDS));
+        }
+
+        assertArrayEquals(BODY, (byte[]) results.get(0));
+        assertEquals(null, results.get(1));
+        assertEquals(1, requestCount.get());
+
+        assertEquals(0, memoryCache.getResponseCount());
+        assertEquals(1, diskCache.getResponseCount());
+        assertEquals(1, diskCache.getHitCount());
+
+        // The consumer receives the mapped file in one buffer
+        assertEquals(1, buffers.size());
+        assertFalse(buffers.get(0).hasArray());
+        assertEquals(BODY.length, buffers.get(0).remaining());
+    }
+}
@@ -0,0 +1,231 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class FileDownloadURLRequestOperationTest {
+
+    private static final byte[] BODY = new byte[256 * 1024];
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static NIOTransportEngine engine;
+
+    private Path destination;
+
+    /**
+     Serves {@code BODY} with the ETag {@code "v1"}, honoring `Range: bytes=N-` unless {@code ignoresRange} is set or
+     an `If-Range` header does not match.
+     */
+    private static class RangeHandler implements HttpHandler {
+
+        private final boolean ignoresRange;
+
+        RangeHandler(boolean ignoresRange) {
+            this.ignoresRange = ignoresRange;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+
+            int start = 0;
+            if (range != null && !ignoresRange && (ifRange == null || ifRange.equals("\"v1\""))) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                if (start >= BODY.length) {
+                    exchange.getResponseHeaders().set("Content-Range", String.format("bytes */%d", BODY.length));
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, BODY.length-1, BODY.length));
+            }
+            exchange.sendResponseHeaders(start > 0 ? 206 : 200, BODY.length - start);
+            OutputStream os = exchange.getResponseBody();
+            os.write(BODY, start, BODY.length - start);
+            os.close();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        for (int i=0; i<BODY.length; i++) {
+            BODY[i] = (byte) (i * 31);
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/file", new RangeHandler(false));
+        server.createContext("/norange", new RangeHandler(true));
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+        engine = new NIOTransportEngine(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        engine.close();
+        server.stop(0);
+    }
+
+    @Before
+    public void createDestination() throws IOException {
+        destination = Files.createTempFile("download", ".bin");
+        Files.delete(destination);
+    }
+
+    @After
+    public void deleteDestination() throws IOException {
+        Files.deleteIfExists(destination);
+        Files.deleteIfExists(FileDownloadURLRequestOperation.validatorFileForDestination(destination));
+    }
+
+    private Object download(FileDownloadURLRequestOperation operation) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+
+        operation.setCompletion(new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+        operation.start();
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    @Test
+    public void testDownloadWritesFile() throws Exception {
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(URLRequest.requestWithURLString(baseURL + "/file"), destination, null);
+
+        assertEquals(destination, download(operation));
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+        assertEquals(BODY.length, operation.getBytesWritten());
+        assertTrue(operation.getBytesPerSecond() > 0);
+        assertFalse(Files.exists(FileDownloadURLRequestOperation.validatorFileForDestination(destination)));
+    }
+
+    @Test
+    public void testPartialFileIsResumed() throws Exception {
+        Files.write(destination, Arrays.copyOf(BODY, 1000));
+
+        URLRequest request = URLRequest.requestWithURLString(baseURL + "/file");
+        request.setTransportEngine(engine);
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(request, destination, null);
+
+        assertEquals(destination, download(operation));
+        assertEquals(1000, operation.getResumeOffset());
+        assertEquals(BODY.length - 1000, operation.getBytesWritten());
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testResumeAsksForIdentityEncoding() throws Exception {
+        Files.write(destination, Arrays.copyOf(BODY, 1000));
+
+        URLRequest request = URLRequest.requestWithURLString(baseURL + "/file");
+        request.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(request, destination, null);
+
+        // The range counts bytes of the decoded file
+        assertEquals("identity", request.getRequestProperties().get("Accept-Encoding"));
+        assertEquals(destination, download(operation));
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testIgnoredRangeReplacesFile() throws Exception {
+        Files.write(destination, new byte[] { 1, 2, 3 });
+
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(URLRequest.requestWithURLString(baseURL + "/norange"), destination, null);
+
+        assertEquals(destination, download(operation));
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testResumeSendsStoredValidator() throws Exception {
+        Files.write(destination, Arrays.copyOf(BODY, 1000));
+        Files.write(FileDownloadURLRequestOperation.validatorFileForDestination(destination), "\"v1\"".getBytes("UTF-8"));
+
+        URLRequest request = URLRequest.requestWithURLString(baseURL + "/file");
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(request, destination, null);
+        assertEquals("\"v1\"", request.getRequestProperties().get("If-Range"));
+
+        assertEquals(destination, download(operation));
+        assertEquals(BODY.length - 1000, operation.getBytesWritten());
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testChangedResourceReplacesPartialFile() throws Exception {
+        Files.write(destination, new byte[1000]);
+        Files.write(FileDownloadURLRequestOperation.validatorFileForDestination(destination), "\"v0\"".getBytes("UTF-8"));
+
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(URLRequest.requestWithURLString(baseURL + "/file"), destination, null);
+
+        assertEquals(destination, download(operation));
+        assertEquals(BODY.length, operation.getBytesWritten());
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testCompleteFileIsNotDownloadedAgain() throws Exception {
+        for (NIOTransportEngine transportEngine : new NIOTransportEngine[] { null, engine }) {
+            Files.write(destination, BODY);
+
+            URLRequest request = URLRequest.requestWithURLString(baseURL + "/file");
+            request.setTransportEngine(transportEngine);
+            FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(request, destination, null);
+
+            assertEquals(destination, download(operation));
+            assertEquals(0, operation.getBytesWritten());
+            assertArrayEquals(BODY, Files.readAllBytes(destination));
+        }
+    }
+
+    @Test
+    public void testDownloadWithoutResumingReplacesFile() throws Exception {
+        Files.write(destination, new byte[1000]);
+
+        URLRequest request = URLRequest.requestWithURLString(baseURL + "/file");
+        FileDownloadURLRequestOperation operation = FileDownloadURLRequestOperation.operationWithURLRequest(request, destination, false, null);
+        assertFalse(request.getRequestProperties().containsKey("Range"));
+
+        assertEquals(destination, download(operation));
+        assertEquals(0, operation.getResumeOffset());
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+}
@@ -0,0 +1,204 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPRequestBatch.BatchCompletion;
+import com.javanetworking.HTTPRequestBatch.Request;
+import com.javanetworking.HTTPRequestBatch.Result;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HTTPRequestBatchTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    private static final AtomicInteger runningRequestCount = new AtomicInteger();
+    private static final AtomicInteger maxRunningRequestCount = new AtomicInteger();
+
+    /**
+     Released to let the server respond to requests for `/slow`.
+     */
+    private static volatile CountDownLatch release;
+
+    private HTTPClient client;
+
+    /**
+     Completion recording the completed batch.
+     */
+    private static class RecordingCompletion implements BatchCompletion {
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicInteger completionCount = new AtomicInteger();
+        volatile HTTPRequestBatch batch;
+
+        @Override
+        public void completion(HTTPRequestBatch batch) {
+            this.batch = batch;
+            completionCount.incrementAndGet();
+            completed.countDown();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int running = runningRequestCount.incrementAndGet();
+                int max;
+                while (running > (max = maxRunningRequestCount.get()) && !maxRunningRequestCount.compareAndSet(max, running)) {}
+
+                String path = exchange.getRequestURI().getPath();
+                try {
+                    if (path.startsWith("/slow")) {
+                        release.await(10, TimeUnit.SECONDS);
+                    } else {
+                        Thread.sleep(5);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                runningRequestCount.decrementAndGet();
+
+                int statusCode = path.startsWith("/missing") ? 404 : 200;
+                byte[] body = String.format("%s %s", path, exchange.getRequestHeaders().getFirst("X-Batch")).getBytes("UTF-8");
+                exchange.sendResponseHeaders(statusCode, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        runningRequestCount.set(0);
+        maxRunningRequestCount.set(0);
+        release = new CountDownLatch(1);
+
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setDefaultHeader("X-Batch", "nightly");
+    }
+
+    @Test
+    public void testBatchSendsRequestsConcurrentlyUpToLimit() throws Exception {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i=0; i<200; i++) {
+            requests.add(Request.GET("/item" + i, null));
+        }
+
+        RecordingCompletion completion = new RecordingCompletion();
+        HTTPRequestBatch batch = client.enqueueBatchOfRequests(requests, 8, completion);
+
+        assertTrue(completion.completed.await(30, TimeUnit.SECONDS));
+        assertSame(batch, completion.batch);
+        assertEquals(1, completion.completionCount.get());
+        assertTrue(batch.isCompleted());
+        assertTrue(batch.getElapsedNanos() > 0);
+        assertEquals(200, batch.getCompletedRequestCount());
+        assertEquals(0, batch.getRunningRequestCount());
+        assertTrue(batch.getFailedResults().isEmpty());
+
+        // The default client queue executes one operation at a time, the batch still runs in parallel
+        assertTrue(maxRunningRequestCount.get() > 1);
+        assertTrue(maxRunningRequestCount.get() <= 8);
+
+        for (int i=0; i<200; i++) {
+            Result result = batch.getResults().get(i);
+            assertSame(requests.get(i), result.getRequest());
+            assertEquals("/item" + i + " nightly", new String((byte[]) result.getResponse(), "UTF-8"));
+            assertTrue(result.getDurationNanos() > 0);
+        }
+    }
+
+    @Test
+    public void testBatchReportsFailuresPerRequest() throws Exception {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i=0; i<10; i++) {
+            requests.add(Request.GET((i % 3 == 0) ? "/missing" : "/found", null));
+        }
+
+        RecordingCompletion completion = new RecordingCompletion();
+        client.setMaxConcurrentOperationCount(4);
+        HTTPRequestBatch batch = client.enqueueBatchOfRequests(requests, 2, completion);
+
+        assertTrue(completion.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(4, batch.getFailedResults().size());
+        assertTrue(maxRunningRequestCount.get() <= 2);
+        for (int i=0; i<10; i++) {
+            Result result = batch.getResults().get(i);
+            assertEquals(i % 3 != 0, result.isSuccessful());
+            assertEquals(i % 3 != 0, result.getResponse() != null);
+        }
+    }
+
+    @Test
+    public void testEmptyBatchCompletesImmediately() throws Exception {
+        RecordingCompletion completion = new RecordingCompletion();
+        HTTPRequestBatch batch = client.enqueueBatchOfRequests(Collections.<Request>emptyList(), 4, completion);
+
+        assertEquals(0, completion.completed.getCount());
+        assertTrue(batch.isCompleted());
+        assertTrue(batch.getResults().isEmpty());
+    }
+
+    @Test
+    public void testCancelFailsRequestsNotSent() throws Exception {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i=0; i<10; i++) {
+            requests.add(Request.GET("/slow" + i, null));
+        }
+
+        RecordingCompletion completion = new RecordingCompletion();
+        HTTPRequestBatch batch = client.enqueueBatchOfRequests(requests, 2, completion);
+        Thread.sleep(200);
+
+        batch.cancel();
+        try {
+            assertTrue(completion.completed.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(10, batch.getFailedResults().size());
+        assertNotNull(batch.getResults().get(0).getThrowable());
+        for (int i=2; i<10; i++) {
+            assertTrue(batch.getResults().get(i).getThrowable() instanceof CancellationException);
+            assertEquals(-1, batch.getResults().get(i).getDurationNanos());
+            assertNull(batch.getResults().get(i).getResponse());
+        }
+    }
+}
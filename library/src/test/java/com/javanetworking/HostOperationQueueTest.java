@@ -0,0 +1,213 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.javanetworking.URLConnectionOperation.QueuePriority;
+import com.javanetworking.URLConnectionOperation.URLCompletion;
+import com.operationqueue.Operation.OperationState;
+
+public class HostOperationQueueTest {
+
+    /**
+     Operation recording its name when it executes, and blocking until the release latch is counted down.
+     */
+    private static class HostOperation extends URLConnectionOperation {
+
+        private final String name;
+        private final List<String> executedNames;
+        private final CountDownLatch release;
+        private final CountDownLatch completed;
+
+        HostOperation(String urlString, String name, List<String> executedNames, CountDownLatch release, CountDownLatch completed) {
+            super(URLRequest.requestWithURLString(urlString), null);
+            this.name = name;
+            this.executedNames = executedNames;
+            this.release = release;
+            this.completed = completed;
+        }
+
+        @Override
+        public void execute() {
+            executedNames.add(name);
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public synchronized void complete() {
+            super.complete();
+
+            completed.countDown();
+        }
+    }
+
+    private static void awaitRunningOperationCount(HostOperationQueue queue, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getRunningOperationCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, queue.getRunningOperationCount());
+    }
+
+    @Test
+    public void testOperationsAreLimitedPerHost() throws Exception {
+        HostOperationQueue queue = new HostOperationQueue(4, 2);
+        List<String> executedNames = new CopyOnWriteArrayList<String>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(6);
+
+        for (int i=0; i<5; i++) {
+            queue.addOperation(new HostOperation("http://slow.example.com/" + i, "slow", executedNames, release, completed));
+        }
+        queue.addOperation(new HostOperation("http://fast.example.com:8080/", "fast", executedNames, release, completed));
+
+        awaitRunningOperationCount(queue, 3);
+        assertEquals(2, queue.getRunningOperationCount("slow.example.com:80"));
+        assertEquals(1, queue.getRunningOperationCount("fast.example.com:8080"));
+        assertEquals(3, queue.getQueuedOperationCount("slow.example.com:80"));
+        assertEquals(Integer.valueOf(3), queue.getQueuedOperationCountsByHost().get("slow.example.com:80"));
+
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        awaitRunningOperationCount(queue, 0);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testHostsTakeTurns() throws Exception {
+        HostOperationQueue queue = new HostOperationQueue(1, 1);
+        List<String> executedNames = new CopyOnWriteArrayList<String>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(6);
+
+        queue.addOperation(new HostOperation("http://a/", "a0", executedNames, release, completed));
+        awaitRunningOperationCount(queue, 1);
+
+        queue.addOperation(new HostOperation("http://a/", "a1", executedNames, release, completed));
+        queue.addOperation(new HostOperation("http://a/", "a2", executedNames, release, completed));
+        queue.addOperation(new HostOperation("http://b/", "b1", executedNames, release, completed));
+        queue.addOperation(new HostOperation("http://c/", "c1", executedNames, release, completed));
+        queue.addOperation(new HostOperation("http://a/", "a3", executedNames, release, completed));
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a0", "a1", "b1", "c1", "a2", "a3"), executedNames);
+    }
+
+    @Test
+    public void testCancelAllOperationsCancelsWaitingOperations() throws Exception {
+        HostOperationQueue queue = new HostOperationQueue(1, 1);
+        List<String> executedNames = new CopyOnWriteArrayList<String>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(3);
+
+        HostOperation running = new HostOperation("http://a/", "running", executedNames, release, completed);
+        HostOperation waiting = new HostOperation("http://b/", "waiting", executedNames, release, completed);
+        queue.addOperation(running);
+        awaitRunningOperationCount(queue, 1);
+        queue.addOperation(waiting);
+        queue.addOperation(new HostOperation("http://c/", "waiting", executedNames, release, completed));
+
+        queue.cancelAllOperations();
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(OperationState.Cancelled, waiting.getState());
+        assertEquals(Arrays.asList("running"), executedNames);
+        awaitRunningOperationCount(queue, 0);
+    }
+
+    @Test
+    public void testCancelAllOperationsCancelsRunningURLConnectionOperations() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final CountDownLatch received = new CountDownLatch(2);
+
+        // Receives the requests and never responds
+        for (int i=0; i<2; i++) {
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        socket.getInputStream().read(new byte[1024]);
+                        received.countDown();
+                        socket.getInputStream().read(new byte[1024]);
+                    } catch (IOException e) {}
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        try {
+            final CountDownLatch failed = new CountDownLatch(2);
+            URLCompletion completion = new URLCompletion() {
+                @Override
+                public void failure(URLRequest request, Throwable t) {
+                    failed.countDown();
+                }
+                @Override
+                public void success(URLRequest request, byte[] responseData) {}
+            };
+
+            HostOperationQueue queue = new HostOperationQueue(2, 2);
+            List<URLConnectionOperation> operations = new CopyOnWriteArrayList<URLConnectionOperation>();
+            for (int i=0; i<2; i++) {
+                URLRequest request = URLRequest.requestWithURLString("http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + i);
+                request.setReadTimeout(30000);
+                operations.add(URLConnectionOperation.operationWithURLRequest(request, completion));
+                queue.addOperation(operations.get(i));
+            }
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+
+            // The workers blocked reading the responses are released by closing the connections
+            queue.cancelAllOperations();
+
+            assertTrue(failed.await(5, TimeUnit.SECONDS));
+            for (URLConnectionOperation operation : operations) {
+                assertTrue(operation.isCancelled());
+            }
+            awaitRunningOperationCount(queue, 0);
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testHigherPriorityOperationOfHostStartsFirst() throws Exception {
+        HostOperationQueue queue = new HostOperationQueue(1, 1);
+        List<String> executedNames = new CopyOnWriteArrayList<String>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(3);
+
+        queue.addOperation(new HostOperation("http://a/", "running", executedNames, release, completed));
+        awaitRunningOperationCount(queue, 1);
+
+        queue.addOperation(new HostOperation("http://a/", "prefetch", executedNames, release, completed));
+        HostOperation interactive = new HostOperation("http://a/", "interactive", executedNames, release, completed);
+        interactive.setQueuePriority(QueuePriority.High);
+        queue.addOperation(interactive);
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("running", "interactive", "prefetch"), executedNames);
+    }
+}
+
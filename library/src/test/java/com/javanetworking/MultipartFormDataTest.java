@@ -0,0 +1,188 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPClient.HTTPClientParameterEncoding;
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class MultipartFormDataTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    /**
+     The headers and body of the last upload.
+     */
+    private static volatile String contentType;
+    private static volatile String contentLength;
+    private static volatile String transferEncoding;
+    private static volatile byte[] receivedBody;
+
+    private Path file;
+    private byte[] fileContents;
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = is.read(buffer)) != -1) {
+            bytes.write(buffer, 0, length);
+        }
+        return bytes.toByteArray();
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/upload", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                receivedBody = readFully(exchange.getRequestBody());
+
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        fileContents = new byte[300000];
+        for (int i=0; i<fileContents.length; i++) {
+            fileContents[i] = (byte) (i % 253);
+        }
+        file = Files.createTempFile("report", ".json");
+        Files.write(file, fileContents);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private void post(Map<String, Object> parameters) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final StringBuilder errorSB = new StringBuilder();
+
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setParameterEncoding(HTTPClientParameterEncoding.MultipartFormDataParameterEncoding);
+
+        client.POST("/upload", parameters, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                errorSB.append(t.toString());
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        assertEquals("", errorSB.toString());
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        for (int i=0; i<=bytes.length-target.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + target.length), target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target, int from) {
+        int index = indexOf(Arrays.copyOfRange(bytes, from, bytes.length), target);
+        return (index == -1) ? -1 : from + index;
+    }
+
+    @Test
+    public void testFilePartIsStreamedWithContentLength() throws Exception {
+        Map<String, Object> meta = new LinkedHashMap<String, Object>();
+        meta.put("owner", "ops");
+
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("title", "Nightly report");
+        parameters.put("meta", meta);
+        parameters.put("report", file.toFile());
+        post(parameters);
+
+        assertTrue(contentType.startsWith("multipart/form-data; boundary="));
+        String boundary = contentType.substring("multipart/form-data; boundary=".length());
+
+        assertEquals(null, transferEncoding);
+        assertEquals(Integer.toString(receivedBody.length), contentLength);
+
+        String body = new String(receivedBody, "ISO-8859-1");
+        assertTrue(body.startsWith(String.format("--%s\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nNightly report\r\n", boundary)));
+        assertTrue(body.contains("Content-Disposition: form-data; name=\"meta[owner]\"\r\n\r\nops\r\n"));
+        assertTrue(body.contains(String.format("Content-Disposition: form-data; name=\"report\"; filename=\"%s\"\r\n", file.getFileName())));
+        assertTrue(body.endsWith(String.format("\r\n--%s--\r\n", boundary)));
+
+        int fileStart = indexOf(receivedBody, "\r\n\r\n".getBytes(UTF8), body.indexOf("name=\"report\"")) + 4;
+        assertTrue(Arrays.equals(fileContents, Arrays.copyOfRange(receivedBody, fileStart, fileStart + fileContents.length)));
+    }
+
+    @Test
+    public void testStreamPartIsSentChunked() throws Exception {
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("data", new ByteArrayInputStream(fileContents));
+        post(parameters);
+
+        assertEquals("chunked", transferEncoding);
+        assertEquals(null, contentLength);
+        assertTrue(indexOf(receivedBody, fileContents) != -1);
+    }
+
+    @Test
+    public void testContentLengthMatchesWrittenBody() throws Exception {
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("name", "gr\u00fc\u00dfe");
+        parameters.put("thumbnail", new byte[] { 1, 2, 3 });
+        parameters.put("report", file);
+
+        MultipartFormDataBodyWriter writer = new MultipartFormDataBodyWriter(parameters, UTF8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writer.writeTo(body);
+
+        assertEquals(body.size(), writer.getContentLength());
+    }
+}
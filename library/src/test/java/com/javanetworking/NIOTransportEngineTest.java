@@ -0,0 +1,262 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class NIOTransportEngineTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static NIOTransportEngine engine;
+
+    private HTTPCompletion completionWithCountDownLatch(final CountDownLatch signal, final StringBuilder errorSB, final StringBuilder successSB) {
+        return new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                errorSB.append(t.toString());
+
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                successSB.append(new String((byte[]) response));
+
+                signal.countDown();
+            }
+        };
+    }
+
+    private void waitForSignalCountDown(CountDownLatch signal) {
+        try {
+            signal.await(30, TimeUnit.SECONDS); // wait for callback
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, long length, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(statusCode, length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/fixed", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "fixed length body".getBytes();
+                respond(exchange, 200, body.length, body);
+            }
+        });
+        server.createContext("/chunked", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StringBuilder body = new StringBuilder();
+                for (int i=0; i<10000; i++) {
+                    body.append(i % 10);
+                }
+                respond(exchange, 200, 0, body.toString().getBytes());
+            }
+        });
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream is = exchange.getRequestBody();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    body.write(buffer, 0, length);
+                }
+                String response = exchange.getRequestMethod() + " " + body.toString();
+                respond(exchange, 200, response.length(), response.getBytes());
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 404, -1, new byte[0]);
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {}
+                respond(exchange, 200, -1, new byte[0]);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+        engine = new NIOTransportEngine(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        engine.close();
+        server.stop(0);
+    }
+
+    private URLRequest requestWithPath(String path) {
+        URLRequest request = URLRequest.requestWithURLString(baseURL + path);
+        request.setTransportEngine(engine);
+        return request;
+    }
+
+    @Test
+    public void testFixedLengthResponse() {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        final StringBuilder errorSB = new StringBuilder();
+        final StringBuilder successSB = new StringBuilder();
+
+        HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(requestWithPath("/fixed"), completionWithCountDownLatch(signal, errorSB, successSB));
+        operation.start();
+
+        waitForSignalCountDown(signal);
+
+        assertEquals("", errorSB.toString());
+        assertEquals("fixed length body", successSB.toString());
+        assertEquals(HTTPURLRequestOperation.OperationState.Finished, operation.getState());
+        assertEquals("text/plain", operation.getURLRequest().getContentType());
+    }
+
+    @Test
+    public void testChunkedResponse() {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        final StringBuilder errorSB = new StringBuilder();
+        final StringBuilder successSB = new StringBuilder();
+
+        HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(requestWithPath("/chunked"), completionWithCountDownLatch(signal, errorSB, successSB));
+        operation.start();
+
+        waitForSignalCountDown(signal);
+
+        assertEquals("", errorSB.toString());
+        assertEquals(10000, successSB.length());
+        assertEquals("0123456789", successSB.substring(0, 10));
+    }
+
+    @Test
+    public void testPOSTBodyIsSent() {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        final StringBuilder errorSB = new StringBuilder();
+        final StringBuilder successSB = new StringBuilder();
+
+        URLRequest request = requestWithPath("/echo");
+        request.setRequestMethod("POST");
+        request.setHTTPBody("name=Fritz".getBytes());
+
+        HTTPURLRequestOperation.operationWithURLRequest(request, completionWithCountDownLatch(signal, errorSB, successSB)).start();
+
+        waitForSignalCountDown(signal);
+
+        assertEquals("", errorSB.toString());
+        assertEquals("POST name=Fritz", successSB.toString());
+    }
+
+    @Test
+    public void testUnacceptableStatusCodeFails() {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        final StringBuilder errorSB = new StringBuilder();
+        final StringBuilder successSB = new StringBuilder();
+
+        HTTPURLRequestOperation.operationWithURLRequest(requestWithPath("/missing"), completionWithCountDownLatch(signal, errorSB, successSB)).start();
+
+        waitForSignalCountDown(signal);
+
+        assertEquals("", successSB.toString());
+        assertTrue(errorSB.toString().contains("got 404"));
+    }
+
+    @Test
+    public void testReadTimeout() {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        final StringBuilder errorSB = new StringBuilder();
+        final StringBuilder successSB = new StringBuilder();
+
+        URLRequest request = requestWithPath("/slow");
+        request.setConnectTimeout(200);
+
+        HTTPURLRequestOperation.operationWithURLRequest(request, completionWithCountDownLatch(signal, errorSB, successSB)).start();
+
+        waitForSignalCountDown(signal);
+
+        assertEquals("", successSB.toString());
+        assertTrue(errorSB.toString().contains("SocketTimeoutException"));
+    }
+
+    @Test
+    public void testSynchronousOperation() {
+        final CountDownLatch signal = new CountDownLatch(1);
+
+        final StringBuilder errorSB = new StringBuilder();
+        final StringBuilder successSB = new StringBuilder();
+
+        HTTPURLRequestOperation operation = HTTPURLRequestOperation.operationWithURLRequest(requestWithPath("/fixed"), completionWithCountDownLatch(signal, errorSB, successSB));
+        operation.startSynchronous();
+
+        assertEquals(0, signal.getCount());
+        assertEquals("fixed length body", successSB.toString());
+    }
+
+    @Test
+    public void testClientMultiplexesConcurrentRequests() {
+        final int count = 200;
+        final CountDownLatch signal = new CountDownLatch(count);
+        final AtomicInteger successes = new AtomicInteger();
+
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setTransportEngine(engine);
+        client.setTimeout(10000);
+
+        for (int i=0; i<count; i++) {
+            client.GET("/fixed", null, new HTTPCompletion() {
+                @Override
+                public void failure(URLRequest request, Throwable t) {
+                    signal.countDown();
+                }
+                @Override
+                public void success(URLRequest request, Object response) {
+                    successes.incrementAndGet();
+                    signal.countDown();
+                }
+            });
+        }
+
+        waitForSignalCountDown(signal);
+
+        assertEquals(count, successes.get());
+        assertTrue(client.getOperationQueue().isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPClient.HTTPClientParameterEncoding;
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RequestCompressionTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    /**
+     The last request body as sent, and decompressed.
+     */
+    private static volatile String contentEncoding;
+    private static volatile int sentLength;
+    private static volatile String receivedBody;
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = is.read(buffer)) != -1) {
+            bytes.write(buffer, 0, length);
+        }
+        return bytes.toByteArray();
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/ingest", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+                byte[] sent = readFully(exchange.getRequestBody());
+                sentLength = sent.length;
+
+                byte[] body = sent;
+                if ("gzip".equals(contentEncoding)) {
+                    body = readFully(new GZIPInputStream(new ByteArrayInputStream(sent)));
+                }
+                receivedBody = new String(body, "UTF-8");
+
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    private void post(HTTPClient client, Map<String, Object> parameters) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final StringBuilder errorSB = new StringBuilder();
+
+        client.POST("/ingest", parameters, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                errorSB.append(t.toString());
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        assertEquals("", errorSB.toString());
+    }
+
+    private static Map<String, Object> batch(int count) {
+        List<Object> events = new ArrayList<Object>();
+        for (int i=0; i<count; i++) {
+            Map<String, Object> event = new HashMap<String, Object>();
+            event.put("name", "page_view");
+            event.put("id", Integer.toString(i));
+            events.add(event);
+        }
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("events", events);
+        return parameters;
+    }
+
+    @Test
+    public void testLargeJSONBodyIsCompressed() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setParameterEncoding(HTTPClientParameterEncoding.JSONParameterEncoding);
+        client.setCompressesRequestBodies(true);
+
+        Map<String, Object> parameters = batch(2000);
+        post(client, parameters);
+
+        assertEquals("gzip", contentEncoding);
+        assertEquals(HTTPClient.JsonStringFromMap(parameters), receivedBody);
+        assertTrue(sentLength < receivedBody.length() / 5);
+    }
+
+    @Test
+    public void testLargeFormBodyIsCompressed() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setCompressesRequestBodies(true);
+        client.setRequestCompressionThreshold(100);
+
+        Map<String, Object> parameters = batch(100);
+        post(client, parameters);
+
+        assertEquals("gzip", contentEncoding);
+        assertEquals(HTTPClient.queryStringFromParametersWithCharset(parameters, client.getStringEncoding()), receivedBody);
+    }
+
+    @Test
+    public void testSmallBodyIsNotCompressed() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setParameterEncoding(HTTPClientParameterEncoding.JSONParameterEncoding);
+        client.setCompressesRequestBodies(true);
+
+        Map<String, Object> parameters = batch(1);
+        post(client, parameters);
+
+        assertEquals(null, contentEncoding);
+        assertEquals(HTTPClient.JsonStringFromMap(parameters), receivedBody);
+    }
+}
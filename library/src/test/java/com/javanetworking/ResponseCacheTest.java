@@ -0,0 +1,320 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.gson.JsonElement;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResponseCacheTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    /**
+     The number of requests received by path.
+     */
+    private static final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private HTTPClient client;
+    private MemoryURLResponseCache cache;
+
+    /**
+     Responds with a JSON body naming the requests `Accept-Language`, and the given header.
+     */
+    private static class CacheHeaderHandler implements HttpHandler {
+
+        private final String headerName;
+        private final String headerValue;
+
+        CacheHeaderHandler(String headerName, String headerValue) {
+            this.headerName = headerName;
+            this.headerValue = headerValue;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            requestCounts.putIfAbsent(path, new AtomicInteger());
+            requestCounts.get(path).incrementAndGet();
+
+            byte[] body = String.format("{\"language\":\"%s\"}", exchange.getRequestHeaders().getFirst("Accept-Language")).getBytes("UTF-8");
+            if (this.headerName != null) {
+                exchange.getResponseHeaders().set(this.headerName, this.headerValue);
+            }
+            if (path.equals("/vary")) {
+                exchange.getResponseHeaders().set("Vary", "Accept-Language");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+
+    private static final byte[] RANGED_BODY = new byte[100000];
+
+    /**
+     Serves {@code RANGED_BODY} with `Cache-Control: max-age=60` and `Accept-Ranges: bytes`, honoring
+     `Range: bytes=N-M`.
+     */
+    private static class RangeHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            requestCounts.putIfAbsent(path, new AtomicInteger());
+            requestCounts.get(path).incrementAndGet();
+
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(RANGED_BODY.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int first = 0;
+            int last = RANGED_BODY.length - 1;
+            if (range != null) {
+                first = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                last = Integer.parseInt(range.substring(range.indexOf('-') + 1));
+                exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", first, last, RANGED_BODY.length));
+                exchange.sendResponseHeaders(206, last - first + 1);
+            } else {
+                exchange.sendResponseHeaders(200, RANGED_BODY.length);
+            }
+            OutputStream os = exchange.getResponseBody();
+            os.write(RANGED_BODY, first, last - first + 1);
+            os.close();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        for (int i=0; i<RANGED_BODY.length; i++) {
+            RANGED_BODY[i] = (byte) (i % 127);
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/max-age", new CacheHeaderHandler("Cache-Control", "public, max-age=60"));
+        server.createContext("/expires", new CacheHeaderHandler("Expires", format.format(new Date(System.currentTimeMillis() + 600000))));
+        server.createContext("/no-store", new CacheHeaderHandler("Cache-Control", "no-store"));
+        server.createContext("/uncacheable", new CacheHeaderHandler(null, null));
+        server.createContext("/short", new CacheHeaderHandler("Cache-Control", "max-age=1"));
+        server.createContext("/vary", new CacheHeaderHandler("Cache-Control", "max-age=60"));
+        server.createContext("/ranged", new RangeHandler());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        requestCounts.clear();
+
+        cache = new MemoryURLResponseCache();
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setResponseCache(cache);
+    }
+
+    private Object get(String path, final Thread[] completionThread) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+
+        client.GET(path, null, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                if (completionThread != null) {
+                    completionThread[0] = Thread.currentThread();
+                }
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    private Object get(String path) throws InterruptedException {
+        return get(path, null);
+    }
+
+    private static int requestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return (count != null) ? count.get() : 0;
+    }
+
+    @Test
+    public void testMaxAgeResponseIsServedFromCache() throws Exception {
+        String body = new String((byte[]) get("/max-age"), "UTF-8");
+
+        Thread[] completionThread = new Thread[1];
+        for (int i=0; i<5; i++) {
+            assertEquals(body, new String((byte[]) get("/max-age", completionThread), "UTF-8"));
+            assertEquals(Thread.currentThread(), completionThread[0]);
+        }
+
+        assertEquals(1, requestCount("/max-age"));
+        assertEquals(5, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiresResponseIsServedFromCache() throws Exception {
+        get("/expires");
+        get("/expires");
+
+        assertEquals(1, requestCount("/expires"));
+    }
+
+    @Test
+    public void testUncacheableResponsesAreNotStored() throws Exception {
+        get("/no-store");
+        get("/no-store");
+        get("/uncacheable");
+        get("/uncacheable");
+
+        assertEquals(2, requestCount("/no-store"));
+        assertEquals(2, requestCount("/uncacheable"));
+        assertEquals(0, cache.getResponseCount());
+    }
+
+    @Test
+    public void testStaleResponseIsRequestedAgain() throws Exception {
+        get("/short");
+        Thread.sleep(1100);
+        get("/short");
+
+        assertEquals(2, requestCount("/short"));
+    }
+
+    @Test
+    public void testVaryingRequestHeaderIsMatched() throws Exception {
+        client.setDefaultHeader("Accept-Language", "en");
+        get("/vary");
+        get("/vary");
+        client.setDefaultHeader("Accept-Language", "de");
+        String body = new String((byte[]) get("/vary"), "UTF-8");
+
+        assertEquals("{\"language\":\"de\"}", body);
+        assertEquals(2, requestCount("/vary"));
+    }
+
+    @Test
+    public void testCachedResponseIsParsedByOperationClass() throws Exception {
+        client.registerHTTPOperationClass(JSONURLRequestOperation.class);
+
+        get("/max-age");
+        Object response = get("/max-age");
+
+        assertTrue(response instanceof JsonElement);
+        assertEquals("null", ((JsonElement) response).getAsJsonObject().get("language").getAsString());
+        assertEquals(1, requestCount("/max-age"));
+    }
+
+    @Test
+    public void testRangeRequestsDoNotUseCachedResponse() throws Exception {
+        assertArrayEquals(RANGED_BODY, (byte[]) get("/ranged"));
+        assertEquals(1, cache.getResponseCount());
+
+        Path destination = Files.createTempFile("ranged", ".bin");
+        Files.delete(destination);
+        try {
+            final CountDownLatch signal = new CountDownLatch(1);
+            final Object[] result = new Object[1];
+
+            client.downloadFile("/ranged", destination, 2, new HTTPCompletion() {
+                @Override
+                public void failure(URLRequest request, Throwable t) {
+                    result[0] = t;
+                    signal.countDown();
+                }
+                @Override
+                public void success(URLRequest request, Object response) {
+                    result[0] = response;
+                    signal.countDown();
+                }
+            });
+
+            assertTrue(signal.await(10, TimeUnit.SECONDS));
+            assertEquals(destination, result[0]);
+            assertArrayEquals(RANGED_BODY, Files.readAllBytes(destination));
+        } finally {
+            Files.deleteIfExists(destination);
+        }
+
+        // The HEAD request and both segments reached the server, the partial responses were not stored
+        assertEquals(4, requestCount("/ranged"));
+        assertEquals(1, cache.getResponseCount());
+        assertArrayEquals(RANGED_BODY, (byte[]) get("/ranged"));
+        assertEquals(4, requestCount("/ranged"));
+    }
+
+    private static CachedURLResponse response(String urlString, int length) {
+        Map<String, List<String>> headerFields = new HashMap<String, List<String>>();
+        return new CachedURLResponse(urlString, 200, headerFields, new byte[length], new HashMap<String, String>(), System.currentTimeMillis() + 60000);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResponseIsEvicted() {
+        MemoryURLResponseCache cache = new MemoryURLResponseCache(3000);
+        URLRequest a = URLRequest.requestWithURLString("http://a/");
+        URLRequest b = URLRequest.requestWithURLString("http://b/");
+        URLRequest c = URLRequest.requestWithURLString("http://c/");
+
+        cache.storeCachedResponse(a, response("http://a/", 1000));
+        cache.storeCachedResponse(b, response("http://b/", 1000));
+        cache.cachedResponseForRequest(a);
+        cache.storeCachedResponse(c, response("http://c/", 1000));
+
+        assertEquals(2, cache.getResponseCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.cachedResponseForRequest(a) != null);
+        assertEquals(null, cache.cachedResponseForRequest(b));
+        assertTrue(cache.getByteCount() <= 3000);
+    }
+}
@@ -0,0 +1,298 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SegmentedDownloadTest {
+
+    private static final byte[] BODY = new byte[1000003];
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    private static final AtomicInteger rangeRequests = new AtomicInteger();
+    private static final AtomicInteger fullRequests = new AtomicInteger();
+    private static final AtomicInteger runningRequests = new AtomicInteger();
+    private static final AtomicInteger maxRunningRequests = new AtomicInteger();
+
+    /**
+     The `Accept-Encoding` header of every request received, or "none".
+     */
+    private static final List<String> acceptEncodings = new CopyOnWriteArrayList<String>();
+
+    private Path destination;
+
+    /**
+     Serves {@code BODY} with range support, reporting {@code reportedLength} as total length.
+     */
+    private static class RangeHandler implements HttpHandler {
+
+        private final boolean acceptsRanges;
+        private final long reportedLength;
+
+        RangeHandler(boolean acceptsRanges, long reportedLength) {
+            this.acceptsRanges = acceptsRanges;
+            this.reportedLength = reportedLength;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            acceptEncodings.add((acceptEncoding != null) ? acceptEncoding : "none");
+
+            if (acceptsRanges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(BODY.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+
+            int running = runningRequests.incrementAndGet();
+            synchronized (maxRunningRequests) {
+                maxRunningRequests.set(Math.max(maxRunningRequests.get(), running));
+            }
+
+            try {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                int first = 0;
+                int last = BODY.length - 1;
+                if (range != null && acceptsRanges) {
+                    rangeRequests.incrementAndGet();
+                    first = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                    last = Integer.parseInt(range.substring(range.indexOf('-') + 1));
+                    exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", first, last, this.reportedLength(first)));
+                    this.delay(first);
+                    exchange.sendResponseHeaders(206, last - first + 1);
+                } else {
+                    fullRequests.incrementAndGet();
+                    exchange.sendResponseHeaders(200, BODY.length);
+                }
+                OutputStream os = exchange.getResponseBody();
+                os.write(BODY, first, last - first + 1);
+                os.close();
+            } finally {
+                runningRequests.decrementAndGet();
+            }
+        }
+
+        long reportedLength(int first) {
+            return this.reportedLength;
+        }
+
+        void delay(int first) {}
+    }
+
+    /**
+     Counted down by the requests for `/failing` of the segments after the first.
+     */
+    private static volatile CountDownLatch otherSegmentsReceived;
+
+    /**
+     Fails the first segment once the other segments were requested, and answers the other segments after three
+     seconds.
+     */
+    private static class FailingFirstSegmentHandler extends RangeHandler {
+
+        FailingFirstSegmentHandler() {
+            super(true, BODY.length);
+        }
+
+        @Override
+        long reportedLength(int first) {
+            return (first == 0) ? BODY.length + 1 : BODY.length;
+        }
+
+        @Override
+        void delay(int first) {
+            try {
+                if (first == 0) {
+                    otherSegmentsReceived.await(5, TimeUnit.SECONDS);
+                } else {
+                    otherSegmentsReceived.countDown();
+                    Thread.sleep(3000);
+                }
+            } catch (InterruptedException e) {}
+        }
+    }
+
+    /**
+     Answers each segment after a delay, so segments sent concurrently overlap.
+     */
+    private static class SlowRangeHandler extends RangeHandler {
+
+        SlowRangeHandler() {
+            super(true, BODY.length);
+        }
+
+        @Override
+        void delay(int first) {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {}
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        for (int i=0; i<BODY.length; i++) {
+            BODY[i] = (byte) (i % 251);
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/ranged", new RangeHandler(true, BODY.length));
+        server.createContext("/plain", new RangeHandler(false, BODY.length));
+        server.createContext("/truncated", new RangeHandler(true, BODY.length + 1));
+        server.createContext("/failing", new FailingFirstSegmentHandler());
+        server.createContext("/slow", new SlowRangeHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createDestination() throws IOException {
+        destination = Files.createTempFile("segmented", ".bin");
+        Files.delete(destination);
+
+        rangeRequests.set(0);
+        fullRequests.set(0);
+        maxRunningRequests.set(0);
+        acceptEncodings.clear();
+    }
+
+    @After
+    public void deleteDestination() throws IOException {
+        Files.deleteIfExists(destination);
+    }
+
+    private Object download(String path, int segmentCount) throws InterruptedException {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setMaxConcurrentOperationCount(segmentCount);
+        return download(client, path, segmentCount);
+    }
+
+    private Object download(HTTPClient client, String path, int segmentCount) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+
+        client.setTimeout(5000);
+
+        client.downloadFile(path, destination, segmentCount, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    @Test
+    public void testSegmentsAreAssembled() throws Exception {
+        assertEquals(destination, download("/ranged", 4));
+
+        assertEquals(4, rangeRequests.get());
+        assertEquals(0, fullRequests.get());
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testRangeRequestsAskForIdentityEncoding() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setMaxConcurrentOperationCount(4);
+        client.setAcceptsCompressedResponses(true);
+
+        assertEquals(destination, download(client, "/ranged", 4));
+
+        // The HEAD request and the four segments
+        assertEquals(5, acceptEncodings.size());
+        for (String acceptEncoding : acceptEncodings) {
+            assertEquals("identity", acceptEncoding);
+        }
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testFallsBackToSingleRequestWithoutRangeSupport() throws Exception {
+        assertEquals(destination, download("/plain", 4));
+
+        assertEquals(0, rangeRequests.get());
+        assertEquals(1, fullRequests.get());
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+    }
+
+    @Test
+    public void testContentRangeLengthMismatchFails() throws Exception {
+        Object result = download("/truncated", 4);
+
+        assertTrue(result instanceof IOException);
+        assertTrue(((IOException) result).getMessage().contains("Content-Range"));
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    public void testFailingSegmentCancelsOtherSegments() throws Exception {
+        otherSegmentsReceived = new CountDownLatch(3);
+
+        long start = System.nanoTime();
+        Object result = download("/failing", 4);
+
+        assertTrue(result instanceof IOException);
+        assertTrue(((IOException) result).getMessage().contains("Content-Range"));
+        // The other segments would be answered after three seconds
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    public void testSegmentsRunConcurrentlyOnSerialClientQueue() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+
+        assertEquals(destination, download(client, "/slow", 4));
+
+        assertArrayEquals(BODY, Files.readAllBytes(destination));
+        assertTrue(maxRunningRequests.get() > 1);
+    }
+}
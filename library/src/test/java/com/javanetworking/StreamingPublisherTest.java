@@ -0,0 +1,287 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.gson.JsonElement;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StreamingPublisherTest {
+
+    /**
+     The length of the `/large` body, far more than the socket buffers hold.
+     */
+    private static final long LARGE_BODY_LENGTH = 256L * 1024 * 1024;
+
+    private static HttpServer server;
+    private static String baseURL;
+
+    /**
+     The number of `/large` body bytes the server managed to write.
+     */
+    private static final AtomicLong writtenByteCount = new AtomicLong();
+
+    private HTTPClient client;
+
+    /**
+     Subscriber recording what it receives, requesting `initialRequest` items on subscribe.
+     */
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+
+        final List<T> items = new CopyOnWriteArrayList<T>();
+        final CountDownLatch terminated = new CountDownLatch(1);
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final long initialRequest;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream os = exchange.getResponseBody();
+                try {
+                    if (path.equals("/large")) {
+                        byte[] block = new byte[64 * 1024];
+                        for (long written = 0; written < LARGE_BODY_LENGTH; written += block.length) {
+                            os.write(block);
+                            writtenByteCount.addAndGet(block.length);
+                        }
+                    } else if (path.equals("/invalid")) {
+                        os.write("{\"n\":0}\nnot json\n{\"n\":2}\n".getBytes("UTF-8"));
+                    } else {
+                        // Lines split across writes, including a multi byte character
+                        byte[] body = "{\"n\":0,\"s\":\"\u00fc\"}\n\n{\"n\":1}\n[2]\n\"three\"\n{\"n\":4}".getBytes("UTF-8");
+                        for (int i=0; i<body.length; i+=5) {
+                            os.write(body, i, Math.min(5, body.length - i));
+                            os.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // The client closed the connection
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Before
+    public void createClient() {
+        writtenByteCount.set(0);
+
+        client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setMaxConcurrentOperationCount(2);
+    }
+
+    @Test
+    public void testBodyPublisherPublishesChunks() throws Exception {
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(Long.MAX_VALUE);
+        client.bodyPublisherWithMethodPathAndParameters("GET", "/ndjson", null).subscribe(subscriber);
+
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+
+        StringBuilder body = new StringBuilder();
+        for (ByteBuffer chunk : subscriber.items) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            body.append(new String(bytes, "ISO-8859-1"));
+        }
+        assertEquals(new String("{\"n\":0,\"s\":\"\u00fc\"}\n\n{\"n\":1}\n[2]\n\"three\"\n{\"n\":4}".getBytes("UTF-8"), "ISO-8859-1"), body.toString());
+    }
+
+    @Test
+    public void testSlowSubscriberThrottlesTransfer() throws Exception {
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(4);
+        client.bodyPublisherWithMethodPathAndParameters("GET", "/large", null).subscribe(subscriber);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (subscriber.items.size() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, subscriber.items.size());
+
+        // Without demand the server blocks once the socket buffers are full
+        Thread.sleep(500);
+        long written = writtenByteCount.get();
+        Thread.sleep(500);
+        assertEquals(written, writtenByteCount.get());
+        assertTrue(written < LARGE_BODY_LENGTH);
+        assertEquals(4, subscriber.items.size());
+
+        subscriber.subscription.request(2);
+        deadline = System.currentTimeMillis() + 10000;
+        while (subscriber.items.size() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(6, subscriber.items.size());
+
+        subscriber.subscription.cancel();
+        Thread.sleep(200);
+        assertNull(subscriber.error);
+        assertEquals(6, subscriber.items.size());
+    }
+
+    @Test
+    public void testStalledPublisherDoesNotBlockSerialClientQueue() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(1);
+        client.bodyPublisherWithMethodPathAndParameters("GET", "/large", null).subscribe(subscriber);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (subscriber.items.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, subscriber.items.size());
+
+        // The stalled transfer holds its own worker, not the one of the clients queue
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        client.GET("/ndjson", null, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(5, TimeUnit.SECONDS));
+        assertTrue(result[0] instanceof byte[]);
+
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void testTotalTimeoutFailsStalledStream() throws Exception {
+        client.setTotalTimeout(500);
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(1);
+        client.bodyPublisherWithMethodPathAndParameters("GET", "/large", null).subscribe(subscriber);
+
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof TimeoutException);
+        assertEquals(1, subscriber.items.size());
+    }
+
+    @Test
+    public void testJSONPublisherPublishesLinesOnDemand() throws Exception {
+        RecordingSubscriber<JsonElement> subscriber = new RecordingSubscriber<JsonElement>(2);
+        client.JSONPublisherWithMethodPathAndParameters("GET", "/ndjson", null).subscribe(subscriber);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (subscriber.items.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, subscriber.items.size());
+        assertEquals("\u00fc", subscriber.items.get(0).getAsJsonObject().get("s").getAsString());
+        assertEquals(1, subscriber.items.get(1).getAsJsonObject().get("n").getAsInt());
+
+        subscriber.subscription.request(10);
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertEquals(5, subscriber.items.size());
+        assertEquals(2, subscriber.items.get(2).getAsJsonArray().get(0).getAsInt());
+        assertEquals("three", subscriber.items.get(3).getAsString());
+        assertEquals(4, subscriber.items.get(4).getAsJsonObject().get("n").getAsInt());
+    }
+
+    @Test
+    public void testInvalidLineFailsSubscriber() throws Exception {
+        RecordingSubscriber<JsonElement> subscriber = new RecordingSubscriber<JsonElement>(Long.MAX_VALUE);
+        client.JSONPublisherWithMethodPathAndParameters("GET", "/invalid", null).subscribe(subscriber);
+
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertNotNull(subscriber.error);
+        assertEquals(1, subscriber.items.size());
+    }
+
+    @Test
+    public void testUnacceptableResponseFailsSubscriber() throws Exception {
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(Long.MAX_VALUE);
+        client.bodyPublisherWithMethodPathAndParameters("GET", "/missing", null).subscribe(subscriber);
+
+        assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        assertNotNull(subscriber.error);
+        assertTrue(subscriber.items.isEmpty());
+    }
+}
@@ -0,0 +1,215 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPClient.HTTPClientParameterEncoding;
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StreamingRequestBodyTest {
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static NIOTransportEngine engine;
+
+    /**
+     The framing headers and body of the last request.
+     */
+    private static volatile String transferEncoding;
+    private static volatile String contentLength;
+    private static volatile String receivedBody;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/ingest", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                InputStream is = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    body.write(buffer, 0, length);
+                }
+                receivedBody = new String(body.toByteArray(), "UTF-8");
+
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/redirect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Location", "/ingest");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+        engine = new NIOTransportEngine(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        engine.close();
+        server.stop(0);
+    }
+
+    private Object send(HTTPClient client, URLRequest request) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+
+        HTTPURLRequestOperation operation = new HTTPURLRequestOperation(request, new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                result[0] = t;
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object response) {
+                result[0] = response;
+                signal.countDown();
+            }
+        });
+        client.prepareHTTPURLRequestOperationForExecution(operation);
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    private static Map<String, Object> batch(int count) {
+        List<Object> events = new ArrayList<Object>();
+        for (int i=0; i<count; i++) {
+            Map<String, Object> event = new HashMap<String, Object>();
+            event.put("name", "page_view");
+            event.put("id", Integer.toString(i));
+            events.add(event);
+        }
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("events", events);
+        return parameters;
+    }
+
+    @Test
+    public void testJSONBodyIsStreamedChunked() throws Exception {
+        for (NIOTransportEngine transportEngine : new NIOTransportEngine[] { null, engine }) {
+            HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+            client.setTransportEngine(transportEngine);
+            client.setParameterEncoding(HTTPClientParameterEncoding.JSONParameterEncoding);
+            client.setStreamsRequestBodies(true);
+
+            Map<String, Object> parameters = batch(5000);
+            URLRequest request = client.connectionWithMethodPathAndParameters("POST", "/ingest", parameters);
+
+            assertEquals(null, request.getHTTPBody());
+            assertTrue(request.getHTTPBodyWriter() instanceof JSONBodyWriter);
+            assertTrue(send(client, request) instanceof byte[]);
+
+            assertEquals("chunked", transferEncoding);
+            assertEquals(HTTPClient.JsonStringFromMap(parameters), receivedBody);
+        }
+    }
+
+    @Test
+    public void testBodyWithKnownLengthIsSentWithContentLength() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        URLRequest request = client.connectionWithMethodPathAndParameters("POST", "/ingest", null);
+        request.setHTTPBodyWriter(new URLRequest.HTTPBodyWriter() {
+            @Override
+            public long getContentLength() {
+                return 5;
+            }
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write("hello".getBytes("UTF-8"));
+            }
+        });
+
+        assertTrue(send(client, request) instanceof byte[]);
+
+        assertEquals(null, transferEncoding);
+        assertEquals("5", contentLength);
+        assertEquals("hello", receivedBody);
+    }
+
+    @Test
+    public void testByteArrayBodyIsSentInFixedLengthStreamingMode() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setParameterEncoding(HTTPClientParameterEncoding.JSONParameterEncoding);
+
+        Map<String, Object> parameters = batch(40000);
+        URLRequest request = client.connectionWithMethodPathAndParameters("POST", "/ingest", parameters);
+        assertTrue(request.getHTTPBody().length >= URLConnectionOperation.STREAMED_BODY_LENGTH);
+        assertTrue(send(client, request) instanceof byte[]);
+
+        assertEquals(request.getHTTPBody().length, request.getStreamingContentLength());
+        assertEquals(Integer.toString(request.getHTTPBody().length), contentLength);
+        assertEquals(null, transferEncoding);
+        assertEquals(HTTPClient.JsonStringFromMap(parameters), receivedBody);
+    }
+
+    @Test
+    public void testSmallByteArrayBodyFollowsRedirect() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setParameterEncoding(HTTPClientParameterEncoding.JSONParameterEncoding);
+
+        URLRequest request = client.connectionWithMethodPathAndParameters("POST", "/redirect", batch(100));
+        assertTrue(send(client, request) instanceof byte[]);
+
+        // The buffered body is not streamed, the connection follows the redirect
+        assertEquals(false, request.isStreamingMode());
+    }
+
+    @Test
+    public void testChunkedStreamingModeIsKept() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setParameterEncoding(HTTPClientParameterEncoding.JSONParameterEncoding);
+
+        Map<String, Object> parameters = batch(100);
+        URLRequest request = client.connectionWithMethodPathAndParameters("POST", "/ingest", parameters);
+        request.setChunkedStreamingMode(256);
+        assertTrue(send(client, request) instanceof byte[]);
+
+        assertEquals(-1, request.getStreamingContentLength());
+        assertEquals("chunked", transferEncoding);
+        assertEquals(HTTPClient.JsonStringFromMap(parameters), receivedBody);
+    }
+
+    @Test
+    public void testTransportEngineRejectsStreamedBody() throws Exception {
+        HTTPClient client = HTTPClient.clientWithBaseURL(baseURL);
+        client.setTransportEngine(engine);
+        URLRequest request = client.connectionWithMethodPathAndParameters("POST", "/ingest", null);
+        request.setHTTPBodyWriter(new JSONBodyWriter(batch(1)));
+
+        Object result = send(client, request);
+
+        assertTrue(result instanceof IOException);
+        assertTrue(((IOException) result).getMessage().contains("streamed request bodies"));
+    }
+}
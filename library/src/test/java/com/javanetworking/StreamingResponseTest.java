@@ -0,0 +1,184 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.javanetworking.HTTPURLRequestOperation.HTTPCompletion;
+import com.javanetworking.URLConnectionOperation.URLDataConsumer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StreamingResponseTest {
+
+    private static final int BODY_LENGTH = 1024 * 1024;
+
+    private static HttpServer server;
+    private static String baseURL;
+    private static NIOTransportEngine engine;
+
+    /**
+     Consumer collecting the streamed body.
+     */
+    private static class CollectingConsumer implements URLDataConsumer {
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final AtomicInteger responses = new AtomicInteger();
+        int chunks;
+
+        @Override
+        public void didReceiveResponse(URLRequest urlRequest) throws IOException {
+            responses.incrementAndGet();
+        }
+
+        @Override
+        public void didReceiveData(URLRequest urlRequest, ByteBuffer data) throws IOException {
+            if (responses.get() != 1) {
+                throw new IOException("Data before response");
+            }
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            body.write(bytes);
+            chunks++;
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/large", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = new byte[BODY_LENGTH];
+                for (int i=0; i<body.length; i++) {
+                    body[i] = (byte) i;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+
+        baseURL = String.format("http://127.0.0.1:%d", server.getAddress().getPort());
+        engine = new NIOTransportEngine(1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        engine.close();
+        server.stop(0);
+    }
+
+    private String run(HTTPURLRequestOperation operation, final Object[] response) throws InterruptedException {
+        final CountDownLatch signal = new CountDownLatch(1);
+        final StringBuilder errorSB = new StringBuilder();
+
+        operation.setCompletion(new HTTPCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                errorSB.append(t.getMessage());
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, Object responseObject) {
+                response[0] = responseObject;
+                signal.countDown();
+            }
+        });
+        operation.start();
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        return errorSB.toString();
+    }
+
+    private void assertStreamedBody(CollectingConsumer consumer) {
+        byte[] body = consumer.body.toByteArray();
+        assertEquals(BODY_LENGTH, body.length);
+        for (int i=0; i<body.length; i++) {
+            if (body[i] != (byte) i) {
+                assertEquals((byte) i, body[i]);
+            }
+        }
+        assertTrue(consumer.chunks > 1);
+    }
+
+    @Test
+    public void testResponseIsStreamedToConsumer() throws InterruptedException {
+        CollectingConsumer consumer = new CollectingConsumer();
+        Object[] response = new Object[] { "not called" };
+
+        HTTPURLRequestOperation operation = new HTTPURLRequestOperation(URLRequest.requestWithURLString(baseURL + "/large"), null);
+        operation.setDataConsumer(consumer);
+
+        assertEquals("", run(operation, response));
+        assertNull(response[0]);
+        assertEquals(1, consumer.responses.get());
+        assertStreamedBody(consumer);
+    }
+
+    @Test
+    public void testResponseIsStreamedFromTransportEngine() throws InterruptedException {
+        CollectingConsumer consumer = new CollectingConsumer();
+        Object[] response = new Object[] { "not called" };
+
+        URLRequest request = URLRequest.requestWithURLString(baseURL + "/large");
+        request.setTransportEngine(engine);
+
+        HTTPURLRequestOperation operation = new HTTPURLRequestOperation(request, null);
+        operation.setDataConsumer(consumer);
+
+        assertEquals("", run(operation, response));
+        assertNull(response[0]);
+        assertStreamedBody(consumer);
+    }
+
+    @Test
+    public void testUnacceptableContentTypeIsNotStreamed() throws InterruptedException {
+        CollectingConsumer consumer = new CollectingConsumer();
+
+        URLRequest request = URLRequest.requestWithURLString(baseURL + "/large");
+        request.setTransportEngine(engine);
+
+        HTTPURLRequestOperation operation = new JSONURLRequestOperation(request, null);
+        operation.setDataConsumer(consumer);
+
+        String error = run(operation, new Object[1]);
+
+        assertTrue(error.contains("Expected content types"));
+        assertEquals(0, consumer.responses.get());
+        assertEquals(0, consumer.body.size());
+    }
+
+    @Test
+    public void testConsumerExceptionFailsOperation() throws InterruptedException {
+        HTTPURLRequestOperation operation = new HTTPURLRequestOperation(URLRequest.requestWithURLString(baseURL + "/large"), null);
+        operation.setDataConsumer(new URLDataConsumer() {
+            @Override
+            public void didReceiveResponse(URLRequest urlRequest) throws IOException {
+            }
+            @Override
+            public void didReceiveData(URLRequest urlRequest, ByteBuffer data) throws IOException {
+                throw new IOException("Disk full");
+            }
+        });
+
+        assertEquals("Disk full", run(operation, new Object[1]));
+    }
+}
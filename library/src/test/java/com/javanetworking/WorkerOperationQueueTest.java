@@ -0,0 +1,377 @@
+package com.javanetworking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.javanetworking.URLConnectionOperation.QueuePriority;
+import com.javanetworking.URLConnectionOperation.URLCompletion;
+import com.javanetworking.WorkerOperationQueue.RejectionPolicy;
+import com.operationqueue.BaseOperation;
+import com.operationqueue.Operation.OperationState;
+
+public class WorkerOperationQueueTest {
+
+    /**
+     Operation blocking its worker until the release latch is counted down.
+     */
+    private static class BlockingOperation extends BaseOperation {
+
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+        private final CountDownLatch completed;
+
+        BlockingOperation(CountDownLatch started, CountDownLatch release, CountDownLatch completed) {
+            this.started = started;
+            this.release = release;
+            this.completed = completed;
+        }
+
+        @Override
+        public void execute() {
+            super.execute();
+
+            started.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void complete() {
+            super.complete();
+
+            completed.countDown();
+        }
+    }
+
+    private URLCompletion completionWithCountDownLatch(final CountDownLatch signal, final StringBuilder errorSB) {
+        return new URLCompletion() {
+            @Override
+            public void failure(URLRequest request, Throwable t) {
+                errorSB.append(t.getMessage());
+
+                signal.countDown();
+            }
+            @Override
+            public void success(URLRequest request, byte[] responseData) {
+                signal.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testOperationsExecuteConcurrently() throws InterruptedException {
+        final int count = 4;
+
+        CountDownLatch started = new CountDownLatch(count);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(count);
+
+        WorkerOperationQueue queue = new WorkerOperationQueue(count);
+
+        BlockingOperation[] operations = new BlockingOperation[count];
+        for (int i=0; i<count; i++) {
+            operations[i] = new BlockingOperation(started, release, completed);
+            queue.addOperation(operations[i]);
+        }
+
+        // All operations are running at the same time
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(count, queue.getRunningOperationCount());
+        assertEquals(OperationState.Running, operations[0].getState());
+
+        release.countDown();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+        for (BlockingOperation operation : operations) {
+            assertEquals(OperationState.Finished, operation.getState());
+        }
+    }
+
+    @Test
+    public void testFullQueueRejectsOperation() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(2);
+
+        WorkerOperationQueue queue = new WorkerOperationQueue(1, 1, RejectionPolicy.Reject);
+
+        BlockingOperation running = new BlockingOperation(started, release, completed);
+        queue.addOperation(running);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        BlockingOperation waiting = new BlockingOperation(new CountDownLatch(1), release, completed);
+        queue.addOperation(waiting);
+        assertEquals(OperationState.InQueue, waiting.getState());
+        assertEquals(1, queue.getQueuedOperationCount());
+
+        // Third operation does not fit and is completed as rejected
+        CountDownLatch signal = new CountDownLatch(1);
+        StringBuilder errorSB = new StringBuilder();
+
+        URLRequest request = URLRequest.requestWithURLString("http://127.0.0.1/");
+        URLConnectionOperation rejected = URLConnectionOperation.operationWithURLRequest(request, completionWithCountDownLatch(signal, errorSB));
+        queue.addOperation(rejected);
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        assertEquals(OperationState.Rejected, rejected.getState());
+        assertTrue(errorSB.toString().contains("rejected"));
+        assertEquals(1, queue.getRejectedOperationCount());
+
+        release.countDown();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFullQueueBlocksCaller() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(3);
+
+        final WorkerOperationQueue queue = new WorkerOperationQueue(1, 1, RejectionPolicy.Block);
+        assertEquals(1, queue.getMaxQueuedOperationCount());
+
+        queue.addOperation(new BlockingOperation(started, release, completed));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        queue.addOperation(new BlockingOperation(new CountDownLatch(1), release, completed));
+
+        final BlockingOperation blocked = new BlockingOperation(new CountDownLatch(1), release, completed);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.addOperation(blocked);
+            }
+        });
+        producer.start();
+
+        // The producer waits for room in the queue
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals(1, queue.getQueuedOperationCount());
+
+        release.countDown();
+        producer.join(10000);
+        assertTrue(!producer.isAlive());
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(OperationState.Finished, blocked.getState());
+        assertEquals(0, queue.getRejectedOperationCount());
+    }
+
+    @Test
+    public void testFullQueueDropsOldestOperation() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(2);
+
+        WorkerOperationQueue queue = new WorkerOperationQueue(1, 1, RejectionPolicy.DropOldest);
+
+        queue.addOperation(new BlockingOperation(started, release, completed));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch signal = new CountDownLatch(1);
+        StringBuilder errorSB = new StringBuilder();
+
+        URLRequest request = URLRequest.requestWithURLString("http://127.0.0.1/");
+        URLConnectionOperation oldest = URLConnectionOperation.operationWithURLRequest(request, completionWithCountDownLatch(signal, errorSB));
+        queue.addOperation(oldest);
+        BlockingOperation newest = new BlockingOperation(new CountDownLatch(1), release, completed);
+        queue.addOperation(newest);
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        assertEquals(OperationState.Rejected, oldest.getState());
+        assertTrue(errorSB.toString().contains("rejected"));
+        assertEquals(OperationState.InQueue, newest.getState());
+        assertEquals(1, queue.getQueuedOperationCount());
+        assertEquals(1, queue.getRejectedOperationCount());
+
+        release.countDown();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(OperationState.Finished, newest.getState());
+    }
+
+    @Test
+    public void testCancelAllOperationsCancelsWaitingOperations() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(1);
+
+        WorkerOperationQueue queue = new WorkerOperationQueue(1);
+
+        queue.addOperation(new BlockingOperation(started, release, completed));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch signal = new CountDownLatch(1);
+        StringBuilder errorSB = new StringBuilder();
+
+        URLRequest request = URLRequest.requestWithURLString("http://127.0.0.1/");
+        URLConnectionOperation waiting = URLConnectionOperation.operationWithURLRequest(request, completionWithCountDownLatch(signal, errorSB));
+        queue.addOperation(waiting);
+
+        queue.cancelAllOperations();
+
+        assertTrue(signal.await(10, TimeUnit.SECONDS));
+        assertEquals(OperationState.Cancelled, waiting.getState());
+        assertTrue(errorSB.toString().contains("cancelled"));
+        assertTrue(queue.isEmpty());
+
+        // The running operation is interrupted
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelAllOperationsCancelsRunningURLConnectionOperation() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final CountDownLatch received = new CountDownLatch(1);
+
+        // Receives the request and never responds
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.getInputStream().read(new byte[1024]);
+                    received.countDown();
+                    socket.getInputStream().read(new byte[1024]);
+                } catch (IOException e) {}
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try {
+            CountDownLatch signal = new CountDownLatch(1);
+            StringBuilder errorSB = new StringBuilder();
+
+            URLRequest request = URLRequest.requestWithURLString("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+            request.setReadTimeout(30000);
+            URLConnectionOperation running = URLConnectionOperation.operationWithURLRequest(request, completionWithCountDownLatch(signal, errorSB));
+
+            WorkerOperationQueue queue = new WorkerOperationQueue(1);
+            queue.addOperation(running);
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+
+            // A platform worker blocked reading the response is released by closing the connection
+            queue.cancelAllOperations();
+
+            assertTrue(signal.await(10, TimeUnit.SECONDS));
+            assertTrue(running.isCancelled());
+            assertTrue(errorSB.length() > 0);
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testQueueWithVirtualThreadsRunsOperations() throws Exception {
+        boolean virtual = WorkerOperationQueue.isVirtualThreadSupported();
+        final int count = virtual ? 1000 : 8;
+
+        final CountDownLatch started = new CountDownLatch(count);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(count);
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        WorkerOperationQueue queue = WorkerOperationQueue.queueWithVirtualThreads();
+
+        for (int i=0; i<count; i++) {
+            queue.addOperation(new BlockingOperation(started, release, completed) {
+                @Override
+                public void execute() {
+                    threads.add(Thread.currentThread());
+                    super.execute();
+                }
+            });
+        }
+
+        // Every operation is blocked at the same time
+        assertTrue(started.await(30, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+
+        if (virtual) {
+            Method isVirtual = Thread.class.getMethod("isVirtual");
+            assertTrue((Boolean) isVirtual.invoke(threads.get(0)));
+        }
+    }
+
+    /**
+     Operation recording its name when it executes.
+     */
+    private static URLConnectionOperation recordingOperation(final String name, QueuePriority queuePriority, final List<String> executedNames, final CountDownLatch completed) {
+        URLConnectionOperation operation = new URLConnectionOperation(URLRequest.requestWithURLString("http://127.0.0.1/"), null) {
+            @Override
+            public void execute() {
+                executedNames.add(name);
+            }
+            @Override
+            public synchronized void complete() {
+                super.complete();
+                completed.countDown();
+            }
+        };
+        operation.setQueuePriority(queuePriority);
+        return operation;
+    }
+
+    @Test
+    public void testQueueWithPrioritiesStartsHigherPriorityFirst() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(5);
+        List<String> executedNames = Collections.synchronizedList(new ArrayList<String>());
+
+        WorkerOperationQueue queue = WorkerOperationQueue.queueWithPriorities(1, 60000);
+        assertTrue(queue.isPrioritized());
+
+        queue.addOperation(new BlockingOperation(started, release, completed));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        queue.addOperation(recordingOperation("low", QueuePriority.Low, executedNames, completed));
+        queue.addOperation(recordingOperation("normal", QueuePriority.Normal, executedNames, completed));
+        queue.addOperation(recordingOperation("high", QueuePriority.VeryHigh, executedNames, completed));
+        queue.addOperation(recordingOperation("normal2", QueuePriority.Normal, executedNames, completed));
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("high", "normal", "normal2", "low"), executedNames);
+    }
+
+    @Test
+    public void testWaitingOperationsAreAged() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(3);
+        List<String> executedNames = Collections.synchronizedList(new ArrayList<String>());
+
+        WorkerOperationQueue queue = WorkerOperationQueue.queueWithPriorities(1, 5);
+
+        queue.addOperation(new BlockingOperation(started, release, completed));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Waiting longer than four aging intervals outranks the priority difference
+        queue.addOperation(recordingOperation("veryLow", QueuePriority.VeryLow, executedNames, completed));
+        Thread.sleep(100);
+        queue.addOperation(recordingOperation("veryHigh", QueuePriority.VeryHigh, executedNames, completed));
+        release.countDown();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("veryLow", "veryHigh"), executedNames);
+    }
+}